@@ -0,0 +1,37 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/***
+ * Runs the benchmarks with JMH's GC profiler, so each result also gives the
+ * bytes allocated per operation (gc.alloc.rate.norm).
+ *
+ * Arguments are regular expressions of the benchmarks to run, such as
+ * "QueryBenchmark.getMeeting", all benchmarks are run if none are given. Sizes
+ * can be cut down with the system property bench.sizes, such as
+ * -Dbench.sizes=1000,100000, as the largest stores need a large heap.
+ *
+ * @author montywest
+ *
+ */
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws RunnerException {
+    ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+    if (args.length == 0) {
+      options.include("bench\\..*Benchmark");
+    }
+    for (String include : args) {
+      options.include(include);
+    }
+    String sizes = System.getProperty("bench.sizes");
+    if (sizes != null) {
+      options.param("size", sizes.split(","));
+    }
+    new Runner(options.build()).run();
+  }
+}
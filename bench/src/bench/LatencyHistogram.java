@@ -0,0 +1,91 @@
+package bench;
+
+/***
+ * Histogram of latencies in nanoseconds with fixed memory, for percentiles over
+ * runs of any length.
+ *
+ * Values are bucketed by their highest set bit, and each power of two is split
+ * into SUB_BUCKETS linear buckets, so a percentile is reported to within about
+ * 1 / SUB_BUCKETS (3%) of the recorded value. Not thread safe, each thread
+ * records into its own histogram and they are merged with add().
+ *
+ * @author montywest
+ *
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+  private long count;
+  private long max;
+
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[bucket(value)]++;
+    count++;
+    max = Math.max(max, value);
+  }
+
+  /***
+   * Adds other's values to this histogram.
+   *
+   * @param other
+   */
+  void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    max = Math.max(max, other.max);
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  long getMax() {
+    return max;
+  }
+
+  /***
+   * @param percentile between 0 and 100
+   * @return highest value of the bucket holding the percentile, or 0 if empty.
+   */
+  long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, highestValue(i));
+      }
+    }
+    return max;
+  }
+
+  /***
+   * Values below SUB_BUCKETS have a bucket each, above that the top SUB_BUCKET_BITS + 1
+   * bits choose the bucket.
+   */
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  private static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
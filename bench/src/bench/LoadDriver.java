@@ -0,0 +1,313 @@
+package bench;
+
+import impl.ConcurrentContactManager;
+import impl.ContactManagerImpl;
+import interfaces.Contact;
+import interfaces.ContactManager;
+import interfaces.Meeting;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Loads a store and calls a weighted mix of queries and mutations on it from
+ * several threads for a fixed time, then prints each operation's throughput and
+ * latency percentiles.
+ *
+ * Arguments are name=value pairs, all optional but file:
+ *
+ *   file=    store to load, for example one written by StoreGenerator
+ *   threads= number of threads calling the manager (default 4)
+ *   seconds= how long to run after warmup (default 30)
+ *   warmup=  seconds run before measuring (default 5)
+ *   seed=    of each thread's choices (default 42)
+ *   manager= concurrent for ConcurrentContactManager, or synchronized for
+ *            ContactManagerImpl behind one lock (default concurrent)
+ *   mix=     operation=weight,... from the operations in Operation (default
+ *            getMeeting=40,futureByContact=15,pastByContact=15,futureByDate=10,
+ *            contactsByName=5,addContact=5,addFutureMeeting=5,addMeetingNotes=5)
+ *
+ * Mutations change the store in memory only, flush() is never called, so the
+ * file is left as it was.
+ *
+ * @author montywest
+ *
+ */
+public class LoadDriver {
+
+  private static final String DEFAULT_MIX = "getMeeting=40,futureByContact=15,pastByContact=15,futureByDate=10,"
+      + "contactsByName=5,addContact=5,addFutureMeeting=5,addMeetingNotes=5";
+  private static final int KEYS = 4096;
+
+  /***
+   * The operations a mix can be made of.
+   */
+  enum Operation {
+    getMeeting, futureByContact, pastByContact, futureByDate, contactsByName,
+    addContact, addFutureMeeting, addMeetingNotes
+  }
+
+  private final ContactManager manager;
+  private final Object lock;
+  private final Operation[] operations;
+  private final int[] cumulativeWeights;
+
+  private final Contact[] contacts;
+  private final int[] meetingIds;
+  private final int[] pastMeetingIds;
+  private final Calendar[] days;
+  private final String[] nameSearches;
+
+  /***
+   * @param manager to call
+   * @param synchronize whether every call should hold one lock
+   * @param mix operations and their weights
+   * @param seed for choosing keys
+   */
+  public LoadDriver(ContactManager manager, boolean synchronize, Map<Operation, Integer> mix, long seed) {
+    this.manager = manager;
+    this.lock = synchronize ? new Object() : null;
+    this.operations = mix.keySet().toArray(new Operation[0]);
+    this.cumulativeWeights = new int[operations.length];
+    int total = 0;
+    for (int i = 0; i < operations.length; i++) {
+      total += mix.get(operations[i]);
+      cumulativeWeights[i] = total;
+    }
+    if (total <= 0) {
+      throw new IllegalArgumentException("Mix has no weight");
+    }
+
+    Random random = new Random(seed);
+    Contact[] allContacts = manager.getContacts("").toArray(new Contact[0]);
+    if (allContacts.length < 2) {
+      throw new IllegalArgumentException("Store needs at least two contacts");
+    }
+    contacts = new Contact[KEYS];
+    nameSearches = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      contacts[i] = allContacts[random.nextInt(allContacts.length)];
+      String name = allContacts[random.nextInt(allContacts.length)].getName();
+      int length = Math.min(5, name.length());
+      int start = random.nextInt(name.length() - length + 1);
+      nameSearches[i] = name.substring(start, start + length);
+    }
+    // Meetings are found through the contacts, there is no way to list them all by interface.
+    int[] past = new int[KEYS];
+    int[] any = new int[KEYS];
+    int pastCount = 0;
+    int anyCount = 0;
+    for (int i = 0; i < KEYS && (pastCount < KEYS || anyCount < KEYS); i++) {
+      for (Meeting meeting : manager.getPastMeetingList(contacts[i])) {
+        if (pastCount < KEYS) {
+          past[pastCount++] = meeting.getId();
+        }
+        if (anyCount < KEYS) {
+          any[anyCount++] = meeting.getId();
+        }
+      }
+      for (Meeting meeting : manager.getFutureMeetingList(contacts[i])) {
+        if (anyCount < KEYS) {
+          any[anyCount++] = meeting.getId();
+        }
+      }
+    }
+    if (pastCount == 0 || anyCount == 0) {
+      throw new IllegalArgumentException("Store needs past and future meetings");
+    }
+    pastMeetingIds = Arrays.copyOf(past, pastCount);
+    meetingIds = Arrays.copyOf(any, anyCount);
+    days = new Calendar[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      days[i] = manager.getMeeting(meetingIds[random.nextInt(meetingIds.length)]).getDate();
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Map<String, String> options = new LinkedHashMap<String, String>();
+    options.put("threads", "4");
+    options.put("seconds", "30");
+    options.put("warmup", "5");
+    options.put("seed", "42");
+    options.put("manager", "concurrent");
+    options.put("mix", DEFAULT_MIX);
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (equals < 0 || !(options.containsKey(arg.substring(0, equals)) || arg.startsWith("file="))) {
+        System.err.println("Unknown argument " + arg);
+        System.exit(1);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    if (!options.containsKey("file")) {
+      System.err.println("Usage: LoadDriver file=store [threads=4] [seconds=30] [warmup=5] [seed=42] "
+          + "[manager=concurrent|synchronized] [mix=operation=weight,...]");
+      System.exit(1);
+    }
+
+    String filename = options.get("file");
+    boolean synchronize = options.get("manager").equals("synchronized");
+    long start = System.nanoTime();
+    ContactManager manager = synchronize ? new ContactManagerImpl(filename) : new ConcurrentContactManager(filename);
+    System.out.println("Loaded " + filename + " in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+    long seed = Long.parseLong(options.get("seed"));
+    LoadDriver driver = new LoadDriver(manager, synchronize, parseMix(options.get("mix")), seed);
+    int threads = Integer.parseInt(options.get("threads"));
+
+    driver.run(threads, TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup"))), seed);
+    long nanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("seconds")));
+    LatencyHistogram[] results = driver.run(threads, nanos, seed + threads);
+    print(driver.operations, results, nanos);
+  }
+
+  /***
+   * @param mix operation=weight,...
+   * @return weights by operation, in the order given.
+   */
+  static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new LinkedHashMap<Operation, Integer>();
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Bad mix entry " + entry);
+      }
+      int weight = Integer.parseInt(parts[1]);
+      if (weight < 0) {
+        throw new IllegalArgumentException("Negative weight " + entry);
+      }
+      weights.put(Operation.valueOf(parts[0]), weight);
+    }
+    return weights;
+  }
+
+  /***
+   * Runs the mix on threads threads until nanos have passed.
+   *
+   * @param threads
+   * @param nanos
+   * @param seed of the first thread's choices, later threads add their index
+   * @return latencies of each operation, indexed as operations.
+   * @throws InterruptedException
+   */
+  LatencyHistogram[] run(int threads, final long nanos, long seed) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final LatencyHistogram[][] perThread = new LatencyHistogram[threads][];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int index = t;
+      final Random random = new Random(seed + t);
+      workers[t] = new Thread(new Runnable() {
+        public void run() {
+          LatencyHistogram[] histograms = newHistograms();
+          perThread[index] = histograms;
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long deadline = System.nanoTime() + nanos;
+          long now;
+          do {
+            int op = choose(random);
+            long before = System.nanoTime();
+            call(operations[op], random);
+            now = System.nanoTime();
+            histograms[op].record(now - before);
+          } while (now < deadline);
+        }
+      }, "load-" + t);
+      workers[t].start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    LatencyHistogram[] merged = newHistograms();
+    for (LatencyHistogram[] histograms : perThread) {
+      for (int i = 0; i < merged.length; i++) {
+        merged[i].add(histograms[i]);
+      }
+    }
+    return merged;
+  }
+
+  private LatencyHistogram[] newHistograms() {
+    LatencyHistogram[] histograms = new LatencyHistogram[operations.length];
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+    return histograms;
+  }
+
+  private int choose(Random random) {
+    int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    int i = 0;
+    while (cumulativeWeights[i] <= pick) {
+      i++;
+    }
+    return i;
+  }
+
+  private void call(Operation operation, Random random) {
+    if (lock == null) {
+      perform(operation, random);
+    } else {
+      synchronized (lock) {
+        perform(operation, random);
+      }
+    }
+  }
+
+  private Object perform(Operation operation, Random random) {
+    int key = random.nextInt(KEYS);
+    switch (operation) {
+      case getMeeting:
+        return manager.getMeeting(meetingIds[key % meetingIds.length]);
+      case futureByContact:
+        return manager.getFutureMeetingList(contacts[key]);
+      case pastByContact:
+        return manager.getPastMeetingList(contacts[key]);
+      case futureByDate:
+        return manager.getFutureMeetingList(days[key]);
+      case contactsByName:
+        return manager.getContacts(nameSearches[key]);
+      case addContact:
+        manager.addNewContact("Load Contact " + key, "notes");
+        return null;
+      case addFutureMeeting:
+        Calendar date = Calendar.getInstance();
+        date.add(Calendar.DAY_OF_YEAR, 1 + random.nextInt(365));
+        Set<Contact> participants = StoreFixture.participants(random, contacts);
+        return manager.addFutureMeeting(participants, date);
+      case addMeetingNotes:
+        manager.addMeetingNotes(pastMeetingIds[key % pastMeetingIds.length], "load notes");
+        return null;
+      default:
+        throw new IllegalArgumentException(operation.name());
+    }
+  }
+
+  private static void print(Operation[] operations, LatencyHistogram[] results, long nanos) {
+    double seconds = nanos / 1e9;
+    long total = 0;
+    System.out.printf("%-18s %10s %10s %10s %10s %10s %10s %10s%n",
+        "operation", "count", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+    for (int i = 0; i < operations.length; i++) {
+      LatencyHistogram histogram = results[i];
+      total += histogram.getCount();
+      System.out.printf("%-18s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+          operations[i], histogram.getCount(), histogram.getCount() / seconds,
+          histogram.getPercentile(50) / 1e3, histogram.getPercentile(90) / 1e3,
+          histogram.getPercentile(99) / 1e3, histogram.getPercentile(99.9) / 1e3,
+          histogram.getMax() / 1e3);
+    }
+    System.out.printf("%-18s %10d %10.0f%n", "total", total, total / seconds);
+  }
+}
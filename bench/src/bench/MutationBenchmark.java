@@ -0,0 +1,103 @@
+package bench;
+
+import impl.ContactManagerImpl;
+import interfaces.Contact;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Operations that add to a ContactManagerImpl. Each iteration reloads the store
+ * (outside the measurement) and times a batch of BATCH calls, so the store never
+ * grows by more than BATCH records over the size being measured.
+ *
+ * Scores are per batch, divide by BATCH for the time of one call.
+ *
+ * @author montywest
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = MutationBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = MutationBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = "-Xmx24g")
+public class MutationBenchmark {
+
+  static final int BATCH = 1000;
+
+  @Param({"1000", "100000", "1000000", "10000000"})
+  public int size;
+
+  private String filename;
+  private ContactManagerImpl manager;
+  private List<Set<Contact>> participants;
+  private Instant[] futureDates;
+  private int[] pastMeetingIds;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void copyStore() throws IOException {
+    filename = StoreFixture.copyOfStore(size);
+  }
+
+  @Setup(Level.Iteration)
+  public void load() {
+    manager = new ContactManagerImpl(filename);
+    Random random = new Random(StoreFixture.SEED);
+    Contact[] contacts = StoreFixture.contactsById(manager);
+    int[] allPastIds = StoreFixture.ids(manager.getPastMeetings());
+    Instant now = Instant.now();
+
+    participants = new ArrayList<Set<Contact>>(BATCH);
+    futureDates = new Instant[BATCH];
+    pastMeetingIds = new int[BATCH];
+    for (int i = 0; i < BATCH; i++) {
+      participants.add(StoreFixture.participants(random, contacts));
+      futureDates[i] = now.plus(1 + random.nextInt(5 * 365), ChronoUnit.DAYS);
+      pastMeetingIds[i] = allPastIds[random.nextInt(allPastIds.length)];
+    }
+    next = 0;
+  }
+
+  private int next() {
+    int current = next;
+    next = (next + 1) % BATCH;
+    return current;
+  }
+
+  @Benchmark
+  public void addNewContact() {
+    manager.addNewContact("Benchmark Contact", "notes");
+  }
+
+  @Benchmark
+  public int addFutureMeeting() {
+    int i = next();
+    return manager.addFutureMeeting(participants.get(i), futureDates[i]);
+  }
+
+  @Benchmark
+  public void addMeetingNotes() {
+    manager.addMeetingNotes(pastMeetingIds[next()], "benchmark notes");
+  }
+}
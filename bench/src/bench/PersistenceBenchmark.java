@@ -0,0 +1,58 @@
+package bench;
+
+import impl.ContactManagerImpl;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Saving a whole ContactManagerImpl with flush(), and loading one through its
+ * constructor. Both are timed one call at a time, as at the larger sizes a single
+ * call takes seconds.
+ *
+ * @author montywest
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx24g")
+public class PersistenceBenchmark {
+
+  @Param({"1000", "100000", "1000000", "10000000"})
+  public int size;
+
+  private String filename;
+  private ContactManagerImpl manager;
+
+  @Setup(Level.Trial)
+  public void load() throws IOException {
+    filename = StoreFixture.copyOfStore(size);
+    manager = new ContactManagerImpl(filename);
+  }
+
+  @Benchmark
+  public void flush() {
+    manager.flush();
+  }
+
+  @Benchmark
+  public ContactManagerImpl loadFromFile() {
+    return new ContactManagerImpl(filename);
+  }
+}
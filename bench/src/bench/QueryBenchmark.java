@@ -0,0 +1,127 @@
+package bench;
+
+import impl.ContactManagerImpl;
+import interfaces.Contact;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.time.LocalDate;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Read only operations of ContactManagerImpl against a loaded store. Each
+ * invocation queries the next of a fixed set of keys, chosen with the fixture's
+ * seed, so results don't depend on one contact or day.
+ *
+ * @author montywest
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx24g")
+public class QueryBenchmark {
+
+  private static final int KEYS = 1024;
+
+  @Param({"1000", "100000", "1000000", "10000000"})
+  public int size;
+
+  private ContactManagerImpl manager;
+  private int[] meetingIds;
+  private Contact[] contacts;
+  private Calendar[] days;
+  private LocalDate[] localDays;
+  private int[][] contactIdBatches;
+  private String[] nameSearches;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void load() {
+    manager = new ContactManagerImpl(StoreFixture.storeFile(size));
+    Random random = new Random(StoreFixture.SEED);
+    Contact[] allContacts = StoreFixture.contactsById(manager);
+    int[] pastIds = StoreFixture.ids(manager.getPastMeetings());
+    int[] futureIds = StoreFixture.ids(manager.getFutureMeetings());
+
+    meetingIds = new int[KEYS];
+    contacts = new Contact[KEYS];
+    days = new Calendar[KEYS];
+    localDays = new LocalDate[KEYS];
+    contactIdBatches = new int[KEYS][];
+    nameSearches = new String[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      int[] ids = random.nextBoolean() ? pastIds : futureIds;
+      meetingIds[i] = ids[random.nextInt(ids.length)];
+      contacts[i] = allContacts[random.nextInt(allContacts.length)];
+      days[i] = manager.getMeeting(meetingIds[i]).getDate();
+      localDays[i] = days[i].toInstant().atZone(days[i].getTimeZone().toZoneId()).toLocalDate();
+      contactIdBatches[i] = new int[10];
+      for (int j = 0; j < contactIdBatches[i].length; j++) {
+        contactIdBatches[i][j] = allContacts[random.nextInt(allContacts.length)].getId();
+      }
+      String name = allContacts[random.nextInt(allContacts.length)].getName();
+      int start = random.nextInt(name.length() - 4);
+      nameSearches[i] = name.substring(start, start + 5);
+    }
+  }
+
+  private int next() {
+    next = (next + 1) & (KEYS - 1);
+    return next;
+  }
+
+  @Benchmark
+  public Meeting getMeeting() {
+    return manager.getMeeting(meetingIds[next()]);
+  }
+
+  @Benchmark
+  public List<Meeting> getFutureMeetingListByContact() {
+    return manager.getFutureMeetingList(contacts[next()]);
+  }
+
+  @Benchmark
+  public List<Meeting> getFutureMeetingListByCalendar() {
+    return manager.getFutureMeetingList(days[next()]);
+  }
+
+  @Benchmark
+  public List<Meeting> getFutureMeetingListByLocalDate() {
+    return manager.getFutureMeetingList(localDays[next()]);
+  }
+
+  @Benchmark
+  public List<PastMeeting> getPastMeetingList() {
+    return manager.getPastMeetingList(contacts[next()]);
+  }
+
+  @Benchmark
+  public Set<Contact> getContactsByIds() {
+    return manager.getContacts(contactIdBatches[next()]);
+  }
+
+  @Benchmark
+  public Set<Contact> getContactsByName() {
+    return manager.getContacts(nameSearches[next()]);
+  }
+}
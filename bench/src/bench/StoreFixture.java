@@ -0,0 +1,147 @@
+package bench;
+
+import impl.ContactManagerImpl;
+import interfaces.Contact;
+import interfaces.Meeting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Builds the stores the benchmarks load, so every run of a given size measures
+ * the same data.
+ *
+ * A store of size n holds n meetings, half in the past and half in the future
+ * (between a day and five years either side of when it was built), each with two to five
+ * of n / 10 (at least 10) contacts, chosen with a fixed seed. Stores are built
+ * through ContactManagerImpl's public methods and saved once to the temp
+ * directory, later runs reuse the file.
+ *
+ * @author montywest
+ *
+ */
+final class StoreFixture {
+
+  static final long SEED = 42;
+
+  private static final String[] SURNAMES = {
+    "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson", "Davies", "Robinson", "Wright"
+  };
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final long YEAR_MILLIS = 365 * DAY_MILLIS;
+
+  private StoreFixture() {
+  }
+
+  /***
+   * @param size number of meetings
+   * @return filename of the store, built if it doesn't exist yet.
+   */
+  static String storeFile(int size) {
+    File file = new File(System.getProperty("java.io.tmpdir"), "contact-bench-" + size + ".store");
+    if (!file.isFile()) {
+      build(file, size);
+    }
+    return file.getPath();
+  }
+
+  /***
+   * For benchmarks that change or save the store, so the shared file is left as built.
+   *
+   * @param size number of meetings
+   * @return filename of a new copy of the store, deleted on exit.
+   * @throws IOException
+   */
+  static String copyOfStore(int size) throws IOException {
+    File copy = File.createTempFile("contact-bench-" + size + "-", ".store");
+    copy.deleteOnExit();
+    Files.copy(new File(storeFile(size)).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return copy.getPath();
+  }
+
+  /***
+   * @param manager
+   * @return the manager's contacts in id order.
+   */
+  static Contact[] contactsById(ContactManagerImpl manager) {
+    Contact[] contacts = manager.getContacts().toArray(new Contact[0]);
+    Arrays.sort(contacts, new Comparator<Contact>() {
+      public int compare(Contact c1, Contact c2) {
+        return Integer.compare(c1.getId(), c2.getId());
+      }
+    });
+    return contacts;
+  }
+
+  /***
+   * @param meetings
+   * @return ids of meetings.
+   */
+  static int[] ids(List<? extends Meeting> meetings) {
+    int[] ids = new int[meetings.size()];
+    int i = 0;
+    for (Meeting meeting : meetings) {
+      ids[i++] = meeting.getId();
+    }
+    return ids;
+  }
+
+  /***
+   * @param random
+   * @param contacts
+   * @return set of two to five distinct contacts.
+   */
+  static Set<Contact> participants(Random random, Contact[] contacts) {
+    int count = Math.min(contacts.length, 2 + random.nextInt(4));
+    Set<Contact> participants = new HashSet<Contact>();
+    while (participants.size() < count) {
+      participants.add(contacts[random.nextInt(contacts.length)]);
+    }
+    return participants;
+  }
+
+  /***
+   * @param random
+   * @param index
+   * @return name unique to index, ending with one of a few surnames.
+   */
+  static String name(Random random, int index) {
+    return "Contact " + index + " " + SURNAMES[random.nextInt(SURNAMES.length)];
+  }
+
+  private static void build(File file, int size) {
+    File partial = new File(file.getPath() + ".partial");
+    partial.delete();
+    Random random = new Random(SEED);
+    ContactManagerImpl manager = new ContactManagerImpl(partial.getPath());
+    int contactCount = Math.max(10, size / 10);
+    for (int i = 0; i < contactCount; i++) {
+      manager.addNewContact(name(random, i), "notes " + i);
+    }
+    Contact[] contacts = contactsById(manager);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < size; i++) {
+      Set<Contact> participants = participants(random, contacts);
+      long offset = DAY_MILLIS + (long) (random.nextDouble() * 5 * YEAR_MILLIS);
+      if (i % 2 == 0) {
+        manager.addNewPastMeeting(participants, Instant.ofEpochMilli(now - offset), "meeting " + i);
+      } else {
+        manager.addFutureMeeting(participants, Instant.ofEpochMilli(now + offset));
+      }
+    }
+    manager.flush();
+    if (!partial.renameTo(file)) {
+      throw new IllegalStateException("Could not save store " + file);
+    }
+  }
+}
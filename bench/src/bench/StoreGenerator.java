@@ -0,0 +1,226 @@
+package bench;
+
+import impl.ContactManagerImpl;
+import interfaces.Contact;
+import interfaces.PastMeeting;
+
+import java.io.File;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Builds a store of realistic shape through ContactManagerImpl's public methods
+ * and saves it with flush(). The same seed and sizes always give the same store.
+ *
+ * Contacts get a first name and surname from short lists (so names repeat, as
+ * real ones do) and notes of between none and a few dozen words. Each meeting
+ * draws its participants from a Zipf distribution over the contacts, so a few
+ * contacts are in very many meetings and most are in few, in a random order of
+ * popularity. Most meetings have two or three participants.
+ *
+ * Past meetings are spread back from now with an exponential distribution, so
+ * recent days are busiest, and future meetings likewise forward from tomorrow.
+ * Meetings start on the hour or half hour in working hours, and mostly on
+ * weekdays. Past meetings have notes, and some have several added later.
+ *
+ * Usage: StoreGenerator filename contacts meetings [seed] [pastFraction] [zipfExponent]
+ *
+ * @author montywest
+ *
+ */
+public class StoreGenerator {
+
+  static final long DEFAULT_SEED = 42;
+  static final double DEFAULT_PAST_FRACTION = 0.6;
+  static final double DEFAULT_ZIPF_EXPONENT = 1.1;
+
+  private static final String[] FIRST_NAMES = {
+    "Oliver", "Amelia", "Jack", "Olivia", "Harry", "Isla", "Jacob", "Emily", "Charlie", "Poppy",
+    "Thomas", "Ava", "George", "Isabella", "Oscar", "Jessica", "James", "Lily", "William", "Sophie",
+    "Mohammed", "Grace", "Noah", "Mia", "Leo", "Freya", "Arjun", "Chloe", "Wei", "Zara"
+  };
+  private static final String[] SURNAMES = {
+    "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson", "Davies", "Robinson", "Wright",
+    "Thompson", "Evans", "Walker", "White", "Roberts", "Green", "Hall", "Wood", "Jackson", "Clarke",
+    "Patel", "Khan", "Lewis", "James", "Phillips", "Mason", "Mitchell", "Rose", "Davis", "Chen"
+  };
+  private static final String[] WORDS = {
+    "agreed", "budget", "call", "client", "contract", "deadline", "demo", "design", "follow", "up",
+    "invoice", "meeting", "minutes", "next", "steps", "plan", "priority", "project", "proposal", "quarter",
+    "release", "review", "risk", "roadmap", "sales", "schedule", "scope", "sign", "off", "status",
+    "team", "timeline", "update", "vendor", "action", "blocked", "confirmed", "draft", "feedback", "launch"
+  };
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final double MEAN_PAST_DAYS = 180;
+  private static final double MEAN_FUTURE_DAYS = 45;
+
+  private final Random random;
+  private final double pastFraction;
+  private final double zipfExponent;
+  private final ZoneId zone = ZoneId.systemDefault();
+
+  /***
+   * @param seed
+   * @param pastFraction of meetings that are past meetings
+   * @param zipfExponent of participation, larger is more skewed
+   */
+  public StoreGenerator(long seed, double pastFraction, double zipfExponent) {
+    this.random = new Random(seed);
+    this.pastFraction = pastFraction;
+    this.zipfExponent = zipfExponent;
+  }
+
+  public static void main(String[] args) {
+    if (args.length < 3) {
+      System.err.println("Usage: StoreGenerator filename contacts meetings [seed] [pastFraction] [zipfExponent]");
+      System.exit(1);
+    }
+    long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+    double pastFraction = args.length > 4 ? Double.parseDouble(args[4]) : DEFAULT_PAST_FRACTION;
+    double zipfExponent = args.length > 5 ? Double.parseDouble(args[5]) : DEFAULT_ZIPF_EXPONENT;
+    long start = System.nanoTime();
+    new StoreGenerator(seed, pastFraction, zipfExponent)
+        .generate(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    System.out.println("Generated in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + "s.");
+  }
+
+  /***
+   * Builds the store in a new file, replacing any file already there, and saves it.
+   *
+   * @param filename
+   * @param contactCount
+   * @param meetingCount
+   * @return the manager holding the store.
+   */
+  public ContactManagerImpl generate(String filename, int contactCount, int meetingCount) {
+    if (contactCount < 2 || meetingCount < 0) {
+      throw new IllegalArgumentException();
+    }
+    new File(filename).delete();
+    ContactManagerImpl manager = new ContactManagerImpl(filename);
+    for (int i = 0; i < contactCount; i++) {
+      manager.addNewContact(name(), words(geometric(0.15) - 1));
+    }
+    Contact[] byPopularity = StoreFixture.contactsById(manager);
+    shuffle(byPopularity);
+    double[] zipf = zipfDistribution(byPopularity.length);
+
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < meetingCount; i++) {
+      Set<Contact> participants = participants(byPopularity, zipf);
+      if (random.nextDouble() < pastFraction) {
+        long date = meetingTime(now, -1, MEAN_PAST_DAYS);
+        manager.addNewPastMeeting(participants, Instant.ofEpochMilli(date), words(1 + geometric(0.1)));
+      } else {
+        manager.addFutureMeeting(participants, Instant.ofEpochMilli(meetingTime(now, 1, MEAN_FUTURE_DAYS)));
+      }
+      if ((i + 1) % 1000000 == 0) {
+        System.out.println((i + 1) + " meetings added.");
+      }
+    }
+    for (PastMeeting meeting : manager.getPastMeetings()) {
+      for (int notes = geometric(0.7) - 1; notes > 0; notes--) {
+        manager.addMeetingNotes(meeting.getId(), words(1 + geometric(0.3)));
+      }
+    }
+    manager.flush();
+    return manager;
+  }
+
+  private String name() {
+    return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + SURNAMES[random.nextInt(SURNAMES.length)];
+  }
+
+  private String words(int count) {
+    StringBuilder words = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        words.append(' ');
+      }
+      words.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return words.toString();
+  }
+
+  /***
+   * @param p probability of stopping at each step
+   * @return number of steps up to and including the first stop, at least 1.
+   */
+  private int geometric(double p) {
+    int steps = 1;
+    while (random.nextDouble() >= p) {
+      steps++;
+    }
+    return steps;
+  }
+
+  /***
+   * @param size
+   * @return cumulative probabilities of ranks 1 to size, rank r weighted 1 / r^exponent.
+   */
+  private double[] zipfDistribution(int size) {
+    double[] cumulative = new double[size];
+    double total = 0;
+    for (int rank = 1; rank <= size; rank++) {
+      total += 1 / Math.pow(rank, zipfExponent);
+      cumulative[rank - 1] = total;
+    }
+    for (int i = 0; i < size; i++) {
+      cumulative[i] /= total;
+    }
+    return cumulative;
+  }
+
+  /***
+   * Mostly two or three participants, occasionally many, never more than half the contacts.
+   */
+  private Set<Contact> participants(Contact[] byPopularity, double[] zipf) {
+    int count = Math.min(1 + geometric(0.45), Math.max(2, byPopularity.length / 2));
+    Set<Contact> participants = new HashSet<Contact>();
+    while (participants.size() < count) {
+      int rank = Arrays.binarySearch(zipf, random.nextDouble());
+      if (rank < 0) {
+        rank = -rank - 1;
+      }
+      participants.add(byPopularity[Math.min(rank, byPopularity.length - 1)]);
+    }
+    return participants;
+  }
+
+  /***
+   * @param now
+   * @param direction -1 for the past, 1 for the future
+   * @param meanDays mean distance from now
+   * @return a working hour start time at least a day from now, moved off a weekend nine times in ten.
+   */
+  private long meetingTime(long now, int direction, double meanDays) {
+    long days = 1 + (long) (-Math.log(1 - random.nextDouble()) * meanDays);
+    ZonedDateTime date = Instant.ofEpochMilli(now).atZone(zone).plusDays(direction * days)
+        .withHour(9 + random.nextInt(9)).withMinute(random.nextBoolean() ? 0 : 30).withSecond(0).withNano(0);
+    DayOfWeek day = date.getDayOfWeek();
+    if ((day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY) && random.nextInt(10) != 0) {
+      // To the Monday after, or the Friday before.
+      boolean saturday = day == DayOfWeek.SATURDAY;
+      date = direction > 0 ? date.plusDays(saturday ? 2 : 1) : date.minusDays(saturday ? 1 : 2);
+    }
+    long millis = date.toInstant().toEpochMilli();
+    // A day from now is always in the future, but moving to working hours may bring it closer.
+    return direction > 0 ? Math.max(millis, now + DAY_MILLIS) : millis;
+  }
+
+  private void shuffle(Contact[] contacts) {
+    for (int i = contacts.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      Contact swap = contacts[i];
+      contacts[i] = contacts[j];
+      contacts[j] = swap;
+    }
+  }
+}
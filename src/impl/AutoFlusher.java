@@ -0,0 +1,190 @@
+package impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/***
+ * Saves a ContactManagerImpl on a background thread once it has changed, so
+ * callers making changes don't wait for the file to be written.
+ *
+ * A save is requested every interval if there are changes since the last save,
+ * and as soon as mutations changes have been made since the last request. Requests
+ * made while one is already queued are dropped, and each save writes every change
+ * made up to its start, so a burst of changes is saved once.
+ *
+ * Versions count the manager's changes, a save of version v holds every change up
+ * to the v-th. awaitSaved(v) blocks until such a save has been attempted, which is
+ * how the manager's flush() waits without writing the file itself.
+ *
+ * @author montywest
+ *
+ */
+final class AutoFlusher {
+
+  private final ContactManagerImpl manager;
+  private final int mutations;
+  private final ScheduledExecutorService executor;
+  private final AtomicBoolean saveQueued = new AtomicBoolean();
+  private final Object saved = new Object();
+  private final Runnable save = new Runnable() {
+    public void run() {
+      saveQueued.set(false);
+      save();
+    }
+  };
+
+  /***
+   * Version of the last change a save was requested for, guarded by the manager's lock.
+   */
+  private long requestedVersion;
+  /***
+   * Version of the last save attempted, and of the last that succeeded, guarded by saved.
+   */
+  private long attemptedVersion;
+  private long savedVersion;
+  private boolean stopped;
+  /***
+   * Set by stop(false), so a save queued before it doesn't write.
+   */
+  private volatile boolean discarded;
+
+  /***
+   * Starts saving manager, which has no unsaved changes at version.
+   *
+   * @param manager
+   * @param version
+   * @param interval between checks for changes, or 0 to only save on mutations
+   * @param unit of interval
+   * @param mutations number of changes that request a save, or 0 to only save on interval
+   */
+  AutoFlusher(ContactManagerImpl manager, long version, long interval, TimeUnit unit, int mutations) {
+    if (interval < 0 || mutations < 0 || (interval == 0 && mutations == 0)) {
+      throw new IllegalArgumentException();
+    }
+    this.manager = manager;
+    this.mutations = mutations;
+    this.requestedVersion = version;
+    this.attemptedVersion = version;
+    this.savedVersion = version;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "contact-manager-flush");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    if (interval > 0) {
+      executor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          if (AutoFlusher.this.manager.getVersion() > getAttemptedVersion()) {
+            requestSave();
+          }
+        }
+      }, interval, interval, unit);
+    }
+  }
+
+  /***
+   * Called by the manager, holding its lock, after each change.
+   *
+   * @param version of the change
+   */
+  void changed(long version) {
+    if (mutations > 0 && version - requestedVersion >= mutations) {
+      requestedVersion = version;
+      requestSave();
+    }
+  }
+
+  /***
+   * Blocks until a save of version, or a later one, has been attempted. Returns
+   * early if interrupted, with the interrupt status set, or if stopped.
+   *
+   * @param version
+   */
+  void awaitSaved(long version) {
+    synchronized (saved) {
+      if (attemptedVersion >= version || stopped) {
+        return;
+      }
+    }
+    requestSave();
+    synchronized (saved) {
+      while (attemptedVersion < version && !stopped) {
+        try {
+          saved.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /***
+   * @return version of the last change that was saved.
+   */
+  long getSavedVersion() {
+    synchronized (saved) {
+      return savedVersion;
+    }
+  }
+
+  /***
+   * Stops the background thread after any save in progress, then saves the remaining
+   * changes on the calling thread if saveChanges, else drops them.
+   *
+   * @param saveChanges
+   */
+  void stop(boolean saveChanges) {
+    discarded = !saveChanges;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (saveChanges && manager.getVersion() > getAttemptedVersion()) {
+      save();
+    }
+    synchronized (saved) {
+      stopped = true;
+      saved.notifyAll();
+    }
+  }
+
+  private long getAttemptedVersion() {
+    synchronized (saved) {
+      return attemptedVersion;
+    }
+  }
+
+  private void requestSave() {
+    if (saveQueued.compareAndSet(false, true)) {
+      try {
+        executor.execute(save);
+      } catch (RuntimeException e) {
+        // Shut down, stop(true) saves whatever is left.
+        saveQueued.set(false);
+      }
+    }
+  }
+
+  private void save() {
+    long version = manager.getVersion();
+    if (discarded || version <= getAttemptedVersion()) {
+      return;
+    }
+    boolean written = manager.save();
+    synchronized (saved) {
+      attemptedVersion = Math.max(attemptedVersion, version);
+      if (written) {
+        savedVersion = Math.max(savedVersion, version);
+      }
+      saved.notifyAll();
+    }
+  }
+}
@@ -0,0 +1,513 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.ContactManager;
+import interfaces.FutureMeeting;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/***
+ * ContactManager that may be shared between threads.
+ *
+ * Contacts and meetings are held in ConcurrentIntMaps, keyed by id without boxing,
+ * with the same indexes as ContactManagerImpl: meetings by contact, and by day, built
+ * from concurrent skip lists so they stay date ordered, and contacts by the trigrams
+ * of their names. Queries take no locks, but for the name index's short per-list ones.
+ *
+ * A meeting's list is given by its state alone. addMeetingNotes() moves a future
+ * meeting to the past with a compare and set on that state, so exactly one caller
+ * converts it, and queries skip index entries whose state no longer matches while
+ * the indexes catch up.
+ *
+ * Changes take the shared side of a read write lock, so they run in parallel with
+ * each other, and flush() takes the exclusive side while it copies the maps, so the
+ * file it writes never has a meeting without its contacts. Contacts' and meetings' notes are synchronized
+ * on the object itself.
+ *
+ * As with ContactManagerImpl, the current time is read from a Clock, and dates may
+ * also be given as Instants and LocalDates.
+ *
+ * Loads through ContactManagerImpl, so reads any file it can, and saves in
+ * StoreCodec's binary format. Journaled mode is not supported.
+ *
+ * @author montywest
+ *
+ */
+public class ConcurrentContactManager implements ContactManager {
+
+  private final ConcurrentIntMap<Contact> contactsById = new ConcurrentIntMap<Contact>();
+  private final ConcurrentNameIndex contactNames = new ConcurrentNameIndex();
+  private final ConcurrentIntMap<MeetingImpl> meetingsById = new ConcurrentIntMap<MeetingImpl>();
+  private final ConcurrentIntMap<ConcurrentSkipListSet<Meeting>> futureMeetingsByContact =
+      new ConcurrentIntMap<ConcurrentSkipListSet<Meeting>>();
+  private final ConcurrentIntMap<ConcurrentSkipListSet<Meeting>> pastMeetingsByContact =
+      new ConcurrentIntMap<ConcurrentSkipListSet<Meeting>>();
+  private final ConcurrentSkipListMap<Long, ConcurrentSkipListSet<Meeting>> meetingsByDay =
+      new ConcurrentSkipListMap<Long, ConcurrentSkipListSet<Meeting>>();
+  private final ContactDirectory directory = new ContactDirectory() {
+    public Contact getContact(int id) {
+      return contactsById.get(id);
+    }
+  };
+  private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+  private final GroupCommit commits = new GroupCommit(new BooleanSupplier() {
+    public boolean getAsBoolean() {
+      return save();
+    }
+  });
+  private final String filename;
+  private final Clock clock;
+  private final TimeZone clockZone;
+
+  /***
+   * Loads from default file: contacts.txt.
+   */
+  public ConcurrentContactManager() {
+    this("contacts.txt");
+  }
+
+  /***
+   * Loads from filename parameter, which is then used by flush().
+   *
+   * @param filename
+   */
+  public ConcurrentContactManager(String filename) {
+    this(filename, Clock.systemDefaultZone());
+  }
+
+  /***
+   * Loads from filename parameter, reading the current time from clock.
+   *
+   * @param filename
+   * @param clock
+   */
+  public ConcurrentContactManager(String filename, Clock clock) {
+    this.filename = filename;
+    this.clock = clock;
+    this.clockZone = TimeZone.getTimeZone(clock.getZone());
+    ContactManagerImpl loaded = new ContactManagerImpl(filename);
+    for (Contact contact : loaded.getContacts()) {
+      putContact(contact);
+    }
+    for (PastMeeting pm : loaded.getPastMeetings()) {
+      ((MeetingImpl) pm).setDirectory(directory);
+      putMeeting((MeetingImpl) pm);
+    }
+    for (FutureMeeting fm : loaded.getFutureMeetings()) {
+      ((MeetingImpl) fm).setDirectory(directory);
+      putMeeting((MeetingImpl) fm);
+    }
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public int getContactCount() {
+    return contactsById.size();
+  }
+
+  public Clock getClock() {
+    return clock;
+  }
+
+  /***
+   * @see "Adds a new FutureMeeting."
+   */
+  @Override
+  public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+    return addFutureMeeting(contacts, date.getTimeInMillis(), date.getTimeZone());
+  }
+
+  /***
+   * As addFutureMeeting(contacts, Calendar), with the meeting in the clock's time zone.
+   *
+   * @param contacts
+   * @param date
+   * @return the ID for the meeting
+   */
+  public int addFutureMeeting(Set<Contact> contacts, Instant date) {
+    return addFutureMeeting(contacts, date.toEpochMilli(), clockZone);
+  }
+
+  private int addFutureMeeting(Set<Contact> contacts, long dateMillis, TimeZone timeZone) {
+    if (!areValidContacts(contacts) || dateMillis < clock.millis()) {
+      throw new IllegalArgumentException();
+    }
+    MeetingImpl meeting = new MeetingImpl(dateMillis, timeZone, MeetingImpl.sortedIds(contacts), directory);
+    meeting.setState(MeetingState.FUTURE);
+    snapshotLock.readLock().lock();
+    try {
+      putMeeting(meeting);
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+    return meeting.getId();
+  }
+
+  /***
+   * @see "Looks meeting up by id and then checks its state."
+   */
+  @Override
+  public PastMeeting getPastMeeting(int id) {
+    MeetingImpl meeting = meetingsById.get(id);
+    if (meeting == null) {
+      return null;
+    } else if (!meeting.getState().isPast()) {
+      throw new IllegalArgumentException();
+    }
+    return meeting;
+  }
+
+  /***
+   * @see "Looks meeting up by id and then checks its state."
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(int id) {
+    MeetingImpl meeting = meetingsById.get(id);
+    if (meeting == null) {
+      return null;
+    } else if (meeting.getState().isPast()) {
+      throw new IllegalArgumentException();
+    }
+    return meeting;
+  }
+
+  @Override
+  public Meeting getMeeting(int id) {
+    return meetingsById.get(id);
+  }
+
+  /***
+   * @see "Copies the contact's future meetings from the contact index, which
+   * holds them sorted by date, skipping any that have been converted."
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(Contact contact) {
+    if (!isValidContact(contact)) {
+      throw new IllegalArgumentException();
+    }
+    List<Meeting> returnList = new LinkedList<Meeting>();
+    ConcurrentSkipListSet<Meeting> indexed = futureMeetingsByContact.get(contact.getId());
+    if (indexed != null) {
+      for (Meeting meeting : indexed) {
+        if (!((MeetingImpl) meeting).getState().isPast()) {
+          returnList.add(meeting);
+        }
+      }
+    }
+    return returnList;
+  }
+
+  /***
+   * @see "Copies the day's bucket from the calendar index, which holds
+   * meetings of both states sorted by time."
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(Calendar date) {
+    return getMeetingsOnDay(ContactManagerImpl.epochDay(date));
+  }
+
+  /***
+   * As getFutureMeetingList(Calendar), for meetings on date in their own time zone.
+   *
+   * @param date
+   * @return the list of meetings on date, maybe empty.
+   */
+  public List<Meeting> getFutureMeetingList(LocalDate date) {
+    return getMeetingsOnDay(date.toEpochDay());
+  }
+
+  private List<Meeting> getMeetingsOnDay(long epochDay) {
+    List<Meeting> returnList = new LinkedList<Meeting>();
+    ConcurrentSkipListSet<Meeting> bucket = meetingsByDay.get(epochDay);
+    if (bucket != null) {
+      returnList.addAll(bucket);
+    }
+    return returnList;
+  }
+
+  /***
+   * @see "Copies the contact's past meetings from the contact index, which
+   * holds them sorted by date."
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingList(Contact contact) {
+    if (!isValidContact(contact)) {
+      throw new IllegalArgumentException();
+    }
+    List<PastMeeting> returnList = new LinkedList<PastMeeting>();
+    ConcurrentSkipListSet<Meeting> indexed = pastMeetingsByContact.get(contact.getId());
+    if (indexed != null) {
+      for (Meeting meeting : indexed) {
+        returnList.add((PastMeeting) meeting);
+      }
+    }
+    return returnList;
+  }
+
+  /***
+   * @see "Adds new PastMeeting, which may have a future date as with ContactManagerImpl."
+   */
+  @Override
+  public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+    if (date == null) {
+      throw new NullPointerException();
+    }
+    addNewPastMeeting(contacts, date.getTimeInMillis(), date.getTimeZone(), text);
+  }
+
+  /***
+   * As addNewPastMeeting(contacts, Calendar, text), with the meeting in the clock's time zone.
+   *
+   * @param contacts
+   * @param date
+   * @param text
+   */
+  public void addNewPastMeeting(Set<Contact> contacts, Instant date, String text) {
+    if (date == null) {
+      throw new NullPointerException();
+    }
+    addNewPastMeeting(contacts, date.toEpochMilli(), clockZone, text);
+  }
+
+  private void addNewPastMeeting(Set<Contact> contacts, long dateMillis, TimeZone timeZone, String text) {
+    if (contacts == null || text == null) {
+      throw new NullPointerException();
+    }
+    if (contacts.size() == 0 || !areValidContacts(contacts)) {
+      throw new IllegalArgumentException();
+    }
+    MeetingImpl meeting = new MeetingImpl(dateMillis, timeZone, MeetingImpl.sortedIds(contacts), directory);
+    meeting.addNotes(text);
+    meeting.setState(MeetingState.PAST);
+    snapshotLock.readLock().lock();
+    try {
+      putMeeting(meeting);
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+  }
+
+  /***
+   * @see "If the meeting is a FutureMeeting whose date has passed, the caller that wins
+   * the compare and set of its state moves it to the past indexes. The notes are then
+   * added, whoever converted it."
+   */
+  @Override
+  public void addMeetingNotes(int id, String text) {
+    if (text == null) {
+      throw new NullPointerException();
+    }
+    MeetingImpl meeting = meetingsById.get(id);
+    if (meeting == null) {
+      throw new IllegalArgumentException();
+    }
+    snapshotLock.readLock().lock();
+    try {
+      if (meeting.getState() == MeetingState.FUTURE) {
+        if (meeting.getDateMillis() >= clock.millis()) {
+          throw new IllegalStateException();
+        }
+        if (meeting.compareAndSetState(MeetingState.FUTURE, MeetingState.CONVERTED)) {
+          for (int contactId : meeting.getContactIds()) {
+            index(pastMeetingsByContact, contactId, meeting);
+            ConcurrentSkipListSet<Meeting> future = futureMeetingsByContact.get(contactId);
+            if (future != null) {
+              future.remove(meeting);
+            }
+          }
+        }
+      }
+      meeting.addNotes(text);
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+  }
+
+  /***
+   * @see "Adds new contact."
+   */
+  @Override
+  public void addNewContact(String name, String notes) {
+    if (notes == null || name == null) {
+      throw new NullPointerException();
+    }
+    Contact contact = new ContactImpl(name, notes);
+    snapshotLock.readLock().lock();
+    try {
+      putContact(contact);
+    } finally {
+      snapshotLock.readLock().unlock();
+    }
+  }
+
+  /***
+   * @see "Looks each id up, throwing IllegalArgumentException at the first with no contact."
+   */
+  @Override
+  public Set<Contact> getContacts(int... ids) {
+    Set<Contact> returnSet = new HashSet<Contact>();
+    for (int id : ids) {
+      Contact contact = contactsById.get(id);
+      if (contact == null) {
+        throw new IllegalArgumentException();
+      }
+      returnSet.add(contact);
+    }
+    return returnSet;
+  }
+
+  /***
+   * @see "Names of three or more characters only test the contacts the name index gives
+   * as candidates, shorter names iterate through the contacts."
+   */
+  @Override
+  public Set<Contact> getContacts(String name) {
+    if (name == null) {
+      throw new NullPointerException();
+    }
+    Set<Contact> returnSet = new HashSet<Contact>();
+    if (NameIndex.canSearch(name)) {
+      for (int id : contactNames.candidates(name)) {
+        Contact candidate = contactsById.get(id);
+        if (candidate != null && candidate.getName().contains(name)) {
+          returnSet.add(candidate);
+        }
+      }
+      return returnSet;
+    }
+    for (Contact contact : contactsById) {
+      if (contact.getName().contains(name)) {
+        returnSet.add(contact);
+      }
+    }
+    return returnSet;
+  }
+
+  /***
+   * @see "Saves through a GroupCommit, so threads flushing at once share one save."
+   */
+  @Override
+  public void flush() {
+    commits.commit();
+  }
+
+  /***
+   * Holds off changes only while the contacts and meetings are copied, then
+   * encodes the copies to the filename field through StoreFile.
+   *
+   * @return true if saved.
+   */
+  private boolean save() {
+    List<Contact> contacts;
+    List<Meeting> meetings;
+    MeetingState[] states;
+    snapshotLock.writeLock().lock();
+    try {
+      contacts = new ArrayList<Contact>(contactsById.size());
+      for (Contact contact : contactsById) {
+        contacts.add(contact);
+      }
+      meetings = new ArrayList<Meeting>(meetingsById.size());
+      for (Meeting meeting : meetingsById) {
+        meetings.add(meeting);
+      }
+      states = StoreCodec.statesOf(meetings);
+    } finally {
+      snapshotLock.writeLock().unlock();
+    }
+    try {
+      StoreFile.write(filename, 0, contacts, meetings, states, false);
+      System.out.println("Saved.");
+      return true;
+    } catch (FileNotFoundException e) {
+      System.err.println("encoding... " + e);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return false;
+  }
+
+  /***
+   * Makes contact visible by id, then adds it to the name index, so a search finding
+   * it as a candidate can look it up.
+   *
+   * @param contact
+   */
+  private void putContact(Contact contact) {
+    contactsById.put(contact.getId(), contact);
+    contactNames.add(contact.getId(), contact.getName());
+  }
+
+  /***
+   * Adds meeting to the indexes for its state, then makes it visible by id.
+   *
+   * @param meeting
+   */
+  private void putMeeting(MeetingImpl meeting) {
+    ConcurrentIntMap<ConcurrentSkipListSet<Meeting>> byContact =
+        meeting.getState().isPast() ? pastMeetingsByContact : futureMeetingsByContact;
+    for (int contactId : meeting.getContactIds()) {
+      index(byContact, contactId, meeting);
+    }
+    Long day = meeting.getEpochDay();
+    ConcurrentSkipListSet<Meeting> bucket = meetingsByDay.get(day);
+    if (bucket == null) {
+      ConcurrentSkipListSet<Meeting> newBucket = new ConcurrentSkipListSet<Meeting>(ContactManagerImpl.DATE_ORDER);
+      bucket = meetingsByDay.putIfAbsent(day, newBucket);
+      if (bucket == null) {
+        bucket = newBucket;
+      }
+    }
+    bucket.add(meeting);
+    meetingsById.put(meeting.getId(), meeting);
+  }
+
+  private static void index(ConcurrentIntMap<ConcurrentSkipListSet<Meeting>> index, int contactId, Meeting meeting) {
+    ConcurrentSkipListSet<Meeting> contactMeetings = index.get(contactId);
+    if (contactMeetings == null) {
+      ConcurrentSkipListSet<Meeting> newSet = new ConcurrentSkipListSet<Meeting>(ContactManagerImpl.DATE_ORDER);
+      contactMeetings = index.putIfAbsent(contactId, newSet);
+      if (contactMeetings == null) {
+        contactMeetings = newSet;
+      }
+    }
+    contactMeetings.add(meeting);
+  }
+
+  /***
+   * @param contacts
+   * @return true if every contact is one of this manager's contacts.
+   */
+  private boolean areValidContacts(Set<Contact> contacts) {
+    for (Contact contact : contacts) {
+      if (!isValidContact(contact)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isValidContact(Contact contact) {
+    return contact != null && contact.equals(contactsById.get(contact.getId()));
+  }
+}
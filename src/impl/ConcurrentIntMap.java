@@ -0,0 +1,186 @@
+package impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/***
+ * A map keyed by non-negative ints that may be shared between threads, so that
+ * looking a domain object up by id never boxes the key.
+ *
+ * Ids are handed out in sequence, so rather than hashing, the value for key k is
+ * held at slot k of a table split into chunks of CHUNK_SIZE slots. Chunks are
+ * allocated when a key in them is first put, under a lock, and the table of chunks
+ * is replaced by a larger copy when a key beyond it is put. Gets take no locks:
+ * they read the current table, then the slot with a volatile read. Puts of keys in
+ * chunks that exist are a single atomic set.
+ *
+ * Memory is proportional to the largest key rather than the number of entries,
+ * which suits ids shared between contacts and meetings. A null value marks an
+ * empty slot, hence null values cannot be stored, and entries are never removed.
+ * Iteration is in key order and weakly consistent, as with the concurrent collections.
+ *
+ * @author montywest
+ *
+ * @param <V> value type
+ */
+final class ConcurrentIntMap<V> implements Iterable<V> {
+
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private volatile AtomicReferenceArray<AtomicReferenceArray<V>> chunks =
+      new AtomicReferenceArray<AtomicReferenceArray<V>>(16);
+  private final AtomicInteger size = new AtomicInteger();
+  private final Object growLock = new Object();
+
+  int size() {
+    return size.get();
+  }
+
+  /***
+   * @param key
+   * @return the value of key, or null if there is none (including for a negative key).
+   */
+  V get(int key) {
+    if (key < 0) {
+      return null;
+    }
+    AtomicReferenceArray<AtomicReferenceArray<V>> table = chunks;
+    int chunkNumber = key >>> CHUNK_BITS;
+    if (chunkNumber >= table.length()) {
+      return null;
+    }
+    AtomicReferenceArray<V> chunk = table.get(chunkNumber);
+    return chunk == null ? null : chunk.get(key & CHUNK_MASK);
+  }
+
+  /***
+   * @param key
+   * @param value
+   * @return the value key had before, or null.
+   * @throws IllegalArgumentException if key is negative
+   * @throws NullPointerException if value is null
+   */
+  V put(int key, V value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    V previous = chunkFor(key).getAndSet(key & CHUNK_MASK, value);
+    if (previous == null) {
+      size.incrementAndGet();
+    }
+    return previous;
+  }
+
+  /***
+   * @param key
+   * @param value
+   * @return the value key already had, leaving it in place, or null if value was put.
+   * @throws IllegalArgumentException if key is negative
+   * @throws NullPointerException if value is null
+   */
+  V putIfAbsent(int key, V value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    AtomicReferenceArray<V> chunk = chunkFor(key);
+    int slot = key & CHUNK_MASK;
+    while (true) {
+      V current = chunk.get(slot);
+      if (current != null) {
+        return current;
+      }
+      if (chunk.compareAndSet(slot, null, value)) {
+        size.incrementAndGet();
+        return null;
+      }
+    }
+  }
+
+  /***
+   * @return the chunk holding key, allocating it, and growing the table, if need be.
+   */
+  private AtomicReferenceArray<V> chunkFor(int key) {
+    if (key < 0) {
+      throw new IllegalArgumentException();
+    }
+    int chunkNumber = key >>> CHUNK_BITS;
+    AtomicReferenceArray<AtomicReferenceArray<V>> table = chunks;
+    if (chunkNumber < table.length()) {
+      AtomicReferenceArray<V> chunk = table.get(chunkNumber);
+      if (chunk != null) {
+        return chunk;
+      }
+    }
+    synchronized (growLock) {
+      table = chunks;
+      if (chunkNumber >= table.length()) {
+        int length = table.length();
+        while (length <= chunkNumber) {
+          length *= 2;
+        }
+        AtomicReferenceArray<AtomicReferenceArray<V>> grown =
+            new AtomicReferenceArray<AtomicReferenceArray<V>>(length);
+        for (int i = 0; i < table.length(); i++) {
+          grown.set(i, table.get(i));
+        }
+        chunks = grown;
+        table = grown;
+      }
+      AtomicReferenceArray<V> chunk = table.get(chunkNumber);
+      if (chunk == null) {
+        chunk = new AtomicReferenceArray<V>(CHUNK_SIZE);
+        table.set(chunkNumber, chunk);
+      }
+      return chunk;
+    }
+  }
+
+  /***
+   * @see "Iterates values in key order, seeing puts made after it started if it
+   * has not yet passed their keys."
+   */
+  @Override
+  public Iterator<V> iterator() {
+    final AtomicReferenceArray<AtomicReferenceArray<V>> table = chunks;
+    return new Iterator<V>() {
+      private int key = -1;
+      private V next = advance();
+
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      public V next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        V value = next;
+        next = advance();
+        return value;
+      }
+
+      private V advance() {
+        while (true) {
+          key++;
+          int chunkNumber = key >>> CHUNK_BITS;
+          if (key < 0 || chunkNumber >= table.length()) {
+            return null;
+          }
+          AtomicReferenceArray<V> chunk = table.get(chunkNumber);
+          if (chunk == null) {
+            key |= CHUNK_MASK;
+            continue;
+          }
+          V value = chunk.get(key & CHUNK_MASK);
+          if (value != null) {
+            return value;
+          }
+        }
+      }
+    };
+  }
+}
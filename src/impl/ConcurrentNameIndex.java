@@ -0,0 +1,135 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/***
+ * NameIndex for ConcurrentContactManager: the same trigram index of contact
+ * names, but safe for threads adding contacts and searching at once.
+ *
+ * Posting lists are found in a concurrent map by trigram, and each is locked on
+ * its own, so adds of names sharing no trigram, and searches, don't wait for each
+ * other. A search copies the smallest of its trigrams' lists, then tests each id
+ * in it against the others, each test a binary search under that list's lock. A
+ * contact added during a search may or may not be among its candidates.
+ *
+ * Trigrams are hashed, so keys are spread too widely for a ConcurrentIntMap.
+ * The key is only boxed once per trigram of a name or search string.
+ *
+ * @author montywest
+ *
+ */
+final class ConcurrentNameIndex {
+
+  private final ConcurrentMap<Integer, Postings> postingsByGram = new ConcurrentHashMap<Integer, Postings>();
+
+  /***
+   * Posts id under each trigram of name.
+   *
+   * @param id
+   * @param name
+   */
+  void add(int id, String name) {
+    for (int i = 0; i + NameIndex.GRAM_LENGTH <= name.length(); i++) {
+      Integer gram = NameIndex.gram(name, i);
+      Postings postings = postingsByGram.get(gram);
+      if (postings == null) {
+        Postings newPostings = new Postings();
+        postings = postingsByGram.putIfAbsent(gram, newPostings);
+        if (postings == null) {
+          postings = newPostings;
+        }
+      }
+      postings.add(id);
+    }
+  }
+
+  /***
+   * As NameIndex.candidates().
+   *
+   * @param search (at least three characters long)
+   * @return ids of contacts whose name may contain search, in ascending order.
+   */
+  int[] candidates(String search) {
+    int gramCount = search.length() - NameIndex.GRAM_LENGTH + 1;
+    Postings[] lists = new Postings[gramCount];
+    Postings smallest = null;
+    for (int i = 0; i < gramCount; i++) {
+      lists[i] = postingsByGram.get(NameIndex.gram(search, i));
+      if (lists[i] == null) {
+        return new int[0];
+      }
+      if (smallest == null || lists[i].size() < smallest.size()) {
+        smallest = lists[i];
+      }
+    }
+
+    int[] ids = smallest.toArray();
+    int resultSize = 0;
+    for (int id : ids) {
+      boolean inAll = true;
+      for (Postings postings : lists) {
+        if (postings != smallest && !postings.contains(id)) {
+          inAll = false;
+          break;
+        }
+      }
+      if (inAll) {
+        ids[resultSize++] = id;
+      }
+    }
+    return Arrays.copyOf(ids, resultSize);
+  }
+
+  /***
+   * Growable array of ids, sorted on demand as threads adding contacts at once may
+   * add their ids out of order.
+   */
+  private static final class Postings {
+    private int[] ids = new int[4];
+    private int size;
+    private boolean sorted = true;
+
+    synchronized void add(int id) {
+      if (size > 0 && ids[size - 1] == id) {
+        return;
+      }
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      if (size > 0 && ids[size - 1] > id) {
+        sorted = false;
+      }
+      ids[size++] = id;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized boolean contains(int id) {
+      sort();
+      return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    synchronized int[] toArray() {
+      sort();
+      return Arrays.copyOf(ids, size);
+    }
+
+    private void sort() {
+      if (!sorted) {
+        Arrays.sort(ids, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+          if (unique == 0 || ids[unique - 1] != ids[i]) {
+            ids[unique++] = ids[i];
+          }
+        }
+        size = unique;
+        sorted = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package impl;
+
+import interfaces.Contact;
+
+/***
+ * Resolves contact ids to contacts, so a MeetingImpl can hold just the ids
+ * of its contacts and share the instances held by its manager.
+ *
+ * @author montywest
+ *
+ */
+interface ContactDirectory {
+
+  /***
+   * @param id
+   * @return contact with the id, or null if there is none.
+   */
+  Contact getContact(int id);
+}
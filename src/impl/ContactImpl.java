@@ -2,13 +2,28 @@ package impl;
 
 import interfaces.Contact;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
+/***
+ * Notes are held as a Notes segment list, so adding a note doesn't copy the
+ * notes before it. The serialized form is unchanged from when notes were a String.
+ * 
+ * @author montywest
+ *
+ */
 public class ContactImpl extends DomainObject implements Contact, Serializable {
 
   private static final long serialVersionUID = 2L;
-  private final String name;
-  private String notes = "";
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("name", String.class),
+    new ObjectStreamField("notes", String.class)
+  };
+  private String name;
+  private Notes notes = new Notes();
 
   public ContactImpl() {
     name = null;
@@ -22,21 +37,57 @@ public class ContactImpl extends DomainObject implements Contact, Serializable {
     this.name = name;
     this.addNotes(note);
   }
+  
+  /***
+   * Recreates a contact with a previously assigned id.
+   */
+  ContactImpl(int id, String name, String note) {
+    super(id);
+    this.name = name;
+    this.addNotes(note);
+  }
+  
+  /***
+   * Recreates a contact with a previously assigned id, adding each note in turn.
+   */
+  ContactImpl(int id, String name, String[] notes) {
+    this(id, name, notes, true);
+  }
+  
+  /***
+   * As ContactImpl(id, name, notes), only reserving the id if reserveId is true.
+   */
+  ContactImpl(int id, String name, String[] notes, boolean reserveId) {
+    super(id, reserveId);
+    this.name = name;
+    for (String note : notes) {
+      this.notes.add(note);
+    }
+  }
 
+  /***
+   * @see "Joined when first asked for after a note is added."
+   */
   @Override
-  public String getNotes() {
-    return notes;
+  public synchronized String getNotes() {
+    return notes.toString();
   }
 
   
   /***
-   * @see "Adds a semicolon to separate new note from existing notes."
+   * @see "Adds a semicolon to separate new note from existing notes.
+   * Synchronized, as a ConcurrentContactManager may add notes from several threads."
    */
   @Override
-  public void addNotes(String note) {
-    if (!notes.equals(""))
-      notes += "; ";
-    notes += note;
+  public synchronized void addNotes(String note) {
+    notes.add(note);
+  }
+  
+  /***
+   * @return each note added, in order, as saved by StoreCodec.
+   */
+  synchronized String[] getNoteSegments() {
+    return notes.segments();
   }
 
   @Override
@@ -56,6 +107,28 @@ public class ContactImpl extends DomainObject implements Contact, Serializable {
     return this.getId() == contact.getId();
   }
   
+  /***
+   * @see "Consistent with equals(), so equal contacts hash alike."
+   */
+  @Override
+  public int hashCode() {
+    return getId();
+  }
+  
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("name", name);
+    fields.put("notes", getNotes());
+    out.writeFields();
+  }
+  
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    name = (String) fields.get("name", null);
+    notes = new Notes();
+    notes.add((String) fields.get("notes", ""));
+  }
+  
   @Override
   public String toString() {
     return "[Contact-> Id: " + getId() + ", Name: " + getName() + ", Notes: " + getNotes() + "]";
@@ -7,32 +7,76 @@ import interfaces.Meeting;
 import interfaces.PastMeeting;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /***
  * Loads from file on construction, the default file is contacts.txt, but an alternate filename can
- * be passed as a parameter into the constructor. Encodes to same file when flush() is called.
+ * be passed as a parameter into the constructor. Encodes to same file when flush() is called,
+ * using the binary format of StoreCodec. Files saved with Java serialization are still loaded.
+ * A save is written to a temporary file and renamed over the old one, so a crash mid-save
+ * leaves the last complete save, and threads flushing at once share one save.
  * 
- * Past meetings and Future meeting are separated in to two lists, however due to the passing
- * of time meetings held in the future meeting list may have a date in the past, to convert you must
+ * In journaled mode each change is also logged, and flush() appends the changes made since
+ * the last flush to a journal file (filename + ".journal") rather than rewriting the whole file.
+ * The whole file is only rewritten, as a snapshot, once enough changes have built up, and
+ * on construction the journal is replayed on top of the snapshot. Only changes made through
+ * this class are logged, notes added directly to a Contact or PastMeeting are saved at the
+ * next snapshot.
+ * 
+ * Every check against the current time reads the Clock given on construction (the system
+ * clock by default), and dates may be given as java.time Instants and LocalDates as well as
+ * Calendars. Meetings added with an Instant take the clock's time zone.
+ * 
+ * With startRollover() future meetings are moved to the past meetings as their dates pass,
+ * on a background thread, and queries of future meetings never return one whose date has
+ * passed.
+ * 
+ * With startAutoFlush() changes are saved on a background thread, after a number of
+ * changes or an interval, and flush() only waits for the changes made before it to be
+ * saved. The background save copies the contact set and meeting lists holding the object's
+ * lock, between changes, and writes them without it.
+ * 
+ * Queries and changes hold the object's lock, so it can be used alongside those background
+ * threads. Queries need it too, as the name index sorts its postings when first searched.
+ * 
+ * Past meetings and Future meeting are separated in to two date ordered sets, however due to the passing
+ * of time meetings held in the future meeting set may have a date in the past, to convert you must
  * call addMeetingNotes().
  * 
  * @author montywest
@@ -41,11 +85,106 @@ import java.util.Set;
 public class ContactManagerImpl implements ContactManager, Serializable {
   
   private static final long serialVersionUID = 4L;
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  /***
+   * Number of results the streams read, holding the lock, at a time.
+   */
+  private static final int STREAM_PAGE_SIZE = 256;
+  
+  /***
+   * Orders meetings by date, farthest in past to farthest in future,
+   * with ties broken by id so distinct meetings never compare as equal.
+   * Compares epoch millis, so builds no Calendars. Meetings must be MeetingImpls.
+   */
+  static final Comparator<Meeting> DATE_ORDER = new Comparator<Meeting>() {
+    public int compare(Meeting m1, Meeting m2) {
+      int byDate = Long.compare(((MeetingImpl) m1).getDateMillis(), ((MeetingImpl) m2).getDateMillis());
+      return byDate != 0 ? byDate : Integer.compare(m1.getId(), m2.getId());
+    }
+  };
+  
+  /***
+   * Serialized as before these were date ordered sets, the sets as lists and the
+   * rest as written by default, so files saved with Java serialization by either
+   * version are read by both.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("pastMeetings", List.class),
+    new ObjectStreamField("futureMeetings", List.class),
+    new ObjectStreamField("contacts", Set.class),
+    new ObjectStreamField("filename", String.class),
+    new ObjectStreamField("journalSequence", long.class)
+  };
   
-  private List<PastMeeting> pastMeetings = new LinkedList<PastMeeting>();
-  private List<FutureMeeting> futureMeetings = new LinkedList<FutureMeeting>();
+  /***
+   * Both meeting sets are kept in DATE_ORDER, so adding or removing a meeting is
+   * O(log n) and they are iterated in date order without sorting.
+   */
+  private TreeSet<PastMeeting> pastMeetings = new TreeSet<PastMeeting>(DATE_ORDER);
+  private TreeSet<FutureMeeting> futureMeetings = new TreeSet<FutureMeeting>(DATE_ORDER);
   private Set<Contact> contacts = new HashSet<Contact>();
-  private final String filename;
+  private String filename;
+  
+  /***
+   * Sequence number of the last journal record this object holds,
+   * written with the snapshot so replay can skip records already in it.
+   */
+  private long journalSequence;
+  
+  /***
+   * Null unless in journaled mode.
+   */
+  private transient Journal journal;
+  
+  /***
+   * Primary indexes of the contact set and both meeting lists by id,
+   * rebuilt rather than serialized.
+   */
+  private transient IntHashMap<Contact> contactsById = new IntHashMap<Contact>();
+  private transient ContactDirectory directory = newDirectory();
+  private transient NameIndex contactNames = new NameIndex();
+  private transient IntHashMap<Meeting> meetingsById = new IntHashMap<Meeting>();
+  
+  /***
+   * Inverted indexes from contact id to that contact's meetings in each list,
+   * held in date order.
+   */
+  private transient IntHashMap<TreeSet<Meeting>> futureMeetingsByContact = new IntHashMap<TreeSet<Meeting>>();
+  private transient IntHashMap<TreeSet<Meeting>> pastMeetingsByContact = new IntHashMap<TreeSet<Meeting>>();
+  
+  /***
+   * Calendar index of meetings from both lists, bucketed by the day
+   * (counted from the epoch, in the meeting's own time zone) they are on.
+   */
+  private transient TreeMap<Long, TreeSet<Meeting>> meetingsByDay = new TreeMap<Long, TreeSet<Meeting>>();
+  
+  /***
+   * Source of the current time, and its zone as a TimeZone for meetings added with an Instant.
+   * Not serialized, a deserialized object uses the system clock.
+   */
+  private transient Clock clock = Clock.systemDefaultZone();
+  private transient TimeZone clockZone = TimeZone.getTimeZone(clock.getZone());
+  
+  /***
+   * Number of changes made through this object since it was loaded, and the saver
+   * that writes them in the background, null unless startAutoFlush() has been called.
+   */
+  private transient volatile long version;
+  private transient AutoFlusher autoFlusher;
+  private transient GroupCommit commits = newGroupCommit();
+  
+  /***
+   * Moves future meetings to the past as they fall due, null unless startRollover()
+   * has been called.
+   */
+  private transient volatile RolloverScheduler rolloverScheduler;
+  
+  /***
+   * If saves write the indexes MappedContactManager reads, set by setMappedIndexes()
+   * or by loading a file that has them.
+   */
+  private transient boolean mappedIndexes;
   
   /***
    * Default constructor loads from default file: contacts.txt.
@@ -63,8 +202,37 @@ public class ContactManagerImpl implements ContactManager, Serializable {
    * @param filename
    */
   public ContactManagerImpl(String filename) {
+    this(filename, false);
+  }
+  
+  /***
+   * Loads from filename parameter, and if journaled then replays the
+   * journal file on top of it.
+   * This filename is then saved to object for later encoding.
+   * 
+   * @param filename
+   * @param journaled
+   */
+  public ContactManagerImpl(String filename, boolean journaled) {
+    this(filename, journaled, Clock.systemDefaultZone());
+  }
+  
+  /***
+   * As ContactManagerImpl(filename, journaled), reading the current time from clock.
+   * 
+   * @param filename
+   * @param journaled
+   * @param clock
+   */
+  public ContactManagerImpl(String filename, boolean journaled, Clock clock) {
+    this.clock = clock;
+    this.clockZone = TimeZone.getTimeZone(clock.getZone());
     loadFromFile(filename);
     this.filename = filename;
+    if (journaled) {
+      this.journal = new Journal(filename + ".journal", Journal.DEFAULT_SNAPSHOT_INTERVAL);
+      replayJournal();
+    }
   }
 
   /***
@@ -72,8 +240,10 @@ public class ContactManagerImpl implements ContactManager, Serializable {
    * If no file of that name exists then it will create one.
    * IF file is empty or corrupt, nothing will be loaded.
    * 
-   * Creates a new object from the file then acts like a copy
-   * constructor.
+   * Files in the binary format of StoreCodec are decoded straight into this object.
+   * Any other file is assumed to be from before that format, and is read with Java
+   * serialization, then this acts like a copy constructor. The next flush() then
+   * writes it in the binary format.
    * 
    * @param filename
    */
@@ -89,19 +259,72 @@ public class ContactManagerImpl implements ContactManager, Serializable {
       }
     } else {
       
-      ObjectInputStream d = null;
+      BufferedInputStream in = null;
+      boolean isSerialized = false;
       try {
-          d = new ObjectInputStream(
-                  new BufferedInputStream(
-                          new FileInputStream(filename)));
+          in = new BufferedInputStream(new FileInputStream(filename));
+          in.mark(4);
+          DataInputStream d = new DataInputStream(in);
+          if (d.readInt() == StoreCodec.MAGIC) {
+            this.journalSequence = StoreCodec.read(d, new StoreCodec.Sink() {
+              public void indexed() {
+                mappedIndexes = true;
+              }
+              public void contact(int id, String name, String[] notes) {
+                putContact(new ContactImpl(id, name, notes));
+              }
+              public void meeting(int id, MeetingState state, long dateMillis, TimeZone timeZone,
+                  int[] contactIds, String[] notes) {
+                MeetingImpl meeting = new MeetingImpl(id, dateMillis, timeZone, checkedIds(contactIds), directory);
+                for (String note : notes) {
+                  meeting.addNotes(note);
+                }
+                if (state == MeetingState.FUTURE) {
+                  putFutureMeeting(meeting);
+                } else {
+                  putPastMeeting(meeting);
+                  meeting.setState(state);
+                }
+              }
+            });
+            d.close();
+            System.out.println("File " + filename + " loaded.");
+            return;
+          }
+          in.reset();
+          isSerialized = true;
       } catch (FileNotFoundException e) {
           System.out.println("");
           System.out.print("File " + filename + " not found. ");
       } catch (EOFException e) {
           System.out.println("");
           System.out.print("File " + filename + " empty or corrupt. ");
+      } catch (StreamCorruptedException e) {
+          System.out.println("");
+          System.out.print("File " + filename + " corrupt. ");
       } catch (IOException e) {
           e.printStackTrace();
+      } catch (IllegalArgumentException e) {
+          System.out.println("");
+          System.out.print("File " + filename + " corrupt. ");
+      }
+      if (!isSerialized) {
+        closeQuietly(in);
+        clearContents();
+        System.out.println("Nothing loaded.");
+        return;
+      }
+      
+      ObjectInputStream d = null;
+      if (in != null) {
+        try {
+            d = new ObjectInputStream(in);
+        } catch (EOFException e) {
+            System.out.println("");
+            System.out.print("File " + filename + " empty or corrupt. ");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
       }
       if(!(d == null)) {
         ContactManagerImpl deserializedContactManager  = null;
@@ -112,50 +335,258 @@ public class ContactManagerImpl implements ContactManager, Serializable {
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        try {
-            d.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } 
         if(!(deserializedContactManager == null)) {
-          this.pastMeetings = deserializedContactManager.getPastMeetings();
-          this.futureMeetings = deserializedContactManager.getFutureMeetings();
+          this.pastMeetings = deserializedContactManager.pastMeetings;
+          this.futureMeetings = deserializedContactManager.futureMeetings;
           this.contacts = deserializedContactManager.getContacts();
+          this.journalSequence = deserializedContactManager.journalSequence;
+          rebuildIndexes();
+          closeQuietly(d);
           System.out.println("File " + filename + " loaded.");
           return;
         }
       }
+      closeQuietly(in);
       System.out.println("Nothing loaded.");
     }
   }
   
-  public List<PastMeeting> getPastMeetings() {
-    return pastMeetings;
+  /***
+   * @return copy of the past meetings, in date order.
+   */
+  public synchronized List<PastMeeting> getPastMeetings() {
+    rollOverIfDue();
+    return new ArrayList<PastMeeting>(pastMeetings);
   }
 
-  public List<FutureMeeting> getFutureMeetings() {
-    return futureMeetings;
+  /***
+   * @return copy of the future meetings, in date order.
+   */
+  public synchronized List<FutureMeeting> getFutureMeetings() {
+    rollOverIfDue();
+    return new ArrayList<FutureMeeting>(futureMeetings);
   }
-
-  public Set<Contact> getContacts() {
-    return contacts;
+  
+  /***
+   * Rolling over only moves meetings, so unlike getPastMeetings() this doesn't
+   * roll over first.
+   * 
+   * @return copy of the contacts.
+   */
+  public synchronized Set<Contact> getContacts() {
+    return new HashSet<Contact>(contacts);
   }
 
   public String getFilename() {
     return filename;
   }
   
+  public Clock getClock() {
+    return clock;
+  }
+  
+  /***
+   * Saves changes on a background thread, as soon as mutations changes have been
+   * made since the last save was requested, and every interval while there are
+   * unsaved changes. Changes made while a save is waiting to start are saved with
+   * it. flush() then waits for the background thread rather than saving.
+   * Replaces any earlier schedule, the earlier background thread is stopped
+   * without holding the lock, as a save it has started may be waiting for it.
+   * 
+   * @param interval between saves of any changes, or 0 to save only on mutations
+   * @param unit of interval
+   * @param mutations number of changes that start a save, or 0 to save only on interval
+   * @throws IllegalArgumentException if either is negative or both are 0
+   */
+  public void startAutoFlush(long interval, TimeUnit unit, int mutations) {
+    AutoFlusher stopping;
+    synchronized (this) {
+      stopping = autoFlusher;
+      // Changes the earlier thread has not saved yet count as unsaved for this one,
+      // so flush() doesn't return before they are written.
+      long savedVersion = stopping == null ? version : stopping.getSavedVersion();
+      autoFlusher = new AutoFlusher(this, savedVersion, interval, unit, mutations);
+    }
+    if (stopping != null) {
+      stopping.stop(true);
+    }
+  }
+  
+  /***
+   * Saves any changes not yet saved in the background and stops the background
+   * thread, later flush() calls save on the calling thread again.
+   */
+  public void stopAutoFlush() {
+    stopAutoFlush(true);
+  }
+  
+  /***
+   * As stopAutoFlush(), but if saveChanges is false changes not yet saved in the
+   * background are left unsaved, for when the file is about to be deleted. A save
+   * already being written is finished.
+   * 
+   * @param saveChanges
+   */
+  public void stopAutoFlush(boolean saveChanges) {
+    AutoFlusher stopping;
+    synchronized (this) {
+      stopping = autoFlusher;
+      autoFlusher = null;
+    }
+    if (stopping != null) {
+      stopping.stop(saveChanges);
+    }
+  }
+  
+  /***
+   * @return true if changes are being saved in the background.
+   */
+  public synchronized boolean isAutoFlushing() {
+    return autoFlusher != null;
+  }
+  
+  /***
+   * Whether saves write the indexes MappedContactManager needs to open the file. They
+   * are off by default, as they make every save about 2.5 times the size.
+   * Loading a file that has them turns them on, so the file stays mappable.
+   * 
+   * @param indexed
+   */
+  public synchronized void setMappedIndexes(boolean indexed) {
+    mappedIndexes = indexed;
+  }
+  
+  /***
+   * Moves every future meeting whose date has passed to the past meetings, as
+   * addMeetingNotes() would but without adding notes. As future meetings are held in
+   * date order only the meetings moved are visited.
+   * 
+   * @return number of meetings moved.
+   */
+  public synchronized int rollOver() {
+    int moved = 0;
+    while (!futureMeetings.isEmpty()) {
+      MeetingImpl first = (MeetingImpl) futureMeetings.first();
+      if (!isInPast(first.getDateMillis())) {
+        break;
+      }
+      convertToPastMeeting(first);
+      if (journal != null) {
+        journal.logMeetingRolledOver(first.getId());
+      }
+      moved++;
+    }
+    if (moved > 0) {
+      changed();
+    }
+    return moved;
+  }
+  
+  /***
+   * Calls rollOver() on a background thread whenever a future meeting falls due,
+   * and at least every maxDelay. Until stopRollover(), queries of future and past
+   * meetings also roll over first, so never return a future meeting whose date
+   * has passed. Replaces any earlier schedule, the earlier background thread is
+   * stopped without holding the lock, as a roll over it has started may be waiting for it.
+   * 
+   * @param maxDelay longest time between background roll overs
+   * @param unit of maxDelay
+   * @throws IllegalArgumentException if maxDelay is not positive
+   */
+  public void startRollover(long maxDelay, TimeUnit unit) {
+    RolloverScheduler stopping;
+    synchronized (this) {
+      stopping = rolloverScheduler;
+      rolloverScheduler = new RolloverScheduler(this, maxDelay, unit);
+    }
+    if (stopping != null) {
+      stopping.stop();
+    }
+  }
+  
+  /***
+   * Stops the background thread, future meetings then stay future meetings
+   * until addMeetingNotes() or rollOver() is called.
+   */
+  public void stopRollover() {
+    RolloverScheduler stopping;
+    synchronized (this) {
+      stopping = rolloverScheduler;
+      rolloverScheduler = null;
+    }
+    if (stopping != null) {
+      stopping.stop();
+    }
+  }
+  
+  /***
+   * @return true if future meetings are being rolled over as they fall due.
+   */
+  public boolean isRollingOver() {
+    return rolloverScheduler != null;
+  }
+  
+  /***
+   * @return time at which the earliest future meeting is in the past, or Long.MAX_VALUE
+   *   if there are none.
+   */
+  synchronized long getNextRolloverMillis() {
+    if (futureMeetings.isEmpty()) {
+      return Long.MAX_VALUE;
+    }
+    return ((MeetingImpl) futureMeetings.first()).getDateMillis() + 1;
+  }
+  
+  /***
+   * In rollover mode, rolls over if a future meeting has fallen due since the last time.
+   */
+  private void rollOverIfDue() {
+    if (rolloverScheduler != null && getNextRolloverMillis() <= clock.millis()) {
+      rollOver();
+    }
+  }
+  
+  /***
+   * @return number of changes made through this object since it was loaded.
+   */
+  long getVersion() {
+    return version;
+  }
+  
 
   /***
    * @see "Adds a new FutureMeeting to the future meeting list."
    */
   @Override
   public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
-    if (!areValidContacts(contacts) || isInPast(date)) {
+    return addFutureMeeting(contacts, date.getTimeInMillis(), date.getTimeZone());
+  }
+  
+  /***
+   * As addFutureMeeting(contacts, Calendar), with the meeting in the clock's time zone.
+   * 
+   * @param contacts
+   * @param date
+   * @return the ID for the meeting
+   * @throws IllegalArgumentException
+   *           if the meeting is set for a time in the past, of if any contact
+   *           is unknown / non-existent
+   */
+  public int addFutureMeeting(Set<Contact> contacts, Instant date) {
+    return addFutureMeeting(contacts, date.toEpochMilli(), clockZone);
+  }
+  
+  private synchronized int addFutureMeeting(Set<Contact> contacts, long dateMillis, TimeZone timeZone) {
+    if (!areValidContacts(contacts) || isInPast(dateMillis)) {
       throw new IllegalArgumentException();
     }
-    FutureMeeting newFutureMeeting = new MeetingImpl(date, contacts);
-    this.futureMeetings.add(newFutureMeeting);
+    MeetingImpl newFutureMeeting = new MeetingImpl(dateMillis, timeZone,
+        MeetingImpl.sortedIds(contacts), directory);
+    putFutureMeeting(newFutureMeeting);
+    if (journal != null) {
+      journal.logFutureMeeting(newFutureMeeting);
+    }
+    changed();
     return newFutureMeeting.getId();
   }
   
@@ -163,7 +594,8 @@ public class ContactManagerImpl implements ContactManager, Serializable {
    * @see "Calls getMeeting() and then performs checks on meeting's validity."
    */
   @Override
-  public PastMeeting getPastMeeting(int id) {
+  public synchronized PastMeeting getPastMeeting(int id) {
+    rollOverIfDue();
     Meeting meeting = getMeeting(id);
     
     if (meeting == null) {
@@ -179,7 +611,8 @@ public class ContactManagerImpl implements ContactManager, Serializable {
    * @see "Calls getMeeting() and then performs checks on meeting's validity."
    */
   @Override
-  public FutureMeeting getFutureMeeting(int id) {
+  public synchronized FutureMeeting getFutureMeeting(int id) {
+    rollOverIfDue();
     Meeting meeting = getMeeting(id);
     
     if (meeting == null) {
@@ -192,199 +625,667 @@ public class ContactManagerImpl implements ContactManager, Serializable {
   }
   
   /***
-   * @see "Iterates throught both meeting lists and returns the one with the
-   * matching id."
+   * @see "Looks the id up in the meeting index, which holds meetings from both lists."
    */
   @Override
-  public Meeting getMeeting(int id) {
-    for (PastMeeting pm : pastMeetings) {
-      if(pm.getId() == id) {
-        return (Meeting) pm;
-      }
-    }
-    
-    for (FutureMeeting fm : futureMeetings) {
-      if(fm.getId() == id) {
-        return (Meeting) fm;
-      }
-    }
-    
-    return null;
+  public synchronized Meeting getMeeting(int id) {
+    return meetingsById.get(id);
   }
   
   /***
-   * @see "Creates a new list and adds to it if a contact is found in a
-   * meetings contact set when iterating through the future meeting list.
-   * Meetings are then sorted by date, furthest in the past to furthest 
-   * in the future."
+   * @see "Copies the contact's future meetings from the contact index, which
+   * holds them sorted by date, furthest in the past to furthest in the future."
    */
   @Override
-  public List<Meeting> getFutureMeetingList(Contact contact) {
+  public synchronized List<Meeting> getFutureMeetingList(Contact contact) {
     if(!isValidContact(contact)) {
       throw new IllegalArgumentException();
     }
+    rollOverIfDue();
     
     List<Meeting> returnList = new LinkedList<Meeting>();
-    for (FutureMeeting fm : futureMeetings) {
-      Set<Contact> candidateContacts = fm.getContacts();
-      if (candidateContacts.contains(contact)) {
-        returnList.add((Meeting) fm);
-      }
+    TreeSet<Meeting> indexed = futureMeetingsByContact.get(contact.getId());
+    if (indexed != null) {
+      returnList.addAll(indexed);
     }
     
-    sortMeetingsByDate(returnList);
-    
     return returnList;
   }
   
   /***
-   * @see "Meetings are added to a new list if their date is on the same day as the param.
-   * Iterates through both meeting lists as PastMeetings with future dates
+   * @see "Copies the day's bucket from the calendar index, which holds
+   * meetings from both lists as PastMeetings with future dates
    * may be in the past meetings list (due to the specification of addNewPastMeeting)
    * and future meetings with past dates may be in the future meeting list (due to the
    * passing of time).
-   * Meetings are then sorted by time, earliest to latest."
+   * Meetings in a bucket are kept sorted by time, earliest to latest."
    */
   @Override
   public List<Meeting> getFutureMeetingList(Calendar date) {
-    
+    return getMeetingsOnDay(epochDay(date));
+  }
+  
+  /***
+   * As getFutureMeetingList(Calendar), for meetings on date in their own time zone.
+   * 
+   * @param date
+   * @return the list of meetings on date, maybe empty.
+   */
+  public List<Meeting> getFutureMeetingList(LocalDate date) {
+    return getMeetingsOnDay(date.toEpochDay());
+  }
+  
+  private synchronized List<Meeting> getMeetingsOnDay(long epochDay) {
     List<Meeting> returnList = new LinkedList<Meeting>();
+    TreeSet<Meeting> bucket = meetingsByDay.get(epochDay);
+    if (bucket != null) {
+      returnList.addAll(bucket);
+    }
     
-    for (PastMeeting pm : pastMeetings) {
-      if(areSameDay(date, pm.getDate())) {
-        returnList.add((Meeting) pm);
+    return returnList;
+  }
+  
+  /***
+   * Returns meetings from both lists whose date is between from and to, inclusive,
+   * sorted by date. Only the buckets of the days in the range are visited.
+   * 
+   * @param from
+   * @param to
+   * @return list of meetings in range, maybe empty.
+   * @throws NullPointerException if either date is null
+   */
+  public List<Meeting> getMeetingList(Calendar from, Calendar to) {
+    return getMeetingList(from.getTimeInMillis(), to.getTimeInMillis());
+  }
+  
+  /***
+   * As getMeetingList(Calendar, Calendar).
+   * 
+   * @param from
+   * @param to
+   * @return list of meetings in range, maybe empty.
+   * @throws NullPointerException if either date is null
+   */
+  public List<Meeting> getMeetingList(Instant from, Instant to) {
+    return getMeetingList(from.toEpochMilli(), to.toEpochMilli());
+  }
+  
+  private synchronized List<Meeting> getMeetingList(long fromMillis, long toMillis) {
+    List<Meeting> returnList = new LinkedList<Meeting>();
+    if (fromMillis > toMillis) {
+      return returnList;
+    }
+    // Widened by a day each side, as meetings are bucketed by the day in their own time zone.
+    long fromDay = epochDay(fromMillis, UTC) - 1;
+    long toDay = epochDay(toMillis, UTC) + 1;
+    for (TreeSet<Meeting> bucket : meetingsByDay.subMap(fromDay, true, toDay, true).values()) {
+      for (Meeting meeting : bucket) {
+        long millis = ((MeetingImpl) meeting).getDateMillis();
+        if (millis >= fromMillis && millis <= toMillis) {
+          returnList.add(meeting);
+        }
       }
     }
-    
-    for (FutureMeeting fm : futureMeetings) {
-      if(areSameDay(date, fm.getDate())) {
-        returnList.add((Meeting) fm);
+    return returnList;
+  }
+  
+  /***
+   * Returns the next meetings, from either list, whose date is now or later.
+   * Starts at today's bucket and stops as soon as count meetings are found.
+   * 
+   * @param count maximum number of meetings to return
+   * @return list of up to count meetings, sorted by date.
+   * @throws IllegalArgumentException if count is negative
+   */
+  public synchronized List<Meeting> getNextMeetingList(int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException();
+    }
+    List<Meeting> returnList = new LinkedList<Meeting>();
+    long now = clock.millis();
+    // Starts a day early, as a meeting in another time zone may be on an earlier day but still be upcoming.
+    for (Map.Entry<Long, TreeSet<Meeting>> entry : meetingsByDay.tailMap(epochDay(now, UTC) - 1).entrySet()) {
+      for (Meeting meeting : entry.getValue()) {
+        if (returnList.size() == count) {
+          return returnList;
+        }
+        if (((MeetingImpl) meeting).getDateMillis() >= now) {
+          returnList.add(meeting);
+        }
       }
     }
-    
-    sortMeetingsByDate(returnList);
-    
     return returnList;
   }
   
   /***
-   * @see "Creates a new list and adds to it if a contact is found in a
-   * meetings contact set when iterating through the past meeting list.
-   * Meetings are then sorted by date, furthest in the past to furthest 
-   * in the future."
+   * @see "Copies the contact's past meetings from the contact index, which
+   * holds them sorted by date, furthest in the past to furthest in the future."
    */
   @Override
-  public List<PastMeeting> getPastMeetingList(Contact contact) {
+  public synchronized List<PastMeeting> getPastMeetingList(Contact contact) {
     if(!isValidContact(contact)) {
       throw new IllegalArgumentException();
     }
+    rollOverIfDue();
     
     List<PastMeeting> returnList = new LinkedList<PastMeeting>();
-    for (PastMeeting pm : pastMeetings) {
-      Set<Contact> candidateContacts = pm.getContacts();
-      if (candidateContacts.contains(contact)) {
-        returnList.add(pm);
+    TreeSet<Meeting> indexed = pastMeetingsByContact.get(contact.getId());
+    if (indexed != null) {
+      for (Meeting meeting : indexed) {
+        returnList.add((PastMeeting) meeting);
       }
     }
     
-    sortMeetingsByDate(returnList);
-    
     return returnList;
   }
   
   /***
-   * @see "Adds new PastMeeting to the past meeting list.
-   * A past meeting can be added with a future date, as per the interfaces
-   * specification (which is different from addFutureMeeting())."
+   * One page of getFutureMeetingList(contact), read from the contact index after
+   * the meeting named by token, so building it costs O(log n + limit).
+   * 
+   * @param contact
+   * @param token getNextToken() of the previous page, or null for the first page
+   * @param limit most meetings to return
+   * @return page of up to limit meetings, sorted by date.
+   * @throws IllegalArgumentException if the contact is unknown, the token is not
+   *           one this manager gave or limit is not positive
    */
-  @Override
-  public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
-    if (contacts == null || date == null || text == null) {
-      throw new NullPointerException();
-    }
-    if (contacts.size() == 0 || !areValidContacts(contacts)) {
+  public synchronized ResultPage<Meeting> getFutureMeetingPage(Contact contact, String token, int limit) {
+    if(!isValidContact(contact)) {
       throw new IllegalArgumentException();
     }
-    PastMeeting newPastMeeting = new MeetingImpl(date, contacts);
-    newPastMeeting.addNotes(text);
-    this.pastMeetings.add(newPastMeeting);
+    rollOverIfDue();
+    return meetingPage(futureMeetingsByContact.get(contact.getId()), token, limit);
   }
-
+  
   /***
-   * @see "First gets meeting by id and then checks whether is a FutureMeeting or PastMeeting.
-   * If it is a FutureMeeting it checks if the date is now in the past, if not it throws
-   * an IllegalArgumentException. If it is it removes if from the future meeting list,
-   * casts it to a PastMeeting and adds it to the past meeting list.
-   * Lastly, it add notes to the newly cast meeting, or one found in the past meeting list."
+   * As getFutureMeetingPage(), for getPastMeetingList(contact).
+   * 
+   * @param contact
+   * @param token getNextToken() of the previous page, or null for the first page
+   * @param limit most meetings to return
+   * @return page of up to limit meetings, sorted by date.
+   * @throws IllegalArgumentException if the contact is unknown, the token is not
+   *           one this manager gave or limit is not positive
    */
-  @Override
-  public void addMeetingNotes(int id, String text) {
-    if(text == null) {
-      throw new NullPointerException();
-    }
-    
-    Meeting meeting = getMeeting(id);
-    if(meeting == null) {
+  public synchronized ResultPage<PastMeeting> getPastMeetingPage(Contact contact, String token, int limit) {
+    if(!isValidContact(contact)) {
       throw new IllegalArgumentException();
-    } else if (isFutureMeeting(meeting)) {
-      if(isInFuture(meeting.getDate())) {
-        throw new IllegalStateException();
-      }
-      futureMeetings.remove((FutureMeeting) meeting);
-      pastMeetings.add((PastMeeting) meeting);
     }
-    PastMeeting pastMeeting = (PastMeeting) meeting;
-    pastMeeting.addNotes(text);
+    rollOverIfDue();
+    return meetingPage(pastMeetingsByContact.get(contact.getId()), token, limit);
   }
   
   /***
-   * @see "Adds new contact to contact set."
+   * One page of getFutureMeetings(), read from the future meetings after the meeting
+   * named by token, so building it costs O(log n + limit).
+   * 
+   * @param token getNextToken() of the previous page, or null for the first page
+   * @param limit most meetings to return
+   * @return page of up to limit meetings, sorted by date.
+   * @throws IllegalArgumentException if the token is not one this manager gave or
+   *           limit is not positive
    */
-  @Override
-  public void addNewContact(String name, String notes) {
-    if (notes == null || name == null) {
-      throw new NullPointerException();
-    }
+  public synchronized ResultPage<FutureMeeting> getFutureMeetingPage(String token, int limit) {
+    rollOverIfDue();
+    return meetingPage(futureMeetings, token, limit);
+  }
+  
+  /***
+   * As getFutureMeetingPage(token, limit), for getPastMeetings().
+   * 
+   * @param token getNextToken() of the previous page, or null for the first page
+   * @param limit most meetings to return
+   * @return page of up to limit meetings, sorted by date.
+   * @throws IllegalArgumentException if the token is not one this manager gave or
+   *           limit is not positive
+   */
+  public synchronized ResultPage<PastMeeting> getPastMeetingPage(String token, int limit) {
+    rollOverIfDue();
+    return meetingPage(pastMeetings, token, limit);
+  }
+  
+  /***
+   * The contact's future meetings in date order, read lazily a page at a time with
+   * getFutureMeetingPage() rather than copied, so the first is ready at once and
+   * nothing is held but the current page.
+   * 
+   * Each page is read holding the lock and the next carries on from the last meeting
+   * of the one before, so the stream may be used while the manager changes, including
+   * from a background thread. Each page is as the manager was when it was read.
+   * 
+   * @param contact
+   * @return stream of the contact's future meetings, sorted by date.
+   * @throws IllegalArgumentException if the contact is unknown
+   */
+  public synchronized Stream<Meeting> streamFutureMeetings(final Contact contact) {
+    if(!isValidContact(contact)) {
+      throw new IllegalArgumentException();
+    }
+    return stream(new PageIterator<Meeting>() {
+      ResultPage<Meeting> page(String token) {
+        return getFutureMeetingPage(contact, token, STREAM_PAGE_SIZE);
+      }
+    });
+  }
+  
+  /***
+   * As streamFutureMeetings(), for the contact's past meetings.
+   * 
+   * @param contact
+   * @return stream of the contact's past meetings, sorted by date.
+   * @throws IllegalArgumentException if the contact is unknown
+   */
+  public synchronized Stream<PastMeeting> streamPastMeetings(final Contact contact) {
+    if(!isValidContact(contact)) {
+      throw new IllegalArgumentException();
+    }
+    return stream(new PageIterator<PastMeeting>() {
+      ResultPage<PastMeeting> page(String token) {
+        return getPastMeetingPage(contact, token, STREAM_PAGE_SIZE);
+      }
+    });
+  }
+  
+  /***
+   * Takes up to limit meetings from indexed, starting after the one token names.
+   * One more is looked at to tell whether there is a next page.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends Meeting> ResultPage<T> meetingPage(TreeSet<? extends Meeting> indexed, String token,
+      int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException();
+    }
+    Meeting after = token == null ? null : meetingForToken(token);
+    List<T> items = new ArrayList<T>();
+    if (indexed == null) {
+      return new ResultPage<T>(items, null);
+    }
+    TreeSet<Meeting> meetings = (TreeSet<Meeting>) indexed;
+    Iterator<Meeting> it = (after == null ? meetings : meetings.tailSet(after, false)).iterator();
+    while (it.hasNext() && items.size() < limit) {
+      items.add((T) it.next());
+    }
+    String next = it.hasNext() ? meetingToken(items.get(items.size() - 1)) : null;
+    return new ResultPage<T>(items, next);
+  }
+  
+  /***
+   * A meeting token is its date in epoch millis and its id, the key it is
+   * ordered by, so the page after it can start with tailSet(). StoreExporter
+   * builds its own tokens from them.
+   */
+  static String meetingToken(Meeting meeting) {
+    return ((MeetingImpl) meeting).getDateMillis() + ":" + meeting.getId();
+  }
+  
+  /***
+   * Looks the token's meeting up by id, rather than building a meeting to search
+   * from, as building one would reserve its id. Meetings are never removed, so a
+   * token stays good, but one whose date doesn't match was not given by this manager.
+   */
+  private Meeting meetingForToken(String token) {
+    int colon = token.indexOf(':');
+    Meeting meeting = null;
+    long millis = 0;
+    try {
+      if (colon > 0) {
+        millis = Long.parseLong(token.substring(0, colon));
+        meeting = meetingsById.get(Integer.parseInt(token.substring(colon + 1)));
+      }
+    } catch (NumberFormatException e) {
+      meeting = null;
+    }
+    if (meeting == null || ((MeetingImpl) meeting).getDateMillis() != millis) {
+      throw new IllegalArgumentException("Bad page token: " + token);
+    }
+    return meeting;
+  }
+  
+  /***
+   * @see "Adds new PastMeeting to the past meeting list.
+   * A past meeting can be added with a future date, as per the interfaces
+   * specification (which is different from addFutureMeeting())."
+   */
+  @Override
+  public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+    if (date == null) {
+      throw new NullPointerException();
+    }
+    addNewPastMeeting(contacts, date.getTimeInMillis(), date.getTimeZone(), text);
+  }
+  
+  /***
+   * As addNewPastMeeting(contacts, Calendar, text), with the meeting in the clock's time zone.
+   * 
+   * @param contacts
+   * @param date
+   * @param text
+   * @throws IllegalArgumentException
+   *           if the list of contacts is empty, or any of the contacts does
+   *           not exist
+   * @throws NullPointerException
+   *           if any of the arguments is null
+   */
+  public void addNewPastMeeting(Set<Contact> contacts, Instant date, String text) {
+    if (date == null) {
+      throw new NullPointerException();
+    }
+    addNewPastMeeting(contacts, date.toEpochMilli(), clockZone, text);
+  }
+  
+  private synchronized void addNewPastMeeting(Set<Contact> contacts, long dateMillis, TimeZone timeZone,
+      String text) {
+    if (contacts == null || text == null) {
+      throw new NullPointerException();
+    }
+    if (contacts.size() == 0 || !areValidContacts(contacts)) {
+      throw new IllegalArgumentException();
+    }
+    MeetingImpl newPastMeeting = new MeetingImpl(dateMillis, timeZone,
+        MeetingImpl.sortedIds(contacts), directory);
+    newPastMeeting.addNotes(text);
+    putPastMeeting(newPastMeeting);
+    if (journal != null) {
+      journal.logPastMeeting(newPastMeeting, text);
+    }
+    changed();
+  }
+  
+  /***
+   * Batch form of addFutureMeeting(contacts, Instant), for meetings given by their
+   * contacts' ids. Every meeting is checked before any is added, so either all are
+   * added or, if one is invalid, none are. They are added under one lock and
+   * counted as one change.
+   * 
+   * @param contactIds ids of each meeting's contacts, in any order
+   * @param dates one for each meeting
+   * @return ids of the new meetings, in the same order as dates.
+   * @throws IllegalArgumentException if the lists differ in length, any meeting is
+   *           set for a time in the past or any id is not a contact's
+   * @throws NullPointerException if either list, or any element of them, is null
+   */
+  public synchronized int[] addFutureMeetings(List<int[]> contactIds, List<Instant> dates) {
+    long[] dateMillis = toMillis(dates);
+    for (long millis : dateMillis) {
+      if (isInPast(millis)) {
+        throw new IllegalArgumentException();
+      }
+    }
+    return addFutureMeetings(contactIds, dateMillis, clockZones(dateMillis.length));
+  }
+  
+  /***
+   * As addFutureMeetings(contactIds, dates), with each meeting in its own time zone.
+   * Dates aren't checked, so a store being loaded keeps future meetings whose
+   * dates have passed as future meetings.
+   * 
+   * @param contactIds
+   * @param dateMillis
+   * @param timeZones
+   * @return ids of the new meetings, in the same order as dateMillis.
+   */
+  synchronized int[] addFutureMeetings(List<int[]> contactIds, long[] dateMillis, TimeZone[] timeZones) {
+    int[][] participants = checkParticipants(contactIds, dateMillis, timeZones, false);
+    int[] ids = new int[participants.length];
+    for (int i = 0; i < ids.length; i++) {
+      MeetingImpl newFutureMeeting = new MeetingImpl(dateMillis[i], timeZones[i], participants[i], directory);
+      putFutureMeeting(newFutureMeeting);
+      if (journal != null) {
+        journal.logFutureMeeting(newFutureMeeting);
+      }
+      ids[i] = newFutureMeeting.getId();
+    }
+    if (ids.length > 0) {
+      changed();
+    }
+    return ids;
+  }
+  
+  /***
+   * Batch form of addNewPastMeeting(contacts, Instant, text), for meetings given by
+   * their contacts' ids. As with addFutureMeetings(), all are added or none are.
+   * 
+   * @param contactIds ids of each meeting's contacts, in any order
+   * @param dates one for each meeting
+   * @param text notes for each meeting
+   * @throws IllegalArgumentException if the lists differ in length, any meeting has
+   *           no contacts or any id is not a contact's
+   * @throws NullPointerException if any list, or any element of them, is null
+   */
+  public void addNewPastMeetings(List<int[]> contactIds, List<Instant> dates, List<String> text) {
+    long[] dateMillis = toMillis(dates);
+    addNewPastMeetings(contactIds, dateMillis, clockZones(dateMillis.length), text);
+  }
+  
+  /***
+   * As addNewPastMeetings(contactIds, dates, text), with each meeting in its own time zone.
+   * 
+   * @param contactIds
+   * @param dateMillis
+   * @param timeZones
+   * @param text
+   */
+  synchronized void addNewPastMeetings(List<int[]> contactIds, long[] dateMillis, TimeZone[] timeZones,
+      List<String> text) {
+    if (text.contains(null)) {
+      throw new NullPointerException();
+    }
+    if (text.size() != dateMillis.length) {
+      throw new IllegalArgumentException();
+    }
+    int[][] participants = checkParticipants(contactIds, dateMillis, timeZones, true);
+    Iterator<String> notes = text.iterator();
+    for (int i = 0; i < participants.length; i++) {
+      MeetingImpl newPastMeeting = new MeetingImpl(dateMillis[i], timeZones[i], participants[i], directory);
+      String meetingNotes = notes.next();
+      newPastMeeting.addNotes(meetingNotes);
+      putPastMeeting(newPastMeeting);
+      if (journal != null) {
+        journal.logPastMeeting(newPastMeeting, meetingNotes);
+      }
+    }
+    if (participants.length > 0) {
+      changed();
+    }
+  }
+  
+  /***
+   * Checks each meeting's ids against the contact index, one probe per id rather
+   * than the contact set's containsAll(), before any meeting is added.
+   * 
+   * @return each meeting's ids sorted without repeats, as MeetingImpl holds them,
+   *         in new arrays so the caller's aren't kept.
+   */
+  private int[][] checkParticipants(List<int[]> contactIds, long[] dateMillis, TimeZone[] timeZones,
+      boolean needContacts) {
+    if (contactIds.size() != dateMillis.length || timeZones.length != dateMillis.length) {
+      throw new IllegalArgumentException();
+    }
+    int[][] participants = new int[dateMillis.length][];
+    int i = 0;
+    for (int[] ids : contactIds) {
+      if (ids == null || timeZones[i] == null) {
+        throw new NullPointerException();
+      }
+      int[] sorted = ids.clone();
+      Arrays.sort(sorted);
+      int count = 0;
+      for (int id : sorted) {
+        if (count > 0 && sorted[count - 1] == id) {
+          continue;
+        }
+        if (contactsById.get(id) == null) {
+          throw new IllegalArgumentException();
+        }
+        sorted[count++] = id;
+      }
+      if (needContacts && count == 0) {
+        throw new IllegalArgumentException();
+      }
+      participants[i++] = count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+    return participants;
+  }
+  
+  private static long[] toMillis(List<Instant> dates) {
+    long[] dateMillis = new long[dates.size()];
+    int i = 0;
+    for (Instant date : dates) {
+      dateMillis[i++] = date.toEpochMilli();
+    }
+    return dateMillis;
+  }
+  
+  private TimeZone[] clockZones(int count) {
+    TimeZone[] timeZones = new TimeZone[count];
+    Arrays.fill(timeZones, clockZone);
+    return timeZones;
+  }
+
+  /***
+   * @see "First gets meeting by id and then checks whether is a FutureMeeting or PastMeeting.
+   * If it is a FutureMeeting it checks if the date is now in the past, if not it throws
+   * an IllegalArgumentException. If it is it removes if from the future meeting list,
+   * casts it to a PastMeeting and adds it to the past meeting list.
+   * Lastly, it add notes to the newly cast meeting, or one found in the past meeting list."
+   */
+  @Override
+  public synchronized void addMeetingNotes(int id, String text) {
+    if(text == null) {
+      throw new NullPointerException();
+    }
+    
+    Meeting meeting = getMeeting(id);
+    if(meeting == null) {
+      throw new IllegalArgumentException();
+    } else if (isFutureMeeting(meeting)) {
+      if(isInFuture(((MeetingImpl) meeting).getDateMillis())) {
+        throw new IllegalStateException();
+      }
+      convertToPastMeeting((MeetingImpl) meeting);
+    }
+    PastMeeting pastMeeting = (PastMeeting) meeting;
+    pastMeeting.addNotes(text);
+    if (journal != null) {
+      journal.logMeetingNotes(id, text);
+    }
+    changed();
+  }
+  
+  /***
+   * @see "Adds new contact to contact set."
+   */
+  @Override
+  public synchronized void addNewContact(String name, String notes) {
+    if (notes == null || name == null) {
+      throw new NullPointerException();
+    }
     
     Contact newContact = new ContactImpl(name, notes);
-    contacts.add(newContact);
+    putContact(newContact);
+    if (journal != null) {
+      journal.logContact(newContact);
+    }
+    changed();
+  }
+  
+  /***
+   * Batch form of addNewContact(). Every name and notes is checked before any
+   * contact is added, so either all are added or none are. They are added under
+   * one lock and counted as one change.
+   * 
+   * @param names
+   * @param notes one for each name
+   * @return ids of the new contacts, in the same order as names.
+   * @throws IllegalArgumentException if the lists differ in length
+   * @throws NullPointerException if either list, or any name or notes, is null
+   */
+  public synchronized int[] addNewContacts(List<String> names, List<String> notes) {
+    if (names.contains(null) || notes.contains(null)) {
+      throw new NullPointerException();
+    }
+    if (names.size() != notes.size()) {
+      throw new IllegalArgumentException();
+    }
+    int[] ids = new int[names.size()];
+    Iterator<String> name = names.iterator();
+    Iterator<String> note = notes.iterator();
+    for (int i = 0; i < ids.length; i++) {
+      Contact newContact = new ContactImpl(name.next(), note.next());
+      putContact(newContact);
+      if (journal != null) {
+        journal.logContact(newContact);
+      }
+      ids[i] = newContact.getId();
+    }
+    if (ids.length > 0) {
+      changed();
+    }
+    return ids;
   }
   
   /***
-   * @see "Iterates through the array of ids, on each iteration it iterates through
-   * the set of contacts, and stops looping if there is an id match, if the
-   * iterator gets to the end of the set then the id is invalid and an
-   * IllegalArgumentException is thrown. Any matches are added to a new set and
-   * then returned."
+   * @see "Looks each id up in the contact index, any matches are added to a new set and
+   * then returned. An IllegalArgumentException is thrown at the first id that has no
+   * contact."
    */
   @Override
-  public Set<Contact> getContacts(int... ids) {
+  public synchronized Set<Contact> getContacts(int... ids) {
    
     Set<Contact> returnSet = new HashSet<Contact>();
     for (int id : ids) {
-      Iterator<Contact> it = contacts.iterator();
-      Contact candidate;
-      do {
-         if(!it.hasNext()) {
-           throw new IllegalArgumentException();
-         }
-      } while((candidate = it.next()).getId() != id);
-      returnSet.add(candidate);
+      returnSet.add(getContact(id));
     }
     return returnSet;
   }
   
   /***
-   * @see "Iterated through contact set and adds contact to a new set if the contact name
-   * contains (as a substring) the parameter. Then returns this new set."
+   * @return number of contacts, without building a set as getContacts("") would.
+   */
+  public synchronized int getContactCount() {
+    return contacts.size();
+  }
+  
+  /***
+   * Batch form of getContacts(int...) that keeps the order of the ids,
+   * including any repeats, and doesn't build a set.
+   * 
+   * @param ids
+   * @return list of contacts, in the same order as ids.
+   * @throws IllegalArgumentException
+   *           if any of the IDs does not correspond to a real contact
+   */
+  public synchronized List<Contact> getContactList(int... ids) {
+    List<Contact> returnList = new ArrayList<Contact>(ids.length);
+    for (int id : ids) {
+      returnList.add(getContact(id));
+    }
+    return returnList;
+  }
+  
+  /***
+   * @see "Adds contact to a new set if the contact name contains (as a substring) the parameter.
+   * Names of three or more characters only test the contacts the name index gives as candidates,
+   * shorter names iterate through the contact set. Then returns this new set."
    */
   @Override
-  public Set<Contact> getContacts(String name) {
+  public synchronized Set<Contact> getContacts(String name) {
     if(name == null) {
       throw new NullPointerException();
     }
     
     Set<Contact> returnSet = new HashSet<Contact>();
+    if (NameIndex.canSearch(name)) {
+      for (int id : contactNames.candidates(name)) {
+        Contact candidate = contactsById.get(id);
+        if (candidate.getName().contains(name)) {
+          returnSet.add(candidate);
+        }
+      }
+      return returnSet;
+    }
     Iterator<Contact> it = contacts.iterator();
     while(it.hasNext()) {
       Contact candidate = it.next();
@@ -396,55 +1297,576 @@ public class ContactManagerImpl implements ContactManager, Serializable {
   }
   
   /***
-   * @see "Encodes the object to filename field using Java's serialization: ObjectOutputStream.
-   * It will not make a new file if file is not found, as the constructor does this."
+   * One page of getContacts(name), in id order, starting after the contact
+   * named by token. The name index's candidates are walked from the token on, a
+   * page's worth at a time (every contact is a candidate for names of less than
+   * three characters), so only as many contacts are tested as it takes to fill the page.
+   * 
+   * @param name
+   * @param token getNextToken() of the previous page, or null for the first page
+   * @param limit most contacts to return
+   * @return page of up to limit contacts whose name contains name, by ascending id.
+   * @throws NullPointerException if name is null
+   * @throws IllegalArgumentException if token is not one this manager gave or
+   *           limit is not positive
+   */
+  public synchronized ResultPage<Contact> getContactPage(String name, String token, int limit) {
+    if(name == null) {
+      throw new NullPointerException();
+    }
+    if (limit <= 0) {
+      throw new IllegalArgumentException();
+    }
+    int after = Integer.MIN_VALUE;
+    if (token != null) {
+      try {
+        after = Integer.parseInt(token);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bad page token: " + token);
+      }
+    }
+    // One more than the page is looked for, to tell whether there is a next page.
+    List<Contact> items = new ArrayList<Contact>();
+    boolean walked = false;
+    while (items.size() <= limit && !walked) {
+      int wanted = limit + 1 - items.size();
+      int[] candidates = contactNames.candidates(name, after, wanted);
+      for (int id : candidates) {
+        Contact candidate = contactsById.get(id);
+        if (candidate.getName().contains(name)) {
+          items.add(candidate);
+        }
+      }
+      if (candidates.length < wanted) {
+        walked = true;
+      } else {
+        after = candidates[candidates.length - 1];
+      }
+    }
+    String next = null;
+    if (items.size() > limit) {
+      items.remove(limit);
+      next = Integer.toString(items.get(limit - 1).getId());
+    }
+    return new ResultPage<Contact>(items, next);
+  }
+  
+  /***
+   * As getContacts(name), but lazily in id order, a page at a time with
+   * getContactPage(), so the first match is ready without testing the rest.
+   * As with the meeting streams, it may be used while contacts are added.
+   * 
+   * @param name
+   * @return stream of contacts whose name contains name, by ascending id.
+   * @throws NullPointerException if name is null
+   */
+  public Stream<Contact> streamContacts(final String name) {
+    if(name == null) {
+      throw new NullPointerException();
+    }
+    return stream(new PageIterator<Contact>() {
+      ResultPage<Contact> page(String token) {
+        return getContactPage(name, token, STREAM_PAGE_SIZE);
+      }
+    });
+  }
+  
+  private static <T> Stream<T> stream(Iterator<T> it) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+  }
+  
+  /***
+   * Iterates the results of a paged query, reading the first page when first asked
+   * and each page after once the one before is used up.
+   */
+  private abstract static class PageIterator<T> implements Iterator<T> {
+    
+    private Iterator<T> items;
+    private String token;
+    private boolean lastPage;
+    
+    /***
+     * @param token of the page, null for the first
+     */
+    abstract ResultPage<T> page(String token);
+    
+    public boolean hasNext() {
+      while (items == null || !items.hasNext()) {
+        if (lastPage) {
+          return false;
+        }
+        ResultPage<T> page = page(token);
+        items = page.getItems().iterator();
+        token = page.getNextToken();
+        lastPage = !page.hasNext();
+      }
+      return true;
+    }
+    
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return items.next();
+    }
+  }
+  
+  /***
+   * @see "Encodes the object to filename field in StoreCodec's binary format.
+   * It will not make a new file if file is not found, as the constructor does this.
+   * In journaled mode only appends the changes since the last flush to the journal,
+   * unless a snapshot is due. With auto flush on, waits until the changes made so far
+   * have been saved by the background thread instead. Prints Saved. once they are,
+   * saves made in the background print nothing."
    */
   @Override
   public void flush() {
-
-    ObjectOutputStream encode = null;
-    try {
-        encode = new ObjectOutputStream(
-                new BufferedOutputStream(
-                        new FileOutputStream(this.filename)));
-    } catch (FileNotFoundException e) {
-        System.err.println("encoding... " + e);
-    } catch (IOException e1) {
-        e1.printStackTrace();
+    AutoFlusher flusher;
+    long flushVersion;
+    synchronized (this) {
+      flusher = autoFlusher;
+      flushVersion = version;
+    }
+    boolean saved;
+    if (flusher != null) {
+      flusher.awaitSaved(flushVersion);
+      saved = flusher.getSavedVersion() >= flushVersion;
+    } else {
+      saved = save();
+    }
+    if (saved) {
+      System.out.println("Saved.");
+    }
+  }
+  
+  /***
+   * For a caller holding the lock after a batch of changes, saves them before the
+   * lock is released, so the save holds exactly those changes. Only saves when
+   * changes aren't saved in the background and no other save is running, as the
+   * background thread or the running save may be waiting for the lock.
+   * 
+   * @return true if saved, otherwise the caller should flush() once it has released the lock.
+   */
+  synchronized boolean flushIfIdle() {
+    if (autoFlusher != null || !commits.tryCommit()) {
+      return false;
+    }
+    System.out.println("Saved.");
+    return true;
+  }
+  
+  /***
+   * Saves the changes made so far, through the group commit so that threads
+   * saving at once share one write and one fsync.
+   * 
+   * @return true if the changes were saved.
+   */
+  boolean save() {
+    return commits.commit();
+  }
+  
+  /***
+   * Without a journal the contact set and meeting lists are copied holding the
+   * lock and written without it, so changes can go on during the write. The
+   * meetings' states are read with the copy, so a meeting rolled over during the
+   * write is saved in the list it was copied from.
+   * 
+   * @return true if the changes were saved.
+   */
+  private boolean saveNow() {
+    if (journal != null) {
+      synchronized (this) {
+        return appendJournal();
+      }
+    }
+    List<Contact> contactsCopy;
+    List<Meeting> meetings;
+    MeetingState[] states;
+    long sequence;
+    boolean indexed;
+    synchronized (this) {
+      contactsCopy = new ArrayList<Contact>(contacts);
+      meetings = new ArrayList<Meeting>(pastMeetings.size() + futureMeetings.size());
+      meetings.addAll(pastMeetings);
+      meetings.addAll(futureMeetings);
+      states = StoreCodec.statesOf(meetings);
+      sequence = journalSequence;
+      indexed = mappedIndexes;
+    }
+    return writeSnapshot(sequence, contactsCopy, meetings, states, indexed);
+  }
+  
+  private boolean appendJournal() {
+    if (journal.isSnapshotDue()) {
+      journalSequence = journal.getSequence();
+      List<Meeting> meetings = new ArrayList<Meeting>(pastMeetings.size() + futureMeetings.size());
+      meetings.addAll(pastMeetings);
+      meetings.addAll(futureMeetings);
+      if (writeSnapshot(journalSequence, contacts, meetings, StoreCodec.statesOf(meetings), mappedIndexes)) {
+        journal.truncate();
+        return true;
+      }
+      return false;
     }
     try {
-        encode.writeObject(this);
-        System.out.println("Saved.");
-    } catch (IOException e2) {
-        e2.printStackTrace();
+      journal.append();
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
     }
+  }
+  
+  /***
+   * Encodes the given contents to the filename field, in StoreCodec's binary format,
+   * replacing the file only once the contents are safely on disk (see StoreFile).
+   * 
+   * @param sequence of the last journal record in the contents
+   * @param contacts
+   * @param meetings
+   * @param states of meetings, read with them
+   * @param indexed if MappedContactManager's indexes are written
+   * @return true if the contents were written.
+   */
+  private boolean writeSnapshot(long sequence, Collection<Contact> contacts, List<Meeting> meetings,
+      MeetingState[] states, boolean indexed) {
     try {
-        encode.close();
-    } catch (IOException e3) {
-        e3.printStackTrace();
+      StoreFile.write(filename, sequence, contacts, meetings, states, indexed);
+      return true;
+    } catch (FileNotFoundException e) {
+      System.err.println("encoding... " + e);
+    } catch (IOException e) {
+      e.printStackTrace();
     }
+    return false;
   }
   
+  /***
+   * Builds the whole report in memory, a StoreExporter can write it
+   * (or a CSV or JSON lines export) straight to a Writer instead.
+   */
   @Override
   public String toString() {
-    String str = "\nFilename: " + filename + "\n" +  "\n### Contacts ###\n";
-    Iterator<Contact> contactIt = contacts.iterator();
-    while (contactIt.hasNext()) {
-      str += contactIt.next() + "\n";
+    StringBuilder str = new StringBuilder();
+    try {
+      new StoreExporter(StoreExporter.Format.TEXT).export(this, str);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return str.toString();
+  }
+  
+  
+  /***
+   * Empties the contact set and meeting lists, such as after a partial load.
+   */
+  private void clearContents() {
+    pastMeetings = new TreeSet<PastMeeting>(DATE_ORDER);
+    futureMeetings = new TreeSet<FutureMeeting>(DATE_ORDER);
+    contacts = new HashSet<Contact>();
+    journalSequence = 0;
+    rebuildIndexes();
+  }
+  
+  /***
+   * @param stream (may be null)
+   */
+  private static void closeQuietly(Closeable stream) {
+    if (stream == null) {
+      return;
+    }
+    try {
+      stream.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+  
+  private GroupCommit newGroupCommit() {
+    return new GroupCommit(new BooleanSupplier() {
+      public boolean getAsBoolean() {
+        return saveNow();
+      }
+    });
+  }
+  
+  /***
+   * Counts a change made through a public method, called holding the lock.
+   */
+  private void changed() {
+    version++;
+    if (autoFlusher != null) {
+      autoFlusher.changed(version);
     }
-    str += "\n### Past Meetings ###\n";
+  }
+  
+  /***
+   * Adds contact to the contact set and its indexes.
+   * 
+   * @param contact
+   */
+  private void putContact(Contact contact) {
+    contacts.add(contact);
+    contactsById.put(contact.getId(), contact);
+    contactNames.add(contact.getId(), contact.getName());
+  }
+  
+  /***
+   * Adds meeting to the future meeting list and its indexes.
+   * 
+   * @param meeting
+   */
+  private void putFutureMeeting(MeetingImpl meeting) {
+    meeting.setState(MeetingState.FUTURE);
+    futureMeetings.add(meeting);
+    meetingsById.put(meeting.getId(), meeting);
+    indexByContact(futureMeetingsByContact, meeting);
+    indexByDay(meeting);
+  }
+  
+  /***
+   * Adds meeting to the past meeting list and its indexes.
+   * 
+   * @param meeting
+   */
+  private void putPastMeeting(MeetingImpl meeting) {
+    meeting.setState(MeetingState.PAST);
+    pastMeetings.add(meeting);
+    meetingsById.put(meeting.getId(), meeting);
+    indexByContact(pastMeetingsByContact, meeting);
+    indexByDay(meeting);
+  }
+  
+  /***
+   * Moves meeting from the future meeting list to the past meeting list.
+   * 
+   * @param meeting
+   */
+  private void convertToPastMeeting(MeetingImpl meeting) {
+    futureMeetings.remove(meeting);
+    pastMeetings.add(meeting);
+    meeting.setState(MeetingState.CONVERTED);
+    unindexByContact(futureMeetingsByContact, meeting);
+    indexByContact(pastMeetingsByContact, meeting);
+  }
+  
+  /***
+   * Applies the journal's records made after the loaded snapshot. Records are
+   * applied without the checks the public methods make, as they were made when
+   * the record was logged. If a record can't be applied the journal is cut
+   * before it, see Journal.replay().
+   */
+  private void replayJournal() {
+    try {
+      journal.replay(journalSequence, new Journal.Replayer() {
+        public void contact(int id, String name, String notes) {
+          putContact(new ContactImpl(id, name, notes));
+        }
+        public void futureMeeting(int id, long dateMillis, TimeZone timeZone, int[] contactIds) {
+          putFutureMeeting(new MeetingImpl(id, dateMillis, timeZone, checkedIds(contactIds), directory));
+        }
+        public void pastMeeting(int id, long dateMillis, TimeZone timeZone, int[] contactIds, String notes) {
+          MeetingImpl meeting = new MeetingImpl(id, dateMillis, timeZone, checkedIds(contactIds), directory);
+          meeting.addNotes(notes);
+          putPastMeeting(meeting);
+        }
+        public void meetingNotes(int id, String notes) {
+          MeetingImpl meeting = (MeetingImpl) getMeeting(id);
+          if (meeting == null) {
+            throw new IllegalArgumentException("No meeting " + id);
+          }
+          if (meeting.getState() == MeetingState.FUTURE) {
+            convertToPastMeeting(meeting);
+          }
+          meeting.addNotes(notes);
+        }
+        public void meetingRolledOver(int id) {
+          MeetingImpl meeting = (MeetingImpl) getMeeting(id);
+          if (meeting == null) {
+            throw new IllegalArgumentException("No meeting " + id);
+          }
+          if (meeting.getState() == MeetingState.FUTURE) {
+            convertToPastMeeting(meeting);
+          }
+        }
+      });
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      journalSequence = journal.getSequence();
+    }
+  }
+  
+  /***
+   * @param id
+   * @return contact with the id.
+   * @throws IllegalArgumentException if there is no contact with the id.
+   */
+  private Contact getContact(int id) {
+    Contact contact = contactsById.get(id);
+    if (contact == null) {
+      throw new IllegalArgumentException();
+    }
+    return contact;
+  }
+  
+  /***
+   * @param contactIds as read from a file
+   * @return the ids, ascending.
+   * @throws IllegalArgumentException if an id has no contact.
+   */
+  private int[] checkedIds(int[] contactIds) {
+    for (int id : contactIds) {
+      getContact(id);
+    }
+    int[] sorted = contactIds.clone();
+    Arrays.sort(sorted);
+    return sorted;
+  }
+  
+  /***
+   * @return directory over contactsById, which follows the field when the index is rebuilt.
+   *         Holds this manager's lock, as meetings resolve their contacts from any thread.
+   */
+  private ContactDirectory newDirectory() {
+    return new ContactDirectory() {
+      public Contact getContact(int id) {
+        synchronized (ContactManagerImpl.this) {
+          return contactsById.get(id);
+        }
+      }
+    };
+  }
+  
+  /***
+   * Rebuilds the transient indexes from the contact set and meeting lists, after a load
+   * or deserialization. Meetings saved before states were recorded are
+   * given the state of the list they are in, and meetings resolve their contacts
+   * through the directory, so share the contact set's instances.
+   */
+  private void rebuildIndexes() {
+    contactsById = new IntHashMap<Contact>(contacts.size());
+    directory = newDirectory();
+    contactNames = new NameIndex();
+    for (Contact contact : contacts) {
+      contactsById.put(contact.getId(), contact);
+      contactNames.add(contact.getId(), contact.getName());
+    }
+    meetingsById = new IntHashMap<Meeting>(pastMeetings.size() + futureMeetings.size());
+    futureMeetingsByContact = new IntHashMap<TreeSet<Meeting>>();
+    pastMeetingsByContact = new IntHashMap<TreeSet<Meeting>>();
+    meetingsByDay = new TreeMap<Long, TreeSet<Meeting>>();
     for (PastMeeting pm : pastMeetings) {
-      str += pm + "\n";
+      MeetingImpl meeting = (MeetingImpl) pm;
+      if (meeting.getState() == null || !meeting.getState().isPast()) {
+        meeting.setState(MeetingState.PAST);
+      }
+      meeting.setDirectory(directory);
+      meetingsById.put(pm.getId(), pm);
+      indexByContact(pastMeetingsByContact, pm);
+      indexByDay(pm);
+    }
+    for (FutureMeeting fm : futureMeetings) {
+      ((MeetingImpl) fm).setState(MeetingState.FUTURE);
+      ((MeetingImpl) fm).setDirectory(directory);
+      meetingsById.put(fm.getId(), fm);
+      indexByContact(futureMeetingsByContact, fm);
+      indexByDay(fm);
+    }
+  }
+  
+  /***
+   * Adds meeting to the date ordered set of each of its contacts.
+   * 
+   * @param index
+   * @param meeting
+   */
+  private static void indexByContact(IntHashMap<TreeSet<Meeting>> index, Meeting meeting) {
+    for (int contactId : ((MeetingImpl) meeting).getContactIds()) {
+      TreeSet<Meeting> contactMeetings = index.get(contactId);
+      if (contactMeetings == null) {
+        contactMeetings = new TreeSet<Meeting>(DATE_ORDER);
+        index.put(contactId, contactMeetings);
+      }
+      contactMeetings.add(meeting);
+    }
+  }
+  
+  /***
+   * Removes meeting from the date ordered set of each of its contacts,
+   * dropping sets that become empty.
+   * 
+   * @param index
+   * @param meeting
+   */
+  private static void unindexByContact(IntHashMap<TreeSet<Meeting>> index, Meeting meeting) {
+    for (int contactId : ((MeetingImpl) meeting).getContactIds()) {
+      TreeSet<Meeting> contactMeetings = index.get(contactId);
+      if (contactMeetings != null && contactMeetings.remove(meeting) && contactMeetings.isEmpty()) {
+        index.remove(contactId);
+      }
     }
-    str += "\n### Future Meetings ###\n";
-    for (FutureMeeting pm : futureMeetings) {
-      str += pm + "\n";
+  }
+  
+  /***
+   * Adds meeting to the calendar index bucket for its day.
+   * 
+   * @param meeting
+   */
+  private void indexByDay(Meeting meeting) {
+    Long day = ((MeetingImpl) meeting).getEpochDay();
+    TreeSet<Meeting> bucket = meetingsByDay.get(day);
+    if (bucket == null) {
+      bucket = new TreeSet<Meeting>(DATE_ORDER);
+      meetingsByDay.put(day, bucket);
     }
-    return str;
+    bucket.add(meeting);
+  }
+  
+  /***
+   * Writes the meeting sets as LinkedLists, in date order.
+   * 
+   * @param out
+   * @throws IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("pastMeetings", new LinkedList<PastMeeting>(pastMeetings));
+    fields.put("futureMeetings", new LinkedList<FutureMeeting>(futureMeetings));
+    fields.put("contacts", contacts);
+    fields.put("filename", filename);
+    fields.put("journalSequence", journalSequence);
+    out.writeFields();
   }
   
+  /***
+   * Transient indexes are not written, so they are rebuilt once the lists are read
+   * into date ordered sets, and the clock is the system clock.
+   * 
+   * @param in
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    pastMeetings = new TreeSet<PastMeeting>(DATE_ORDER);
+    pastMeetings.addAll((List<PastMeeting>) fields.get("pastMeetings", null));
+    futureMeetings = new TreeSet<FutureMeeting>(DATE_ORDER);
+    futureMeetings.addAll((List<FutureMeeting>) fields.get("futureMeetings", null));
+    contacts = (Set<Contact>) fields.get("contacts", null);
+    filename = (String) fields.get("filename", null);
+    journalSequence = fields.get("journalSequence", 0L);
+    clock = Clock.systemDefaultZone();
+    clockZone = TimeZone.getTimeZone(clock.getZone());
+    commits = newGroupCommit();
+    rebuildIndexes();
+  }
   
   /***
+   * Contacts hash by id, so this is one hash probe per contact.
+   * 
    * @param contacts
    * @return true if all contacts are in this objects contact set.
    */
@@ -461,70 +1883,64 @@ public class ContactManagerImpl implements ContactManager, Serializable {
   }
   
   /***
-   * Regardless of date.
+   * Regardless of date. Reads the meeting's state rather than searching the list.
    * 
    * @param meeting
    * @return true if meeting is in futureMeetings list.
    */
-  private boolean isFutureMeeting(Meeting meeting) {
-    return futureMeetings.contains((FutureMeeting) meeting);
+  private static boolean isFutureMeeting(Meeting meeting) {
+    return ((MeetingImpl) meeting).getState() == MeetingState.FUTURE;
   }
   
   /***
-   * Regardless of date.
+   * Regardless of date. Reads the meeting's state rather than searching the list.
    * 
    * @param meeting
    * @return true if meeting is in pastMeetings list.
    */
-  private boolean isPastMeeting(Meeting meeting) {
-    return pastMeetings.contains((PastMeeting) meeting);
+  private static boolean isPastMeeting(Meeting meeting) {
+    return ((MeetingImpl) meeting).getState().isPast();
   }
   
   /***
-   * Generic to allow Meeting, FutureMeeting and PastMeeting.
-   * Sorts meetings by date,  farthest in past to farthest in future.
+   * If millis is now (to the millisecond), by the clock, then returns false.
    * 
-   * @param meetingList
+   * @param millis
+   * @return true if millis is strictly in past.
    */
-  private static <T extends Meeting> void sortMeetingsByDate(List<T> meetingList) {
-    Collections.sort(meetingList, new Comparator<T>() {
-      public int compare(T m1, T m2) {
-        return m1.getDate().compareTo(m2.getDate());
-      }
-    });
+  private boolean isInPast(long millis) {
+    return millis < clock.millis();
   }
   
   /***
-   * If date is now (to the millisecond) then returns false.
+   * This ensures that if date is now (to the millisecond)
+   * is counted as a future date. This is the negation of isInPast().
    * 
-   * @param date
-   * @return true if date is strictly in past.
+   * @param millis
+   * @return true if millis is now or in future.
    */
-  private static boolean isInPast(Calendar date) {
-    return date.before(Calendar.getInstance());
+  private boolean isInFuture(long millis) {
+    return !isInPast(millis);
   }
   
   /***
-   * This ensures that if date is now (to the millisecond)
-   * is counted as a future date. This is the negation of isInPast().
+   * Two dates are on the same day, in their own time zones, if and only if
+   * they have the same epoch day.
    * 
    * @param date
-   * @return true if date is now or in future.
+   * @return number of days from 01-01-1970 to date.
    */
-  private static boolean isInFuture(Calendar date) {
-    return !isInPast(date);
+  static long epochDay(Calendar date) {
+    return epochDay(date.getTimeInMillis(), date.getTimeZone());
   }
   
   /***
-   * @param d1 (Calendar)
-   * @param d2 (Calendar)
-   * @return true if d1 and d2 are on the same date.
+   * @param millis
+   * @param timeZone
+   * @return number of days from 01-01-1970 to millis, in timeZone.
    */
-  private static boolean areSameDay(Calendar d1, Calendar d2) {
-    boolean sameDay = d1.get(Calendar.DAY_OF_MONTH) == d2.get(Calendar.DAY_OF_MONTH);
-    boolean sameMonth = d1.get(Calendar.MONTH) == d2.get(Calendar.MONTH);
-    boolean sameYear = d1.get(Calendar.YEAR) == d2.get(Calendar.YEAR);
-    return sameDay && sameMonth && sameYear;
+  static long epochDay(long millis, TimeZone timeZone) {
+    return Math.floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
   }
   
   
@@ -1,27 +1,33 @@
 package impl;
 
 import interfaces.Contact;
-import interfaces.ContactManager;
 import interfaces.Meeting;
 import interfaces.PastMeeting;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ContactManagerRunner {
   
   private static PrintStream o = System.out;
   private static Scanner in = new Scanner(System.in);
-  private static ContactManager cm;
+  private static ContactManagerImpl cm;
   private static String filename;
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+  private static final long AUTO_FLUSH_SECONDS = 30;
   
   public static void main(String[] args) {
     if(args.length != 0) {
@@ -32,6 +38,8 @@ public class ContactManagerRunner {
       cm = new ContactManagerImpl();
       ContactManagerRunner.filename = "";
     }
+    // Changes are saved in the background, the save options wait for them.
+    cm.startAutoFlush(AUTO_FLUSH_SECONDS, TimeUnit.SECONDS, 0);
     menuRouter();
   }
   
@@ -47,7 +55,8 @@ public class ContactManagerRunner {
       + "7. Add Notes to Meeting\n"
       + "8. Save and Print\n"
       + "9. Save and Exit\n"
-      + "0. Delete File and Exit\n";
+      + "0. Delete File and Exit\n"
+      + "Changes are also saved every " + AUTO_FLUSH_SECONDS + " seconds.\n";
     o.print(menu);
     int choice = -1;
     o.println("");
@@ -161,7 +170,7 @@ public class ContactManagerRunner {
     o.println("");
     if(!contactCheck()) return;
     o.println("Adding meeting...");
-    Calendar date = getDate();
+    Instant date = getDate().atTime(LocalTime.now().getHour(), 59).atZone(ZoneId.systemDefault()).toInstant();
     Set<Contact> contacts = getContacts(true);
     if(isInPast(date)) {
       o.print("Meeting Notes: ");
@@ -270,7 +279,7 @@ public class ContactManagerRunner {
     if(!contactCheck()) return null;
     o.println("Getting meetings...");
     List<Meeting> meetings = new LinkedList<Meeting>();
-    Calendar date = getDate();
+    LocalDate date = getDate();
     meetings = cm.getFutureMeetingList(date);
     o.println(meetings);
     o.println("");
@@ -316,19 +325,32 @@ public class ContactManagerRunner {
     o.println("");
   }
   
+  /***
+   * Streams the report to the console rather than building it as one string.
+   */
   private static void print() {
-    o.println(cm);
+    try {
+      new StoreExporter(StoreExporter.Format.TEXT).export(cm, o);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    o.println("");
   }
   
+  /***
+   * Stops the background saves without saving, so nothing is written to a file
+   * that is about to be deleted, or to the default file on the way out.
+   */
   private static void deleteFile() {
-    o.println("Deleting " + filename + "...");
-    if (!filename.equals("")) {
-      File file = new File(filename);
-      file.delete();
-      o.println("Deleted.");
-    } else {
+    cm.stopAutoFlush(false);
+    if (filename.equals("")) {
       o.println("ERROR: You cannot delete the default file.");
+      return;
     }
+    o.println("Deleting " + filename + "...");
+    File file = new File(filename);
+    file.delete();
+    o.println("Deleted.");
   }
   
   private static void exit() {
@@ -337,35 +359,28 @@ public class ContactManagerRunner {
   }
   
   private static boolean contactCheck() {
-    if(cm.getContacts("").isEmpty()) {
+    if(cm.getContactCount() == 0) {
       o.println("You must have added some contacts before doing this.");
       return false;
     }
     return true;
   }
   
-  private static Calendar getDate() {
-    SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy");
-    String dateStr = "00-00-0000";
-    Calendar date = Calendar.getInstance();
-    int hours = date.get(Calendar.HOUR_OF_DAY);
-    while(dateStr.equals("00-00-0000")) {
+  private static LocalDate getDate() {
+    LocalDate date = null;
+    while(date == null) {
         o.print("Enter date in format dd-mm-yyyy: ");
-        dateStr = in.nextLine();
+        String dateStr = in.nextLine();
         try {
-          date.setTime(sdf.parse(dateStr));
-          date.add(Calendar.HOUR_OF_DAY, hours);
-          date.add(Calendar.MINUTE, 59);
-          //o.print(date);
-        } catch (ParseException e) {
+          date = LocalDate.parse(dateStr, DATE_FORMAT);
+        } catch (DateTimeParseException e) {
           o.println("Invalid Date.");
-          dateStr = "00-00-0000";
         }
     }
     return date;
   }
   
-  private static boolean isInPast(Calendar date) {
-    return date.before(Calendar.getInstance());
+  private static boolean isInPast(Instant date) {
+    return date.isBefore(cm.getClock().instant());
   }
 }
\ No newline at end of file
@@ -20,6 +20,32 @@ public abstract class DomainObject implements Serializable {
     this.id = idBank.incrementAndGet();
   }
   
+  /***
+   * Recreates an object with an id assigned in a previous run, such as
+   * when replaying a journal. The idBank is moved past the id so it is
+   * never assigned again.
+   * 
+   * @param id
+   */
+  protected DomainObject(int id) {
+    this(id, true);
+  }
+  
+  /***
+   * As DomainObject(int), but only moves the idBank past the id if reserve
+   * is true. Read only views decoding objects from a file, which may be shared
+   * between threads, pass false so reading takes no lock and assigns nothing.
+   * 
+   * @param id
+   * @param reserve
+   */
+  protected DomainObject(int id, boolean reserve) {
+    this.id = id;
+    if (reserve) {
+      reserveId(id);
+    }
+  }
+  
   public int getId() {
     return id;
   }
@@ -33,11 +59,21 @@ public abstract class DomainObject implements Serializable {
    * @throws ObjectStreamException
    */
   protected Object readResolve() throws ObjectStreamException{
+    reserveId(this.id);
+    return this;
+  }
+  
+  /***
+   * Statement is synchronized to idBank to ensure correct behaviour if 
+   * called concurrently.
+   * 
+   * @param id
+   */
+  private static void reserveId(int id) {
     synchronized(idBank) {
-      if (this.id > idBank.intValue()) {
-        idBank.set(this.id);
+      if (id > idBank.intValue()) {
+        idBank.set(id);
       }
     }
-    return this;
   }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package impl;
+
+import java.util.function.BooleanSupplier;
+
+/***
+ * Runs saves one at a time, and lets callers that arrive while a save is in
+ * progress share the next one rather than each saving in turn.
+ *
+ * A caller takes a ticket. If no save is running it becomes the leader: it
+ * runs one save covering every ticket taken so far, then wakes the callers it
+ * covered. Callers arriving during that save wait for it, and the first of them
+ * to find no save running leads the next, covering everyone who waited. So
+ * however many threads call commit() at once, there are at most two saves, and
+ * each caller's changes (made before it called commit()) are in a save that
+ * finished before commit() returned.
+ *
+ * @author montywest
+ *
+ */
+final class GroupCommit {
+
+  private final BooleanSupplier save;
+  private final Object lock = new Object();
+  private long issued;
+  private long committed;
+  private boolean saving;
+  private boolean lastSaved;
+
+  /***
+   * @param save writes everything changed so far, returning whether it succeeded
+   */
+  GroupCommit(BooleanSupplier save) {
+    this.save = save;
+  }
+
+  /***
+   * Blocks until a save started after this call has finished.
+   *
+   * @return whether that save succeeded.
+   */
+  boolean commit() {
+    long ticket;
+    long covered;
+    synchronized (lock) {
+      ticket = ++issued;
+      boolean interrupted = false;
+      while (committed < ticket && saving) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (committed >= ticket) {
+        return lastSaved;
+      }
+      saving = true;
+      covered = issued;
+    }
+    return lead(covered);
+  }
+
+  /***
+   * As commit(), but only saves if no save is running, and never waits. For a
+   * caller holding a lock the running save may be waiting for.
+   *
+   * @return whether a save was run and succeeded.
+   */
+  boolean tryCommit() {
+    long covered;
+    synchronized (lock) {
+      if (saving) {
+        return false;
+      }
+      saving = true;
+      covered = ++issued;
+    }
+    return lead(covered);
+  }
+
+  /***
+   * Runs the save as leader, then wakes the callers it covered.
+   *
+   * @param covered last ticket the save covers
+   * @return whether the save succeeded.
+   */
+  private boolean lead(long covered) {
+    boolean saved = false;
+    try {
+      saved = save.getAsBoolean();
+    } finally {
+      synchronized (lock) {
+        saving = false;
+        committed = covered;
+        lastSaved = saved;
+        lock.notifyAll();
+      }
+    }
+    return saved;
+  }
+}
@@ -0,0 +1,126 @@
+package impl;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/***
+ * Histogram of non-negative longs, such as latencies in nanoseconds or result
+ * sizes, that any number of threads can record into without locking.
+ *
+ * Values are bucketed by their highest set bit, and each power of two is split
+ * into SUB_BUCKETS linear buckets, so percentiles are within about 1 / SUB_BUCKETS
+ * (6%) of the recorded values, whatever their range. Each bucket is a LongAdder,
+ * made on first use, so threads recording at once update their own cells rather
+ * than contending for one.
+ *
+ * Reads are not atomic with respect to records: a percentile taken while values
+ * are being recorded may or may not include them.
+ *
+ * @author montywest
+ *
+ */
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<LongAdder>(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  }, 0);
+
+  /***
+   * @param value negative values are recorded as 0
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    int index = bucket(value);
+    LongAdder bucket = buckets.get(index);
+    if (bucket == null) {
+      buckets.compareAndSet(index, null, new LongAdder());
+      bucket = buckets.get(index);
+    }
+    bucket.increment();
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /***
+   * @return mean of the recorded values, or 0 if there are none.
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /***
+   * @param percentile between 0 and 100
+   * @return highest value of the bucket holding the percentile, at most getMax(),
+   *   or 0 if nothing has been recorded.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile " + percentile);
+    }
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      LongAdder bucket = buckets.get(i);
+      if (bucket != null) {
+        counts[i] = bucket.sum();
+        total += counts[i];
+      }
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(getMax(), highestValue(i));
+      }
+    }
+    return getMax();
+  }
+
+  /***
+   * Values below SUB_BUCKETS have a bucket each, above that the top SUB_BUCKET_BITS + 1
+   * bits choose the bucket.
+   */
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  private static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,521 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.ContactManager;
+import interfaces.FutureMeeting;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * ContactManager that passes every call to another and measures it: for each
+ * method, how many calls and how many of them threw, and a Histogram of their
+ * latencies in nanoseconds. Methods returning a list or set also have a
+ * Histogram of result sizes, and flush() one of the store's size in bytes
+ * after saving, when the store's file is known.
+ *
+ * Recording costs two System.nanoTime() calls and a few LongAdder increments
+ * per call, and takes no lock, so it is as thread safe as the manager it wraps.
+ *
+ * Metrics are read with getMetrics(), written as a table with dump(), or
+ * written to a file every period by startDumping().
+ *
+ * @author montywest
+ *
+ */
+public class InstrumentedContactManager implements ContactManager {
+
+  /***
+   * The methods of ContactManager, named as in dumps.
+   */
+  public enum Operation {
+    ADD_FUTURE_MEETING("addFutureMeeting"),
+    GET_PAST_MEETING("getPastMeeting"),
+    GET_FUTURE_MEETING("getFutureMeeting"),
+    GET_MEETING("getMeeting"),
+    GET_FUTURE_MEETING_LIST_BY_CONTACT("getFutureMeetingList(Contact)"),
+    GET_FUTURE_MEETING_LIST_BY_DATE("getFutureMeetingList(Calendar)"),
+    GET_PAST_MEETING_LIST("getPastMeetingList"),
+    ADD_NEW_PAST_MEETING("addNewPastMeeting"),
+    ADD_MEETING_NOTES("addMeetingNotes"),
+    ADD_NEW_CONTACT("addNewContact"),
+    GET_CONTACTS_BY_ID("getContacts(int...)"),
+    GET_CONTACTS_BY_NAME("getContacts(String)"),
+    FLUSH("flush");
+
+    private final String label;
+
+    private Operation(String label) {
+      this.label = label;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  /***
+   * What has been measured of one Operation. Values are live, they go on
+   * changing as calls are made.
+   */
+  public static final class Metrics {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Histogram latency = new Histogram();
+    private final Histogram sizes;
+    private final Histogram bytes;
+
+    private Metrics(Operation operation) {
+      switch (operation) {
+        case GET_FUTURE_MEETING_LIST_BY_CONTACT:
+        case GET_FUTURE_MEETING_LIST_BY_DATE:
+        case GET_PAST_MEETING_LIST:
+        case GET_CONTACTS_BY_ID:
+        case GET_CONTACTS_BY_NAME:
+          sizes = new Histogram();
+          bytes = null;
+          break;
+        case FLUSH:
+          sizes = null;
+          bytes = new Histogram();
+          break;
+        default:
+          sizes = null;
+          bytes = null;
+      }
+    }
+
+    public long getCalls() {
+      return calls.sum();
+    }
+
+    /***
+     * @return number of calls that threw.
+     */
+    public long getErrors() {
+      return errors.sum();
+    }
+
+    /***
+     * @return latencies of all calls, in nanoseconds.
+     */
+    public Histogram getLatency() {
+      return latency;
+    }
+
+    /***
+     * @return sizes of the collections returned, or null if the operation doesn't return one.
+     */
+    public Histogram getSizes() {
+      return sizes;
+    }
+
+    /***
+     * @return sizes of the store after flush(), or null for other operations.
+     */
+    public Histogram getBytes() {
+      return bytes;
+    }
+  }
+
+  private final ContactManager manager;
+  private final File store;
+  private final Metrics[] metrics;
+  private ScheduledExecutorService dumper;
+
+  /***
+   * Measures manager, with store sizes after flush() if it is a ContactManagerImpl
+   * or ConcurrentContactManager.
+   *
+   * @param manager
+   */
+  public InstrumentedContactManager(ContactManager manager) {
+    this(manager, filenameOf(manager));
+  }
+
+  /***
+   * @param manager
+   * @param filename of the store manager flushes to, or null to not measure its size.
+   */
+  public InstrumentedContactManager(ContactManager manager, String filename) {
+    if (manager == null) {
+      throw new NullPointerException();
+    }
+    this.manager = manager;
+    this.store = filename == null ? null : new File(filename);
+    Operation[] operations = Operation.values();
+    this.metrics = new Metrics[operations.length];
+    for (int i = 0; i < operations.length; i++) {
+      metrics[i] = new Metrics(operations[i]);
+    }
+  }
+
+  private static String filenameOf(ContactManager manager) {
+    if (manager instanceof ContactManagerImpl) {
+      return ((ContactManagerImpl) manager).getFilename();
+    } else if (manager instanceof ConcurrentContactManager) {
+      return ((ConcurrentContactManager) manager).getFilename();
+    }
+    return null;
+  }
+
+  public ContactManager getManager() {
+    return manager;
+  }
+
+  /***
+   * @param operation
+   * @return live metrics of operation.
+   */
+  public Metrics getMetrics(Operation operation) {
+    return metrics[operation.ordinal()];
+  }
+
+  /***
+   * Writes a line of metrics for each operation that has been called, latencies in
+   * microseconds.
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void dump(Appendable out) throws IOException {
+    out.append(String.format("%-32s %10s %8s %10s %10s %10s %10s %10s %8s %8s %12s%n",
+        "operation", "calls", "errors", "mean us", "p50 us", "p90 us", "p99 us", "max us",
+        "p50 size", "max size", "max bytes"));
+    for (Operation operation : Operation.values()) {
+      Metrics m = getMetrics(operation);
+      if (m.getCalls() == 0) {
+        continue;
+      }
+      Histogram latency = m.getLatency();
+      out.append(String.format("%-32s %10d %8d %10.1f %10.1f %10.1f %10.1f %10.1f",
+          operation, m.getCalls(), m.getErrors(), latency.getMean() / 1e3,
+          latency.getPercentile(50) / 1e3, latency.getPercentile(90) / 1e3,
+          latency.getPercentile(99) / 1e3, latency.getMax() / 1e3));
+      if (m.getSizes() != null) {
+        out.append(String.format(" %8d %8d", m.getSizes().getPercentile(50), m.getSizes().getMax()));
+      } else {
+        out.append(String.format(" %8s %8s", "-", "-"));
+      }
+      if (m.getBytes() != null && m.getBytes().getCount() > 0) {
+        out.append(String.format(" %12d", m.getBytes().getMax()));
+      }
+      out.append(String.format("%n"));
+    }
+  }
+
+  /***
+   * Writes dump() to a temporary file beside file, then renames it over file, so
+   * file is never seen half written.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void dumpTo(File file) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      Writer out = new FileWriter(temp);
+      try {
+        dump(out);
+      } finally {
+        out.close();
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /***
+   * Calls dumpTo(file) every period on a daemon thread, until stopDumping(). Replaces
+   * any earlier schedule.
+   *
+   * @param file
+   * @param period
+   * @param unit
+   */
+  public synchronized void startDumping(final File file, long period, TimeUnit unit) {
+    stopDumping();
+    dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "contact-manager-metrics");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    dumper.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        try {
+          dumpTo(file);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }, period, period, unit);
+  }
+
+  public synchronized void stopDumping() {
+    if (dumper != null) {
+      dumper.shutdown();
+      dumper = null;
+    }
+  }
+
+  private void record(Operation operation, long start) {
+    Metrics m = metrics[operation.ordinal()];
+    m.latency.record(System.nanoTime() - start);
+    m.calls.increment();
+  }
+
+  private void record(Operation operation, long start, Collection<?> result) {
+    record(operation, start);
+    if (result != null) {
+      metrics[operation.ordinal()].sizes.record(result.size());
+    }
+  }
+
+  private void failed(Operation operation) {
+    metrics[operation.ordinal()].errors.increment();
+  }
+
+  /***
+   * @see "Measured as ADD_FUTURE_MEETING."
+   */
+  @Override
+  public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+    long start = System.nanoTime();
+    try {
+      return manager.addFutureMeeting(contacts, date);
+    } catch (RuntimeException e) {
+      failed(Operation.ADD_FUTURE_MEETING);
+      throw e;
+    } finally {
+      record(Operation.ADD_FUTURE_MEETING, start);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_PAST_MEETING."
+   */
+  @Override
+  public PastMeeting getPastMeeting(int id) {
+    long start = System.nanoTime();
+    try {
+      return manager.getPastMeeting(id);
+    } catch (RuntimeException e) {
+      failed(Operation.GET_PAST_MEETING);
+      throw e;
+    } finally {
+      record(Operation.GET_PAST_MEETING, start);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_FUTURE_MEETING."
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(int id) {
+    long start = System.nanoTime();
+    try {
+      return manager.getFutureMeeting(id);
+    } catch (RuntimeException e) {
+      failed(Operation.GET_FUTURE_MEETING);
+      throw e;
+    } finally {
+      record(Operation.GET_FUTURE_MEETING, start);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_MEETING."
+   */
+  @Override
+  public Meeting getMeeting(int id) {
+    long start = System.nanoTime();
+    try {
+      return manager.getMeeting(id);
+    } catch (RuntimeException e) {
+      failed(Operation.GET_MEETING);
+      throw e;
+    } finally {
+      record(Operation.GET_MEETING, start);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_FUTURE_MEETING_LIST_BY_CONTACT."
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(Contact contact) {
+    long start = System.nanoTime();
+    List<Meeting> result = null;
+    try {
+      result = manager.getFutureMeetingList(contact);
+      return result;
+    } catch (RuntimeException e) {
+      failed(Operation.GET_FUTURE_MEETING_LIST_BY_CONTACT);
+      throw e;
+    } finally {
+      record(Operation.GET_FUTURE_MEETING_LIST_BY_CONTACT, start, result);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_FUTURE_MEETING_LIST_BY_DATE."
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(Calendar date) {
+    long start = System.nanoTime();
+    List<Meeting> result = null;
+    try {
+      result = manager.getFutureMeetingList(date);
+      return result;
+    } catch (RuntimeException e) {
+      failed(Operation.GET_FUTURE_MEETING_LIST_BY_DATE);
+      throw e;
+    } finally {
+      record(Operation.GET_FUTURE_MEETING_LIST_BY_DATE, start, result);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_PAST_MEETING_LIST."
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingList(Contact contact) {
+    long start = System.nanoTime();
+    List<PastMeeting> result = null;
+    try {
+      result = manager.getPastMeetingList(contact);
+      return result;
+    } catch (RuntimeException e) {
+      failed(Operation.GET_PAST_MEETING_LIST);
+      throw e;
+    } finally {
+      record(Operation.GET_PAST_MEETING_LIST, start, result);
+    }
+  }
+
+  /***
+   * @see "Measured as ADD_NEW_PAST_MEETING."
+   */
+  @Override
+  public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+    long start = System.nanoTime();
+    try {
+      manager.addNewPastMeeting(contacts, date, text);
+    } catch (RuntimeException e) {
+      failed(Operation.ADD_NEW_PAST_MEETING);
+      throw e;
+    } finally {
+      record(Operation.ADD_NEW_PAST_MEETING, start);
+    }
+  }
+
+  /***
+   * @see "Measured as ADD_MEETING_NOTES."
+   */
+  @Override
+  public void addMeetingNotes(int id, String text) {
+    long start = System.nanoTime();
+    try {
+      manager.addMeetingNotes(id, text);
+    } catch (RuntimeException e) {
+      failed(Operation.ADD_MEETING_NOTES);
+      throw e;
+    } finally {
+      record(Operation.ADD_MEETING_NOTES, start);
+    }
+  }
+
+  /***
+   * @see "Measured as ADD_NEW_CONTACT."
+   */
+  @Override
+  public void addNewContact(String name, String notes) {
+    long start = System.nanoTime();
+    try {
+      manager.addNewContact(name, notes);
+    } catch (RuntimeException e) {
+      failed(Operation.ADD_NEW_CONTACT);
+      throw e;
+    } finally {
+      record(Operation.ADD_NEW_CONTACT, start);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_CONTACTS_BY_ID."
+   */
+  @Override
+  public Set<Contact> getContacts(int... ids) {
+    long start = System.nanoTime();
+    Set<Contact> result = null;
+    try {
+      result = manager.getContacts(ids);
+      return result;
+    } catch (RuntimeException e) {
+      failed(Operation.GET_CONTACTS_BY_ID);
+      throw e;
+    } finally {
+      record(Operation.GET_CONTACTS_BY_ID, start, result);
+    }
+  }
+
+  /***
+   * @see "Measured as GET_CONTACTS_BY_NAME."
+   */
+  @Override
+  public Set<Contact> getContacts(String name) {
+    long start = System.nanoTime();
+    Set<Contact> result = null;
+    try {
+      result = manager.getContacts(name);
+      return result;
+    } catch (RuntimeException e) {
+      failed(Operation.GET_CONTACTS_BY_NAME);
+      throw e;
+    } finally {
+      record(Operation.GET_CONTACTS_BY_NAME, start, result);
+    }
+  }
+
+  /***
+   * @see "Measured as FLUSH, with the store's length afterwards in bytes when its
+   * file is known."
+   */
+  @Override
+  public void flush() {
+    long start = System.nanoTime();
+    try {
+      manager.flush();
+    } catch (RuntimeException e) {
+      failed(Operation.FLUSH);
+      throw e;
+    } finally {
+      record(Operation.FLUSH, start);
+    }
+    if (store != null && store.isFile()) {
+      metrics[Operation.FLUSH.ordinal()].bytes.record(store.length());
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/***
+ * A hash map keyed by primitive ints, so that looking up a domain object
+ * by id never boxes the key.
+ *
+ * Uses open addressing with linear probing over a power of two table which
+ * is doubled when half full. A null value marks an empty slot, hence null
+ * values cannot be stored. Removal shifts following entries back rather than
+ * leaving tombstones, so lookups stay short however many removes are made.
+ *
+ * Not thread safe.
+ *
+ * @author montywest
+ *
+ * @param <V> value type
+ */
+final class IntHashMap<V> implements Iterable<V> {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int[] keys;
+  private Object[] values;
+  private int mask;
+  private int size;
+
+  IntHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /***
+   * @param expectedSize number of entries the map should hold before it resizes.
+   */
+  IntHashMap(int expectedSize) {
+    int capacity = DEFAULT_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  boolean containsKey(int key) {
+    return slotOf(key) >= 0;
+  }
+
+  /***
+   * @param key
+   * @return value mapped to key, or null if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  V get(int key) {
+    int slot = slotOf(key);
+    return slot < 0 ? null : (V) values[slot];
+  }
+
+  /***
+   * @param key
+   * @param value (not null)
+   * @return the previous value mapped to key, or null if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  V put(int key, V value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    int slot = hash(key) & mask;
+    while (values[slot] != null) {
+      if (keys[slot] == key) {
+        V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size * 2 > values.length) {
+      resize(values.length << 1);
+    }
+    return null;
+  }
+
+  /***
+   * @param key
+   * @return the value that was mapped to key, or null if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  V remove(int key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return null;
+    }
+    V previous = (V) values[slot];
+    int gap = slot;
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      if (values[next] == null) {
+        break;
+      }
+      int home = hash(keys[next]) & mask;
+      boolean homeBetweenGapAndNext = gap <= next ? (gap < home && home <= next) : (gap < home || home <= next);
+      if (!homeBetweenGapAndNext) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        gap = next;
+      }
+    }
+    values[gap] = null;
+    size--;
+    return previous;
+  }
+
+  void clear() {
+    allocate(DEFAULT_CAPACITY);
+    size = 0;
+  }
+
+  /***
+   * Iterates over values in table order, which is unspecified.
+   */
+  @Override
+  public Iterator<V> iterator() {
+    return new Iterator<V>() {
+      private int slot = advance(0);
+
+      private int advance(int from) {
+        while (from < values.length && values[from] == null) {
+          from++;
+        }
+        return from;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return slot < values.length;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public V next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        V value = (V) values[slot];
+        slot = advance(slot + 1);
+        return value;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private int slotOf(int key) {
+    int slot = hash(key) & mask;
+    while (values[slot] != null) {
+      if (keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void resize(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int slot = hash(oldKeys[i]) & mask;
+        while (values[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  /***
+   * Ids are sequential, so spread them before masking.
+   */
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
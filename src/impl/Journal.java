@@ -0,0 +1,390 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.Meeting;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.TimeZone;
+
+/***
+ * Append only log of the changes made through a ContactManagerImpl since its
+ * last snapshot, so a flush() only needs to write what has changed.
+ *
+ * Each mutation is encoded as a record into a pending buffer as it happens.
+ * append() adds the pending records to the end of the journal file, and once
+ * enough records have built up isSnapshotDue() tells the manager to write a
+ * whole snapshot instead, after which truncate() empties the journal.
+ *
+ * Records carry an increasing sequence number. The snapshot stores the
+ * sequence number it covers, so records already in the snapshot are skipped
+ * on replay if the journal was not truncated after it was written.
+ *
+ * A record is: type (byte), sequence (long), then its fields. Strings are
+ * written as a length (int) followed by UTF-8 bytes, dates as epoch millis
+ * (long) and time zone id.
+ *
+ * @author montywest
+ *
+ */
+final class Journal {
+
+  static final int DEFAULT_SNAPSHOT_INTERVAL = 10000;
+
+  private static final byte CONTACT = 1;
+  private static final byte FUTURE_MEETING = 2;
+  private static final byte PAST_MEETING = 3;
+  private static final byte MEETING_NOTES = 4;
+  private static final byte MEETING_ROLLED_OVER = 5;
+
+  /***
+   * Receives the records read back by replay(). A method may throw
+   * IllegalArgumentException, before changing anything, for a record that
+   * refers to something that doesn't exist, which replay() then treats as corrupt.
+   */
+  interface Replayer {
+    void contact(int id, String name, String notes);
+    void futureMeeting(int id, long dateMillis, TimeZone timeZone, int[] contactIds);
+    void pastMeeting(int id, long dateMillis, TimeZone timeZone, int[] contactIds, String notes);
+    void meetingNotes(int id, String notes);
+    void meetingRolledOver(int id);
+  }
+
+  private final File file;
+  private final int snapshotInterval;
+  private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+  private long sequence;
+  private int recordsSinceSnapshot;
+
+  /***
+   * @param filename of the journal
+   * @param snapshotInterval number of records after which a snapshot is due
+   */
+  Journal(String filename, int snapshotInterval) {
+    this.file = new File(filename);
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /***
+   * @return sequence number of the last record logged or replayed.
+   */
+  long getSequence() {
+    return sequence;
+  }
+
+  boolean isSnapshotDue() {
+    return recordsSinceSnapshot >= snapshotInterval;
+  }
+
+  void logContact(Contact contact) {
+    try {
+      startRecord(CONTACT);
+      pending.writeInt(contact.getId());
+      writeString(pending, contact.getName());
+      writeString(pending, contact.getNotes());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  void logFutureMeeting(Meeting meeting) {
+    try {
+      startRecord(FUTURE_MEETING);
+      writeMeeting(meeting);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  void logPastMeeting(Meeting meeting, String notes) {
+    try {
+      startRecord(PAST_MEETING);
+      writeMeeting(meeting);
+      writeString(pending, notes);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  void logMeetingNotes(int id, String notes) {
+    try {
+      startRecord(MEETING_NOTES);
+      pending.writeInt(id);
+      writeString(pending, notes);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /***
+   * Logs a future meeting moved to the past meetings without notes, by rollOver().
+   *
+   * @param id
+   */
+  void logMeetingRolledOver(int id) {
+    try {
+      startRecord(MEETING_ROLLED_OVER);
+      pending.writeInt(id);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /***
+   * Appends the pending records to the journal file and forces them to disk.
+   *
+   * @throws IOException
+   */
+  void append() throws IOException {
+    if (pendingBytes.size() == 0) {
+      return;
+    }
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      pendingBytes.writeTo(out);
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    pendingBytes.reset();
+  }
+
+  /***
+   * Called once a snapshot holding every record so far has been written.
+   * Deletes the journal file and drops the pending records.
+   */
+  void truncate() {
+    pendingBytes.reset();
+    recordsSinceSnapshot = 0;
+    if (file.exists() && !file.delete()) {
+      System.err.println("Could not delete journal " + file);
+    }
+  }
+
+  /***
+   * Reads the journal file, passing each record after the snapshot's sequence
+   * number to replayer. A record cut short at the end of the file, from a crash
+   * during append(), or one that doesn't decode (a length that does not fit in the
+   * file, an unknown type, or a reference replayer rejects) is ignored with every
+   * record after it, and the file is truncated after the last good record so later
+   * appends are not written behind it.
+   *
+   * @param snapshotSequence sequence number the snapshot covers
+   * @param replayer
+   * @throws IOException
+   */
+  void replay(long snapshotSequence, Replayer replayer) throws IOException {
+    sequence = snapshotSequence;
+    if (!file.isFile()) {
+      return;
+    }
+    long fileLength = file.length();
+    CountingInputStream counter = new CountingInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    DataInputStream in = new DataInputStream(counter);
+    long validLength = 0;
+    boolean corrupt = false;
+    try {
+      while (true) {
+        int type = in.read();
+        if (type == -1) {
+          return;
+        }
+        long recordSequence = in.readLong();
+        boolean apply = recordSequence > sequence;
+        switch (type) {
+        case CONTACT: {
+          int id = in.readInt();
+          String name = readString(in, counter, fileLength);
+          String notes = readString(in, counter, fileLength);
+          if (apply) {
+            replayer.contact(id, name, notes);
+          }
+          break;
+        }
+        case FUTURE_MEETING: {
+          int id = in.readInt();
+          long millis = in.readLong();
+          TimeZone zone = TimeZone.getTimeZone(readString(in, counter, fileLength));
+          int[] contactIds = readIds(in, counter, fileLength);
+          if (apply) {
+            replayer.futureMeeting(id, millis, zone, contactIds);
+          }
+          break;
+        }
+        case PAST_MEETING: {
+          int id = in.readInt();
+          long millis = in.readLong();
+          TimeZone zone = TimeZone.getTimeZone(readString(in, counter, fileLength));
+          int[] contactIds = readIds(in, counter, fileLength);
+          String notes = readString(in, counter, fileLength);
+          if (apply) {
+            replayer.pastMeeting(id, millis, zone, contactIds, notes);
+          }
+          break;
+        }
+        case MEETING_NOTES: {
+          int id = in.readInt();
+          String notes = readString(in, counter, fileLength);
+          if (apply) {
+            replayer.meetingNotes(id, notes);
+          }
+          break;
+        }
+        case MEETING_ROLLED_OVER: {
+          int id = in.readInt();
+          if (apply) {
+            replayer.meetingRolledOver(id);
+          }
+          break;
+        }
+        default:
+          throw new StreamCorruptedException("Unknown journal record type " + type);
+        }
+        if (apply) {
+          sequence = recordSequence;
+        }
+        recordsSinceSnapshot++;
+        validLength = counter.count;
+      }
+    } catch (EOFException e) {
+      System.err.println("Ignoring incomplete record at end of journal " + file);
+      corrupt = true;
+    } catch (StreamCorruptedException e) {
+      System.err.println("Ignoring journal " + file + " from a corrupt record: " + e.getMessage());
+      corrupt = true;
+    } catch (IllegalArgumentException e) {
+      System.err.println("Ignoring journal " + file + " from a corrupt record: " + e.getMessage());
+      corrupt = true;
+    } finally {
+      in.close();
+    }
+    if (corrupt) {
+      truncateTo(validLength);
+    }
+  }
+
+  /***
+   * Cuts the journal file down to length bytes, dropping a torn or corrupt record
+   * and everything after it.
+   *
+   * @param length
+   * @throws IOException
+   */
+  private void truncateTo(long length) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+    try {
+      channel.truncate(length);
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void startRecord(byte type) throws IOException {
+    pending.writeByte(type);
+    pending.writeLong(++sequence);
+    recordsSinceSnapshot++;
+  }
+
+  private void writeMeeting(Meeting meeting) throws IOException {
+    MeetingImpl meetingImpl = (MeetingImpl) meeting;
+    pending.writeInt(meetingImpl.getId());
+    pending.writeLong(meetingImpl.getDateMillis());
+    writeString(pending, meetingImpl.getTimeZone().getID());
+    int[] contactIds = meetingImpl.getContactIds();
+    pending.writeInt(contactIds.length);
+    for (int contactId : contactIds) {
+      pending.writeInt(contactId);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in, CountingInputStream counter,
+      long fileLength) throws IOException {
+    byte[] bytes = new byte[readLength(in, counter, fileLength, 1)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int[] readIds(DataInputStream in, CountingInputStream counter,
+      long fileLength) throws IOException {
+    int[] ids = new int[readLength(in, counter, fileLength, 4)];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = in.readInt();
+    }
+    return ids;
+  }
+
+  /***
+   * Reads a length, and treats one that is negative or runs past the end of
+   * the file like a record cut short.
+   *
+   * @param elementSize bytes taken by each element counted by the length
+   * @throws EOFException if the length does not fit in the rest of the file
+   */
+  private static int readLength(DataInputStream in, CountingInputStream counter,
+      long fileLength, int elementSize) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || (long) length * elementSize > fileLength - counter.count) {
+      throw new EOFException("Bad length " + length);
+    }
+    return length;
+  }
+
+  /***
+   * Counts the bytes read through it, so replay() knows where the last
+   * complete record ends.
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+    long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
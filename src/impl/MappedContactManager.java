@@ -0,0 +1,546 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.ContactManager;
+import interfaces.FutureMeeting;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/***
+ * Read only ContactManager over a file saved by ContactManagerImpl, for
+ * deployments that only query the store.
+ *
+ * The file is memory mapped rather than loaded, so construction only reads
+ * the header and trailer. Contacts and meetings are decoded from the mapped
+ * file each time they are asked for, found by binary searching the id indexes
+ * StoreCodec writes at the end of the file. Heap use therefore depends on what
+ * is being queried, not the size of the file.
+ *
+ * Queries by id are O(log n). Queries by contact read the contact's list of
+ * meetings, queries by date binary search the day index, and queries by name of
+ * three or more characters intersect the postings of the name's trigrams, so each
+ * decodes only its results and candidates. Shorter names read through the contacts,
+ * decoding only the names, so are O(n) but allocate only for the results.
+ *
+ * Methods that change the store throw UnsupportedOperationException, and flush()
+ * does nothing. The mapping is read with absolute gets only, and the contacts
+ * and meetings decoded don't reserve their ids in DomainObject's id bank, so one
+ * instance can be shared between threads without locking. Files must be in the
+ * StoreCodec format with its indexes, saved by a ContactManagerImpl after
+ * setMappedIndexes(true), and a journal beside the file is not read. The checksum is not checked, as that would
+ * read the whole file.
+ *
+ * @author montywest
+ *
+ */
+public class MappedContactManager implements ContactManager {
+
+  private final MappedByteBuffer buffer;
+  private final TimeZone[] zones;
+  private final int contactIndexOffset;
+  private final int contactCount;
+  private final int meetingIndexOffset;
+  private final int meetingCount;
+  private final int dayIndexOffset;
+  private final int contactMeetingsIndexOffset;
+  private final int nameIndexOffset;
+  private final int nameCount;
+  
+  /***
+   * Decodes a meeting's contacts only when its getContacts() is called.
+   */
+  private final ContactDirectory directory = new ContactDirectory() {
+    public Contact getContact(int id) {
+      return MappedContactManager.this.getContact(id);
+    }
+  };
+
+  /***
+   * Maps filename and reads its header and trailer.
+   *
+   * @param filename
+   * @throws IOException if the file can't be mapped or isn't an indexed StoreCodec file
+   */
+  public MappedContactManager(String filename) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(filename, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File " + filename + " too large to map.");
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      file.close();
+    }
+    int limit = buffer.limit();
+    if (limit < StoreCodec.HEADER_LENGTH + StoreCodec.TRAILER_LENGTH || buffer.getInt(0) != StoreCodec.MAGIC
+        || buffer.get(4) != StoreCodec.INDEXED_VERSION || buffer.getInt(limit - 4) != StoreCodec.MAGIC) {
+      throw new IOException("File " + filename + " is not an indexed contact store.");
+    }
+    contactIndexOffset = buffer.getInt(limit - 12);
+    meetingIndexOffset = buffer.getInt(limit - 8);
+    contactCount = (meetingIndexOffset - contactIndexOffset) / StoreCodec.INDEX_ENTRY_LENGTH;
+    dayIndexOffset = buffer.getInt(limit - StoreCodec.TRAILER_LENGTH);
+    contactMeetingsIndexOffset = buffer.getInt(limit - StoreCodec.TRAILER_LENGTH + 4);
+    nameIndexOffset = buffer.getInt(limit - StoreCodec.TRAILER_LENGTH + 8);
+    nameCount = (limit - StoreCodec.TRAILER_LENGTH - nameIndexOffset) / StoreCodec.NAME_ENTRY_LENGTH;
+    meetingCount = (dayIndexOffset - meetingIndexOffset) / StoreCodec.INDEX_ENTRY_LENGTH;
+
+    Cursor cursor = new Cursor(StoreCodec.HEADER_LENGTH);
+    cursor.readVarLong();
+    zones = new TimeZone[cursor.readVarInt()];
+    for (int i = 0; i < zones.length; i++) {
+      zones[i] = TimeZone.getTimeZone(cursor.readString());
+    }
+  }
+
+  /***
+   * @return number of contacts, read from the index.
+   */
+  public int getContactCount() {
+    return contactCount;
+  }
+
+  /***
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public int addFutureMeeting(Set<Contact> contacts, Calendar date) {
+    throw new UnsupportedOperationException("Read only store.");
+  }
+
+  /***
+   * @see "Decodes the meeting found in the meeting index, then checks its state."
+   */
+  @Override
+  public PastMeeting getPastMeeting(int id) {
+    int offset = find(meetingIndexOffset, meetingCount, id);
+    if (offset < 0) {
+      return null;
+    }
+    if (!stateAt(offset).isPast()) {
+      throw new IllegalArgumentException();
+    }
+    return decodeMeeting(offset);
+  }
+
+  /***
+   * @see "Decodes the meeting found in the meeting index, then checks its state."
+   */
+  @Override
+  public FutureMeeting getFutureMeeting(int id) {
+    int offset = find(meetingIndexOffset, meetingCount, id);
+    if (offset < 0) {
+      return null;
+    }
+    if (stateAt(offset).isPast()) {
+      throw new IllegalArgumentException();
+    }
+    return decodeMeeting(offset);
+  }
+
+  /***
+   * @see "Decodes the meeting found in the meeting index."
+   */
+  @Override
+  public Meeting getMeeting(int id) {
+    int offset = find(meetingIndexOffset, meetingCount, id);
+    return offset < 0 ? null : decodeMeeting(offset);
+  }
+
+  /***
+   * @see "Decodes the contact's meetings in the future state, from its list of
+   * meetings, which is in date order."
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(Contact contact) {
+    List<Meeting> returnList = new LinkedList<Meeting>();
+    for (MeetingImpl meeting : meetingsWith(contact, false)) {
+      returnList.add(meeting);
+    }
+    return returnList;
+  }
+
+  /***
+   * @see "Binary searches the day index for the day's first meeting and decodes
+   * the meetings from there to the day's end, which are in date order."
+   */
+  @Override
+  public List<Meeting> getFutureMeetingList(Calendar date) {
+    return getMeetingsOnDay(ContactManagerImpl.epochDay(date));
+  }
+
+  /***
+   * As getFutureMeetingList(Calendar), for meetings on date in their own time zone.
+   *
+   * @param date
+   * @return the list of meetings on date, maybe empty.
+   */
+  public List<Meeting> getFutureMeetingList(LocalDate date) {
+    return getMeetingsOnDay(date.toEpochDay());
+  }
+
+  private List<Meeting> getMeetingsOnDay(long day) {
+    List<Meeting> returnList = new LinkedList<Meeting>();
+    int low = 0;
+    int high = meetingCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (buffer.getInt(dayIndexOffset + mid * StoreCodec.INDEX_ENTRY_LENGTH) < day) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < meetingCount; i++) {
+      int entry = dayIndexOffset + i * StoreCodec.INDEX_ENTRY_LENGTH;
+      if (buffer.getInt(entry) != day) {
+        break;
+      }
+      returnList.add(decodeMeeting(buffer.getInt(entry + 4)));
+    }
+    return returnList;
+  }
+
+  /***
+   * @see "As getFutureMeetingList(Contact), for meetings in a past state."
+   */
+  @Override
+  public List<PastMeeting> getPastMeetingList(Contact contact) {
+    List<PastMeeting> returnList = new LinkedList<PastMeeting>();
+    for (MeetingImpl meeting : meetingsWith(contact, true)) {
+      returnList.add(meeting);
+    }
+    return returnList;
+  }
+
+  /***
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void addNewPastMeeting(Set<Contact> contacts, Calendar date, String text) {
+    throw new UnsupportedOperationException("Read only store.");
+  }
+
+  /***
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void addMeetingNotes(int id, String text) {
+    throw new UnsupportedOperationException("Read only store.");
+  }
+
+  /***
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void addNewContact(String name, String notes) {
+    throw new UnsupportedOperationException("Read only store.");
+  }
+
+  /***
+   * @see "Decodes each contact found in the contact index."
+   */
+  @Override
+  public Set<Contact> getContacts(int... ids) {
+    Set<Contact> returnSet = new HashSet<Contact>();
+    for (int id : ids) {
+      returnSet.add(getContact(id));
+    }
+    return returnSet;
+  }
+
+  /***
+   * @see "Names of three or more characters only decode the candidates the name
+   * index gives. Shorter names read through the contacts, decoding those whose
+   * name contains the parameter."
+   */
+  @Override
+  public Set<Contact> getContacts(String name) {
+    if (name == null) {
+      throw new NullPointerException();
+    }
+    Set<Contact> returnSet = new HashSet<Contact>();
+    if (NameIndex.canSearch(name)) {
+      for (int id : nameCandidates(name)) {
+        ContactImpl candidate = decodeContact(find(contactIndexOffset, contactCount, id));
+        if (candidate.getName().contains(name)) {
+          returnSet.add(candidate);
+        }
+      }
+      return returnSet;
+    }
+    for (int i = 0; i < contactCount; i++) {
+      int offset = contactOffset(i);
+      Cursor cursor = new Cursor(offset);
+      cursor.readVarInt();
+      if (cursor.readString().contains(name)) {
+        returnSet.add(decodeContact(offset));
+      }
+    }
+    return returnSet;
+  }
+
+  /***
+   * @see "Nothing to save, the store is read only."
+   */
+  @Override
+  public void flush() {
+  }
+
+  /***
+   * @param id
+   * @return the contact with the id.
+   * @throws IllegalArgumentException if there is no contact with the id.
+   */
+  private Contact getContact(int id) {
+    int offset = find(contactIndexOffset, contactCount, id);
+    if (offset < 0) {
+      throw new IllegalArgumentException();
+    }
+    return decodeContact(offset);
+  }
+
+  /***
+   * Intersects the postings of the search string's trigrams, as NameIndex does,
+   * testing each id of the smallest with a binary search of the others.
+   *
+   * @param search (at least three characters long)
+   * @return ids of contacts whose name may contain search, in ascending order.
+   */
+  private List<Integer> nameCandidates(String search) {
+    int gramCount = search.length() - NameIndex.GRAM_LENGTH + 1;
+    int[] entries = new int[gramCount];
+    int smallest = 0;
+    for (int i = 0; i < gramCount; i++) {
+      entries[i] = findName(NameIndex.gram(search, i));
+      if (entries[i] < 0) {
+        return Collections.emptyList();
+      }
+      if (buffer.getInt(entries[i] + 8) < buffer.getInt(entries[smallest] + 8)) {
+        smallest = i;
+      }
+    }
+    List<Integer> candidates = new ArrayList<Integer>();
+    int postings = buffer.getInt(entries[smallest] + 4);
+    int size = buffer.getInt(entries[smallest] + 8);
+    for (int i = 0; i < size; i++) {
+      int id = buffer.getInt(postings + i * 4);
+      boolean inAll = true;
+      for (int j = 0; j < gramCount && inAll; j++) {
+        inAll = j == smallest || isPosted(entries[j], id);
+      }
+      if (inAll) {
+        candidates.add(id);
+      }
+    }
+    return candidates;
+  }
+
+  /***
+   * @return offset of the name index entry of gram, or -1 if no name has it.
+   */
+  private int findName(int gram) {
+    int low = 0;
+    int high = nameCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = nameIndexOffset + mid * StoreCodec.NAME_ENTRY_LENGTH;
+      int midGram = buffer.getInt(entry);
+      if (midGram < gram) {
+        low = mid + 1;
+      } else if (midGram > gram) {
+        high = mid - 1;
+      } else {
+        return entry;
+      }
+    }
+    return -1;
+  }
+
+  /***
+   * Binary searches the postings of a name index entry for id.
+   */
+  private boolean isPosted(int entry, int id) {
+    int postings = buffer.getInt(entry + 4);
+    int low = 0;
+    int high = buffer.getInt(entry + 8) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midId = buffer.getInt(postings + mid * 4);
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /***
+   * @param contact
+   * @param past true for meetings in a past state, false for future.
+   * @return meetings in the state with the contact, sorted by date.
+   * @throws IllegalArgumentException if the contact is not in the store.
+   */
+  private List<MeetingImpl> meetingsWith(Contact contact, boolean past) {
+    int entry = contact == null ? -1 : findEntry(contactIndexOffset, contactCount, contact.getId());
+    if (entry < 0) {
+      throw new IllegalArgumentException();
+    }
+    List<MeetingImpl> meetings = new ArrayList<MeetingImpl>();
+    int list = buffer.getInt(contactMeetingsIndexOffset + entry * 4);
+    int size = buffer.getInt(list);
+    for (int i = 1; i <= size; i++) {
+      int offset = buffer.getInt(list + i * 4);
+      if (stateAt(offset).isPast() == past) {
+        meetings.add(decodeMeeting(offset));
+      }
+    }
+    return meetings;
+  }
+
+  private ContactImpl decodeContact(int offset) {
+    Cursor cursor = new Cursor(offset);
+    int id = cursor.readVarInt();
+    String name = cursor.readString();
+    return new ContactImpl(id, name, cursor.readNotes(), false);
+  }
+
+  private MeetingImpl decodeMeeting(int offset) {
+    Cursor cursor = new Cursor(offset);
+    int id = cursor.readVarInt();
+    MeetingState state = MeetingState.values()[buffer.get(cursor.position++)];
+    long millis = cursor.readLong();
+    TimeZone zone = zones[cursor.readVarInt()];
+    int[] contactIds = new int[cursor.readVarInt()];
+    int contactId = 0;
+    for (int i = 0; i < contactIds.length; i++) {
+      contactId += cursor.readVarInt();
+      contactIds[i] = contactId;
+    }
+    MeetingImpl meeting = new MeetingImpl(id, millis, zone, contactIds, directory, false);
+    for (String note : cursor.readNotes()) {
+      meeting.addNotes(note);
+    }
+    meeting.setState(state);
+    return meeting;
+  }
+
+  private MeetingState stateAt(int meetingOffset) {
+    Cursor cursor = new Cursor(meetingOffset);
+    cursor.readVarInt();
+    return MeetingState.values()[buffer.get(cursor.position)];
+  }
+
+  private int contactOffset(int entry) {
+    return buffer.getInt(contactIndexOffset + entry * StoreCodec.INDEX_ENTRY_LENGTH + 4);
+  }
+
+  /***
+   * Binary searches an index for id.
+   *
+   * @param indexOffset
+   * @param count entries in the index
+   * @param id
+   * @return offset of the record with the id, or -1 if there is none.
+   */
+  private int find(int indexOffset, int count, int id) {
+    int entry = findEntry(indexOffset, count, id);
+    return entry < 0 ? -1 : buffer.getInt(indexOffset + entry * StoreCodec.INDEX_ENTRY_LENGTH + 4);
+  }
+
+  /***
+   * As find(), returning the entry's number in the index.
+   */
+  private int findEntry(int indexOffset, int count, int id) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = indexOffset + mid * StoreCodec.INDEX_ENTRY_LENGTH;
+      int midId = buffer.getInt(entry);
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /***
+   * Reads StoreCodec's encodings from a position in the mapping
+   * with absolute gets, leaving the buffer's own position alone.
+   */
+  private final class Cursor {
+    private int position;
+
+    Cursor(int position) {
+      this.position = position;
+    }
+
+    int readVarInt() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer.get(position++);
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    long readVarLong() {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer.get(position++);
+        value |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    long readLong() {
+      long value = buffer.getLong(position);
+      position += 8;
+      return value;
+    }
+
+    String[] readNotes() {
+      String[] notes = new String[readVarInt()];
+      for (int i = 0; i < notes.length; i++) {
+        notes[i] = readString();
+      }
+      return notes;
+    }
+
+    String readString() {
+      byte[] bytes = new byte[readVarInt()];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = buffer.get(position++);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -5,53 +5,256 @@ import interfaces.FutureMeeting;
 import interfaces.Meeting;
 import interfaces.PastMeeting;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+/***
+ * Holds its contacts as a sorted array of their ids. A meeting added to a manager
+ * resolves the ids through the manager's ContactDirectory, sharing its contact
+ * instances, while a meeting made on its own keeps the contacts it was given.
+ * getContacts() builds a new set each call, so code that only needs the ids
+ * should use getContactIds().
+ * 
+ * The date is held as epoch millis and a time zone, so the manager can sort and
+ * compare meetings by getDateMillis() without building a Calendar. getDate() builds
+ * a new Calendar each call. Notes are held as a Notes segment list, so adding a note
+ * doesn't copy the notes before it.
+ * 
+ * The serialized form is unchanged from when contacts were held as a set and
+ * the date as a Calendar.
+ * 
+ * @author montywest
+ *
+ */
 public class MeetingImpl extends DomainObject implements Meeting, PastMeeting, FutureMeeting, Serializable {
 
   private static final long serialVersionUID = 3L;
-  private static final SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy");
-  private final Calendar date;
-  private final Set<Contact> contacts;
-  private String notes = "";
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+  private static final AtomicReferenceFieldUpdater<MeetingImpl, MeetingState> STATE_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(MeetingImpl.class, MeetingState.class, "state");
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("date", Calendar.class),
+    new ObjectStreamField("contacts", Set.class),
+    new ObjectStreamField("notes", String.class),
+    new ObjectStreamField("state", MeetingState.class)
+  };
+  private static final Comparator<Contact> ID_ORDER = new Comparator<Contact>() {
+    public int compare(Contact c1, Contact c2) {
+      return Integer.compare(c1.getId(), c2.getId());
+    }
+  };
+  private long dateMillis;
+  private TimeZone timeZone;
+  
+  /***
+   * Ascending, never modified once set.
+   */
+  private int[] contactIds;
+  
+  /***
+   * The contacts, in the order of contactIds, while there is no directory.
+   */
+  private Contact[] participants;
+  private ContactDirectory directory;
+  private Notes notes = new Notes();
+  private volatile MeetingState state;
 
   public MeetingImpl() {
-    date = null;
-    contacts = null;
   }
   
   public MeetingImpl(Calendar date, Set<Contact> contacts) {
-    this.date = date;
-    this.contacts = contacts;
+    setDate(date);
+    setParticipants(contacts);
+  }
+  
+  /***
+   * @param dateMillis
+   * @param timeZone of the date
+   * @param contactIds ascending, and not modified afterwards
+   * @param directory to resolve the ids
+   */
+  MeetingImpl(long dateMillis, TimeZone timeZone, int[] contactIds, ContactDirectory directory) {
+    this.dateMillis = dateMillis;
+    this.timeZone = timeZone;
+    this.contactIds = contactIds;
+    this.directory = directory;
   }
   
+  /***
+   * Recreates a meeting with a previously assigned id.
+   */
+  MeetingImpl(int id, long dateMillis, TimeZone timeZone, int[] contactIds, ContactDirectory directory) {
+    this(id, dateMillis, timeZone, contactIds, directory, true);
+  }
+  
+  /***
+   * As MeetingImpl(id, dateMillis, timeZone, contactIds, directory), only reserving
+   * the id if reserveId is true.
+   */
+  MeetingImpl(int id, long dateMillis, TimeZone timeZone, int[] contactIds, ContactDirectory directory,
+      boolean reserveId) {
+    super(id, reserveId);
+    this.dateMillis = dateMillis;
+    this.timeZone = timeZone;
+    this.contactIds = contactIds;
+    this.directory = directory;
+  }
+  
+  /***
+   * @see "Builds a new Calendar, in the date's time zone, on each call."
+   */
   @Override
   public Calendar getDate() {
-    return (Calendar) date.clone();
+    if (timeZone == null) {
+      return null;
+    }
+    Calendar date = Calendar.getInstance(timeZone);
+    date.setTimeInMillis(dateMillis);
+    return date;
+  }
+  
+  /***
+   * @return the date as epoch millis, without building a Calendar.
+   */
+  long getDateMillis() {
+    return dateMillis;
+  }
+  
+  TimeZone getTimeZone() {
+    return timeZone;
+  }
+  
+  /***
+   * @return number of days from 01-01-1970 to the date, in its own time zone.
+   */
+  long getEpochDay() {
+    return ContactManagerImpl.epochDay(dateMillis, timeZone);
   }
   
+  private void setDate(Calendar date) {
+    if (date != null) {
+      dateMillis = date.getTimeInMillis();
+      timeZone = date.getTimeZone();
+    }
+  }
+  
+  /***
+   * @see "Built from the contact ids on each call."
+   */
   @Override
   public Set<Contact> getContacts() {
-    return new HashSet<Contact>(contacts);
+    Set<Contact> contacts = new HashSet<Contact>();
+    if (directory == null) {
+      contacts.addAll(Arrays.asList(participants));
+    } else {
+      for (int id : contactIds) {
+        contacts.add(directory.getContact(id));
+      }
+    }
+    return contacts;
+  }
+  
+  /***
+   * @return ids of the contacts, ascending. The array is shared, so must not be modified.
+   */
+  int[] getContactIds() {
+    return contactIds;
   }
   
+  /***
+   * @see "Joined when first asked for after a note is added."
+   */
   @Override
-  public String getNotes() {
-    return notes;
+  public synchronized String getNotes() {
+    return notes.toString();
   }
   
   /***
-   * @see "Adds a semicolon to separate new note from existing notes."
+   * @see "Adds a semicolon to separate new note from existing notes.
+   * Synchronized, as a ConcurrentContactManager may add notes from several threads."
    */
   @Override
-  public void addNotes(String note) {
-    if (!notes.equals(""))
-      notes += "; ";
-    notes += note;
+  public synchronized void addNotes(String note) {
+    notes.add(note);
+  }
+  
+  /***
+   * @return each note added, in order, as saved by StoreCodec.
+   */
+  synchronized String[] getNoteSegments() {
+    return notes.segments();
+  }
+  
+  /***
+   * Set by ContactManagerImpl as the meeting moves between its lists,
+   * null if the meeting has not been added to a ContactManagerImpl.
+   * 
+   * @return state
+   */
+  MeetingState getState() {
+    return state;
+  }
+
+  void setState(MeetingState state) {
+    this.state = state;
+  }
+  
+  /***
+   * Resolves the contact ids through directory from now on, so contacts
+   * loaded as separate copies are replaced by the directory's instances.
+   * 
+   * @param directory holding every contact of this meeting
+   */
+  void setDirectory(ContactDirectory directory) {
+    this.directory = directory;
+    this.participants = null;
+  }
+  
+  /***
+   * @param contacts
+   * @return ids of contacts, ascending.
+   */
+  static int[] sortedIds(Set<Contact> contacts) {
+    int[] ids = new int[contacts.size()];
+    int i = 0;
+    for (Contact contact : contacts) {
+      ids[i++] = contact.getId();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+  
+  private void setParticipants(Set<Contact> contacts) {
+    participants = contacts.toArray(new Contact[contacts.size()]);
+    Arrays.sort(participants, ID_ORDER);
+    contactIds = new int[participants.length];
+    for (int i = 0; i < participants.length; i++) {
+      contactIds[i] = participants[i].getId();
+    }
+  }
+  
+  /***
+   * Atomically changes the state, so only one of several threads
+   * converting the meeting succeeds.
+   * 
+   * @param expected
+   * @param state
+   * @return true if the state was expected and is now state.
+   */
+  boolean compareAndSetState(MeetingState expected, MeetingState state) {
+    return STATE_UPDATER.compareAndSet(this, expected, state);
   }
   
   /***
@@ -67,14 +270,58 @@ public class MeetingImpl extends DomainObject implements Meeting, PastMeeting, F
   }
   
   /***
-   * @see "Date is formated in dd-MM-yyyy."
+   * @see "Consistent with equals(), so equal meetings hash alike."
+   */
+  @Override
+  public int hashCode() {
+    return getId();
+  }
+  
+  /***
+   * Writes the contacts as a set, the form used before contact ids.
+   * 
+   * @param out
+   * @throws IOException
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("date", getDate());
+    fields.put("contacts", contactIds == null ? null : getContacts());
+    fields.put("notes", getNotes());
+    fields.put("state", state);
+    out.writeFields();
+  }
+  
+  /***
+   * Contacts are read as a set and held until a manager gives a directory.
+   * 
+   * @param in
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    setDate((Calendar) fields.get("date", null));
+    Set<Contact> contacts = (Set<Contact>) fields.get("contacts", null);
+    if (contacts != null) {
+      setParticipants(contacts);
+    }
+    notes = new Notes();
+    notes.add((String) fields.get("notes", ""));
+    state = (MeetingState) fields.get("state", null);
+  }
+  
+  /***
+   * @see "Date is formated in dd-MM-yyyy, in the meeting's time zone."
    */
   @Override
   public String toString() {
     String meetingNotesToStr = "";
-    if(!this.notes.equals("")) {
-      meetingNotesToStr = ", Notes: " + this.getNotes();
+    String notes = getNotes();
+    if(!notes.equals("")) {
+      meetingNotesToStr = ", Notes: " + notes;
     }
-    return "[Meeting-> Id: " + getId() + ", Date: " + sdf.format(getDate().getTime()) + ", Contacts: " + getContacts() + meetingNotesToStr + "]";
+    return "[Meeting-> Id: " + getId() + ", Date: " + DATE_FORMAT.format(LocalDate.ofEpochDay(getEpochDay())) + ", Contacts: " + getContacts() + meetingNotesToStr + "]";
   }
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package impl;
+
+/***
+ * Which of ContactManagerImpl's meeting lists a meeting belongs to.
+ * 
+ * A CONVERTED meeting was added as a future meeting and later moved to the
+ * past meeting list by addMeetingNotes() or rollOver(), so is treated as a past meeting.
+ * 
+ * @author montywest
+ *
+ */
+enum MeetingState {
+  FUTURE,
+  PAST,
+  CONVERTED;
+  
+  boolean isPast() {
+    return this != FUTURE;
+  }
+}
@@ -0,0 +1,178 @@
+package impl;
+
+import java.util.Arrays;
+
+/***
+ * Trigram index of contact names, used to answer substring searches without
+ * testing every name.
+ *
+ * Each contact id is posted under every three character substring of its name.
+ * Any name containing a search string of three or more characters must contain all
+ * of that string's trigrams, so intersecting their posting lists gives a small set of
+ * candidates. Trigrams are hashed to ints, so a candidate may be a false positive and
+ * must still be checked with String.contains(); a real match is never left out.
+ *
+ * Search strings shorter than three characters cannot be narrowed down by the index,
+ * every contact is a candidate for them. The index keeps the ids of every contact
+ * for them, so a page of candidates can still be walked in id order.
+ *
+ * Not thread safe.
+ *
+ * @author montywest
+ *
+ */
+final class NameIndex {
+
+  static final int GRAM_LENGTH = 3;
+
+  private final IntHashMap<Postings> postingsByGram = new IntHashMap<Postings>();
+  private final Postings allIds = new Postings();
+
+  /***
+   * Posts id under each trigram of name.
+   *
+   * @param id
+   * @param name
+   */
+  void add(int id, String name) {
+    allIds.add(id);
+    for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+      int gram = gram(name, i);
+      Postings postings = postingsByGram.get(gram);
+      if (postings == null) {
+        postings = new Postings();
+        postingsByGram.put(gram, postings);
+      }
+      postings.add(id);
+    }
+  }
+
+  /***
+   * @param search
+   * @return true if candidates() can answer this search string.
+   */
+  static boolean canSearch(String search) {
+    return search.length() >= GRAM_LENGTH;
+  }
+
+  /***
+   * Intersects the posting lists of the search string's trigrams, smallest first.
+   *
+   * @param search (at least three characters long)
+   * @return ids of contacts whose name may contain search, in ascending order.
+   */
+  int[] candidates(String search) {
+    return candidates(search, Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /***
+   * As candidates(search), but only the first limit ids above after. The smallest
+   * posting list is walked from after, testing each id against the others, and the
+   * walk stops once limit are found, so a page costs O(log n) plus the ids walked
+   * to fill it rather than the whole intersection. Search strings too short for
+   * the index walk the ids of every contact instead.
+   *
+   * @param search
+   * @param after id the candidates are above
+   * @param limit most ids to return
+   * @return ids of contacts whose name may contain search, in ascending order.
+   */
+  int[] candidates(String search, int after, int limit) {
+    Postings[] lists;
+    if (canSearch(search)) {
+      lists = new Postings[search.length() - GRAM_LENGTH + 1];
+      for (int i = 0; i < lists.length; i++) {
+        lists[i] = postingsByGram.get(gram(search, i));
+        if (lists[i] == null) {
+          return new int[0];
+        }
+      }
+    } else {
+      lists = new Postings[] { allIds };
+    }
+    for (Postings postings : lists) {
+      postings.sort();
+    }
+    Postings smallest = lists[0];
+    for (Postings postings : lists) {
+      if (postings.size < smallest.size) {
+        smallest = postings;
+      }
+    }
+
+    int start = smallest.indexAfter(after);
+    int[] result = new int[Math.min(limit, smallest.size - start)];
+    int resultSize = 0;
+    for (int i = start; i < smallest.size && resultSize < limit; i++) {
+      int id = smallest.ids[i];
+      boolean inAll = true;
+      for (Postings postings : lists) {
+        if (postings != smallest && !postings.contains(id)) {
+          inAll = false;
+          break;
+        }
+      }
+      if (inAll) {
+        result[resultSize++] = id;
+      }
+    }
+    return resultSize == result.length ? result : Arrays.copyOf(result, resultSize);
+  }
+
+  /***
+   * @return hash of the trigram of str at start, never negative. Also used by
+   *         StoreCodec to write the name index into a store.
+   */
+  static int gram(String str, int start) {
+    return (str.charAt(start) * 31 + str.charAt(start + 1)) * 31 + str.charAt(start + 2);
+  }
+
+  /***
+   * Growable array of ids, sorted on demand as ids are not always added in order
+   * (such as when rebuilding from a set after a load).
+   */
+  private static final class Postings {
+    private int[] ids = new int[4];
+    private int size;
+    private boolean sorted = true;
+
+    void add(int id) {
+      if (size > 0 && ids[size - 1] == id) {
+        return;
+      }
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      if (size > 0 && ids[size - 1] > id) {
+        sorted = false;
+      }
+      ids[size++] = id;
+    }
+
+    void sort() {
+      if (!sorted) {
+        Arrays.sort(ids, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+          if (unique == 0 || ids[unique - 1] != ids[i]) {
+            ids[unique++] = ids[i];
+          }
+        }
+        size = unique;
+        sorted = true;
+      }
+    }
+
+    boolean contains(int id) {
+      return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /***
+     * @return position of the first id above id.
+     */
+    int indexAfter(int id) {
+      int found = Arrays.binarySearch(ids, 0, size, id);
+      return found >= 0 ? found + 1 : -found - 1;
+    }
+  }
+}
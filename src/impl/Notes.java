@@ -0,0 +1,75 @@
+package impl;
+
+import java.util.Arrays;
+
+/***
+ * Notes of a contact or meeting, held as the list of notes added rather than
+ * one string, so adding a note copies only that note and not all the notes
+ * before it.
+ *
+ * The joined form puts "; " between notes, with no separator while the notes so
+ * far are empty, as ContactImpl and MeetingImpl always have. It is built when first
+ * asked for and kept until the next note is added.
+ *
+ * Not thread safe, the owner synchronizes.
+ *
+ * @author montywest
+ *
+ */
+final class Notes {
+
+  static final String SEPARATOR = "; ";
+
+  private String[] segments = new String[1];
+  private int size;
+  private int length;
+  private String joined = "";
+
+  /***
+   * @param note, a null note is added as "null", as string concatenation would
+   */
+  void add(String note) {
+    note = String.valueOf(note);
+    if (size == segments.length) {
+      segments = Arrays.copyOf(segments, size * 2);
+    }
+    if (length > 0) {
+      length += SEPARATOR.length();
+    }
+    segments[size++] = note;
+    length += note.length();
+    joined = null;
+  }
+
+  /***
+   * @return true if the joined notes are empty.
+   */
+  boolean isEmpty() {
+    return length == 0;
+  }
+
+  /***
+   * @return the notes added, in order.
+   */
+  String[] segments() {
+    return Arrays.copyOf(segments, size);
+  }
+
+  /***
+   * @return the notes joined by separators, cached until the next add().
+   */
+  @Override
+  public String toString() {
+    if (joined == null) {
+      StringBuilder builder = new StringBuilder(length);
+      for (int i = 0; i < size; i++) {
+        if (builder.length() > 0) {
+          builder.append(SEPARATOR);
+        }
+        builder.append(segments[i]);
+      }
+      joined = builder.toString();
+    }
+    return joined;
+  }
+}
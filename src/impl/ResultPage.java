@@ -0,0 +1,44 @@
+package impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/***
+ * One page of a paged query: up to the limit asked for of the results, in order,
+ * and a token to pass back for the page after, or null if this is the last.
+ *
+ * Tokens are opaque strings naming the last result of the page, so the next page
+ * starts after it even if results have been added before it in the meantime.
+ *
+ * @author montywest
+ *
+ * @param <T> type of result
+ */
+public final class ResultPage<T> {
+
+  private final List<T> items;
+  private final String nextToken;
+
+  ResultPage(List<T> items, String nextToken) {
+    this.items = Collections.unmodifiableList(items);
+    this.nextToken = nextToken;
+  }
+
+  /***
+   * @return the page's results, in order.
+   */
+  public List<T> getItems() {
+    return items;
+  }
+
+  /***
+   * @return token of the next page, or null if there are no more results.
+   */
+  public String getNextToken() {
+    return nextToken;
+  }
+
+  public boolean hasNext() {
+    return nextToken != null;
+  }
+}
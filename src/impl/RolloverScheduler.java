@@ -0,0 +1,80 @@
+package impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Moves a ContactManagerImpl's future meetings to its past meetings on a
+ * background thread as their dates pass.
+ *
+ * The future meetings are kept in date order, so the manager's rollOver() only
+ * looks at the meetings that are due, and the next one tells the thread when to
+ * wake. It sleeps until just after the earliest future meeting's date, but never
+ * longer than maxDelay, so a meeting added earlier than the one it is waiting for
+ * is moved within maxDelay of its date (and, in the meantime, by the manager's
+ * queries, which roll over first).
+ *
+ * @author montywest
+ *
+ */
+final class RolloverScheduler {
+
+  private final ContactManagerImpl manager;
+  private final long maxDelayMillis;
+  private final ScheduledExecutorService executor;
+  private final Runnable rollOver = new Runnable() {
+    public void run() {
+      manager.rollOver();
+      schedule();
+    }
+  };
+
+  /***
+   * Rolls manager over now, then whenever a meeting falls due.
+   *
+   * @param manager
+   * @param maxDelay longest time between roll overs
+   * @param unit of maxDelay
+   */
+  RolloverScheduler(ContactManagerImpl manager, long maxDelay, TimeUnit unit) {
+    if (maxDelay <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.manager = manager;
+    this.maxDelayMillis = Math.max(1, unit.toMillis(maxDelay));
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "contact-manager-rollover");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.execute(rollOver);
+  }
+
+  /***
+   * Stops the background thread, waiting for a roll over in progress. The next
+   * scheduled roll over is cancelled rather than waited for.
+   */
+  void stop() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void schedule() {
+    long untilDue = manager.getNextRolloverMillis() - manager.getClock().millis();
+    long delay = Math.max(1, Math.min(maxDelayMillis, untilDue));
+    try {
+      executor.schedule(rollOver, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Stopped.
+    }
+  }
+}
@@ -0,0 +1,654 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.Meeting;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/***
+ * Binary file format for the contacts and meetings of a ContactManagerImpl,
+ * used in place of Java serialization so no class descriptors are written and
+ * nothing is rebuilt reflectively on load.
+ *
+ * Layout:
+ *   magic (int), version (byte),
+ *   header: length of the body, everything after the header (long), and the
+ *     CRC-32 of the body (int),
+ *   body: journal sequence (varlong),
+ *   time zone table: count (varint), then each zone id (string),
+ *   contacts: count (varint), then each: id (varint), name (string), notes,
+ *   meetings: count (varint), then each: id (varint), state (byte),
+ *     date as epoch millis (long), time zone index (varint),
+ *     contact ids as count (varint) then ascending ids delta encoded (varint),
+ *     notes,
+ *   then, only in an indexed file (version 2), the indexes MappedContactManager
+ *   reads, all covered by the checksum:
+ *   contact index: for each contact in ascending id order, id (int) and
+ *     offset of its record from the start of the file (int),
+ *   meeting index: the same for each meeting,
+ *   day index: for each meeting, by epoch day in its own time zone then in date
+ *     order, the day (int) and offset of its record (int),
+ *   contact meetings: for each contact in ascending id order, its number of
+ *     meetings (int) then the offset of each one's record (int), in date order,
+ *   contact meetings index: for each contact in ascending id order, the offset
+ *     of its contact meetings (int),
+ *   name postings: for each trigram of the contacts' names, as hashed by
+ *     NameIndex, the ids of the contacts posted under it, ascending (int),
+ *   name index: for each trigram in ascending order, the trigram (int), offset
+ *     of its postings (int) and number of postings (int),
+ *   trailer: offset of the day index (int), offset of the contact meetings
+ *     index (int), offset of the name index (int), offset of the contact
+ *     index (int), offset of the meeting index (int), magic (int).
+ *
+ * Notes are written as the notes added, as count (varint) then each note (string),
+ * so loading doesn't split or copy the joined notes.
+ *
+ * The indexes let MappedContactManager find a record, and a contact's or day's
+ * meetings or the candidates for a name, without reading the others. As they are
+ * written on every save, and make the file about 2.5 times the size of the records
+ * alone, they are only written when asked for, read() skips them. read()
+ * decodes the body as it streams in, checksumming it on the way, and checks the
+ * checksum and length once the whole body is read, so a load holds no copy of the
+ * file. As offsets are ints write() refuses a file over 2GB.
+ *
+ * write() leaves the header zeroed, as the body's length and checksum are only
+ * known at the end. It is filled in by StoreFile, which writes through a
+ * ChecksumOutputStream.
+ *
+ * Varints use 7 bits a byte, low bits first, with the high bit set on every
+ * byte but the last. Strings are a byte length (varint) then UTF-8 bytes.
+ *
+ * Files are recognised by the magic number, anything else is assumed
+ * to be a Java serialized file from before this format.
+ *
+ * @author montywest
+ *
+ */
+final class StoreCodec {
+
+  static final int MAGIC = 0x434D4752; // "CMGR"
+  static final byte VERSION = 1;
+  static final byte INDEXED_VERSION = 2;
+  static final int HEADER_OFFSET = 5;
+  static final int HEADER_LENGTH = HEADER_OFFSET + 12;
+  static final int TRAILER_LENGTH = 24;
+  static final int NAME_ENTRY_LENGTH = 12;
+  static final int INDEX_ENTRY_LENGTH = 8;
+
+  /***
+   * Receives what read() decodes, contacts first. Notes are given as
+   * each note added, in order.
+   */
+  interface Sink {
+    /***
+     * Called before any record if the file holds the indexes.
+     */
+    void indexed();
+    void contact(int id, String name, String[] notes);
+    void meeting(int id, MeetingState state, long dateMillis, TimeZone timeZone, int[] contactIds, String[] notes);
+  }
+
+  private StoreCodec() {
+  }
+
+  /***
+   * Records are passed to sink as they are decoded, and the body is only checked
+   * against the header's length and checksum once it has all been read, so if
+   * this throws the caller must discard what sink was given. Counts and lengths
+   * are checked against the bytes left in the body before anything is allocated
+   * for them.
+   *
+   * @param in positioned after the magic number
+   * @param sink
+   * @return the journal sequence the file covers.
+   * @throws IOException if the file is of an unknown version or truncated
+   * @throws StreamCorruptedException if the body doesn't match the header's length
+   *   and checksum, or doesn't decode (including if sink rejects what it is given)
+   */
+  static long read(DataInputStream in, Sink sink) throws IOException {
+    byte version = in.readByte();
+    if (version != VERSION && version != INDEXED_VERSION) {
+      throw new IOException("Unknown file version " + version);
+    }
+    long bodyLength = in.readLong();
+    int bodyChecksum = in.readInt();
+    if (bodyLength < 0) {
+      throw new StreamCorruptedException("Bad store length " + bodyLength);
+    }
+    BodyInputStream body = new BodyInputStream(in, bodyLength);
+    CheckedInputStream checked = new CheckedInputStream(body, new CRC32());
+    if (version == INDEXED_VERSION) {
+      sink.indexed();
+    }
+    long journalSequence;
+    try {
+      journalSequence = decode(new DataInputStream(checked), body, sink);
+      // Any indexes after the records are only read by MappedContactManager,
+      // but are covered by the checksum.
+      byte[] skipped = new byte[8192];
+      while (checked.read(skipped) >= 0) {
+      }
+    } catch (EOFException e) {
+      throw new StreamCorruptedException("Store shorter than its header");
+    } catch (RuntimeException e) {
+      StreamCorruptedException corrupt = new StreamCorruptedException("Store doesn't decode: " + e);
+      corrupt.initCause(e);
+      throw corrupt;
+    }
+    if (body.remaining() > 0) {
+      throw new StreamCorruptedException("Store shorter than its header");
+    }
+    if (in.read() >= 0) {
+      throw new StreamCorruptedException("Store longer than its header");
+    }
+    if ((int) checked.getChecksum().getValue() != bodyChecksum) {
+      throw new StreamCorruptedException("Store checksum doesn't match");
+    }
+    return journalSequence;
+  }
+
+  private static long decode(DataInputStream in, BodyInputStream body, Sink sink) throws IOException {
+    long journalSequence = readVarLong(in);
+
+    TimeZone[] zones = new TimeZone[readCount(in, body)];
+    for (int i = 0; i < zones.length; i++) {
+      zones[i] = TimeZone.getTimeZone(readString(in, body));
+    }
+
+    int contactCount = readVarInt(in);
+    for (int i = 0; i < contactCount; i++) {
+      int id = readVarInt(in);
+      String name = readString(in, body);
+      sink.contact(id, name, readNotes(in, body));
+    }
+
+    MeetingState[] states = MeetingState.values();
+    int meetingCount = readVarInt(in);
+    for (int i = 0; i < meetingCount; i++) {
+      int id = readVarInt(in);
+      MeetingState state = states[checkIndex(in.readByte(), states.length)];
+      long millis = in.readLong();
+      TimeZone zone = zones[checkIndex(readVarInt(in), zones.length)];
+      int[] contactIds = new int[readCount(in, body)];
+      int previous = 0;
+      for (int j = 0; j < contactIds.length; j++) {
+        previous += readVarInt(in);
+        contactIds[j] = previous;
+      }
+      sink.meeting(id, state, millis, zone, contactIds, readNotes(in, body));
+    }
+    return journalSequence;
+  }
+
+  /***
+   * Reads a count or length of elements that each take at least a byte.
+   *
+   * @throws StreamCorruptedException if it is negative or more than the bytes left in body
+   */
+  private static int readCount(DataInputStream in, BodyInputStream body) throws IOException {
+    int count = readVarInt(in);
+    if (count < 0 || count > body.remaining()) {
+      throw new StreamCorruptedException("Count " + count + " out of range");
+    }
+    return count;
+  }
+
+  /***
+   * @return index, if it is within an array of length.
+   * @throws StreamCorruptedException if not
+   */
+  private static int checkIndex(int index, int length) throws StreamCorruptedException {
+    if (index < 0 || index >= length) {
+      throw new StreamCorruptedException("Index " + index + " out of range");
+    }
+    return index;
+  }
+
+  /***
+   * Writes everything, including the magic number.
+   *
+   * @param out
+   * @param journalSequence
+   * @param contacts each a ContactImpl
+   * @param meetings of any state, each a MeetingImpl
+   * @param states of meetings, in the same order, see statesOf()
+   * @param indexed if the indexes are written after the records
+   * @throws IOException
+   */
+  static void write(DataOutputStream out, long journalSequence, Collection<Contact> contacts,
+      Collection<? extends Meeting> meetings, MeetingState[] states, boolean indexed) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeByte(indexed ? INDEXED_VERSION : VERSION);
+    out.writeLong(0);
+    out.writeInt(0);
+    writeVarLong(out, journalSequence);
+
+    Map<String, Integer> zoneIndexes = new HashMap<String, Integer>();
+    for (Meeting meeting : meetings) {
+      String zone = ((MeetingImpl) meeting).getTimeZone().getID();
+      if (!zoneIndexes.containsKey(zone)) {
+        zoneIndexes.put(zone, zoneIndexes.size());
+      }
+    }
+    String[] zones = new String[zoneIndexes.size()];
+    for (Map.Entry<String, Integer> entry : zoneIndexes.entrySet()) {
+      zones[entry.getValue()] = entry.getKey();
+    }
+    writeVarInt(out, zones.length);
+    for (String zone : zones) {
+      writeString(out, zone);
+    }
+
+    long[] contactIndex = indexed ? new long[contacts.size()] : null;
+    int contactNumber = 0;
+    writeVarInt(out, contacts.size());
+    for (Contact contact : contacts) {
+      if (indexed) {
+        contactIndex[contactNumber++] = indexEntry(contact.getId(), offset(out));
+      }
+      writeVarInt(out, contact.getId());
+      writeString(out, contact.getName());
+      writeNotes(out, ((ContactImpl) contact).getNoteSegments());
+    }
+
+    long[] meetingIndex = indexed ? new long[meetings.size()] : null;
+    int meetingNumber = 0;
+    int stateNumber = 0;
+    writeVarInt(out, meetings.size());
+    for (Meeting meeting : meetings) {
+      MeetingImpl meetingImpl = (MeetingImpl) meeting;
+      if (indexed) {
+        meetingIndex[meetingNumber++] = indexEntry(meetingImpl.getId(), offset(out));
+      }
+      writeVarInt(out, meetingImpl.getId());
+      out.writeByte(states[stateNumber++].ordinal());
+      out.writeLong(meetingImpl.getDateMillis());
+      writeVarInt(out, zoneIndexes.get(meetingImpl.getTimeZone().getID()));
+      int[] contactIds = meetingImpl.getContactIds();
+      writeVarInt(out, contactIds.length);
+      int previous = 0;
+      for (int contactId : contactIds) {
+        writeVarInt(out, contactId - previous);
+        previous = contactId;
+      }
+      writeNotes(out, meetingImpl.getNoteSegments());
+    }
+    if (!indexed) {
+      return;
+    }
+
+    int contactIndexOffset = offset(out);
+    writeIndex(out, contactIndex);
+    int meetingIndexOffset = offset(out);
+    writeIndex(out, meetingIndex);
+
+    MeetingImpl[] byDate = meetings.toArray(new MeetingImpl[meetings.size()]);
+    Arrays.sort(byDate, ContactManagerImpl.DATE_ORDER);
+    int dayIndexOffset = offset(out);
+    writeDayIndex(out, byDate, meetingIndex);
+    int contactMeetingsIndexOffset = writeContactMeetings(out, byDate, contactIndex, meetingIndex);
+    int nameIndexOffset = writeNameIndex(out, contacts);
+    out.writeInt(dayIndexOffset);
+    out.writeInt(contactMeetingsIndexOffset);
+    out.writeInt(nameIndexOffset);
+    out.writeInt(contactIndexOffset);
+    out.writeInt(meetingIndexOffset);
+    out.writeInt(MAGIC);
+  }
+
+  /***
+   * Read while the meetings are copied, holding off the changes, as rollOver()
+   * may change a meeting's state while the copy is written. A meeting moved after
+   * the copy is then saved in the list it was copied from, and in its new one by
+   * the next save.
+   *
+   * @param meetings each a MeetingImpl
+   * @return the state of each meeting, in order.
+   */
+  static MeetingState[] statesOf(Collection<? extends Meeting> meetings) {
+    MeetingState[] states = new MeetingState[meetings.size()];
+    int i = 0;
+    for (Meeting meeting : meetings) {
+      states[i++] = ((MeetingImpl) meeting).getState();
+    }
+    return states;
+  }
+
+  /***
+   * @return number of bytes written to out, as an offset into the file.
+   * @throws IOException once the file is too large for an int offset, where
+   *   DataOutputStream.size() stops counting
+   */
+  private static int offset(DataOutputStream out) throws IOException {
+    int size = out.size();
+    if (size == Integer.MAX_VALUE) {
+      throw new IOException("Store too large, offsets are limited to 2GB");
+    }
+    return size;
+  }
+
+  /***
+   * Packs id above offset, so sorting entries sorts by id.
+   */
+  private static long indexEntry(int id, int offset) {
+    return ((long) id << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  private static void writeIndex(DataOutputStream out, long[] entries) throws IOException {
+    Arrays.sort(entries);
+    for (long entry : entries) {
+      out.writeInt((int) (entry >>> 32));
+      out.writeInt((int) entry);
+    }
+  }
+
+  /***
+   * @param entries written by writeIndex(), so sorted by id
+   * @return offset of the record of id.
+   */
+  private static int offsetOf(long[] entries, int id) {
+    // No entry equals id above a zero offset, so the search stops at id's entry.
+    int found = -Arrays.binarySearch(entries, (long) id << 32) - 1;
+    return (int) entries[found];
+  }
+
+  /***
+   * @param byDate every meeting, in date order
+   * @param meetingIndex
+   */
+  private static void writeDayIndex(DataOutputStream out, MeetingImpl[] byDate, long[] meetingIndex)
+      throws IOException {
+    long[] days = new long[byDate.length];
+    for (int i = 0; i < byDate.length; i++) {
+      long day = ContactManagerImpl.epochDay(byDate[i].getDateMillis(), byDate[i].getTimeZone());
+      days[i] = (day << 32) | i;
+    }
+    Arrays.sort(days);
+    for (long day : days) {
+      out.writeInt((int) (day >> 32));
+      out.writeInt(offsetOf(meetingIndex, byDate[(int) day].getId()));
+    }
+  }
+
+  /***
+   * Writes each contact's meetings, then the index of them.
+   *
+   * @param byDate every meeting, in date order
+   * @param contactIndex
+   * @param meetingIndex
+   * @return offset of the contact meetings index.
+   */
+  private static int writeContactMeetings(DataOutputStream out, MeetingImpl[] byDate, long[] contactIndex,
+      long[] meetingIndex) throws IOException {
+    int[] contactIds = new int[contactIndex.length];
+    for (int i = 0; i < contactIds.length; i++) {
+      contactIds[i] = (int) (contactIndex[i] >>> 32);
+    }
+    int[] starts = new int[contactIds.length + 1];
+    for (MeetingImpl meeting : byDate) {
+      for (int contactId : meeting.getContactIds()) {
+        int position = Arrays.binarySearch(contactIds, contactId);
+        if (position >= 0) {
+          starts[position + 1]++;
+        }
+      }
+    }
+    for (int i = 0; i < contactIds.length; i++) {
+      starts[i + 1] += starts[i];
+    }
+    int[] offsets = new int[starts[contactIds.length]];
+    int[] filled = Arrays.copyOf(starts, contactIds.length);
+    for (MeetingImpl meeting : byDate) {
+      int offset = offsetOf(meetingIndex, meeting.getId());
+      for (int contactId : meeting.getContactIds()) {
+        int position = Arrays.binarySearch(contactIds, contactId);
+        if (position >= 0) {
+          offsets[filled[position]++] = offset;
+        }
+      }
+    }
+    int[] listOffsets = new int[contactIds.length];
+    for (int i = 0; i < contactIds.length; i++) {
+      listOffsets[i] = offset(out);
+      out.writeInt(starts[i + 1] - starts[i]);
+      for (int j = starts[i]; j < starts[i + 1]; j++) {
+        out.writeInt(offsets[j]);
+      }
+    }
+    int indexOffset = offset(out);
+    for (int listOffset : listOffsets) {
+      out.writeInt(listOffset);
+    }
+    return indexOffset;
+  }
+
+  /***
+   * Writes the postings of every trigram of the contacts' names, then the index of them.
+   *
+   * @return offset of the name index.
+   */
+  private static int writeNameIndex(DataOutputStream out, Collection<Contact> contacts) throws IOException {
+    int gramCount = 0;
+    for (Contact contact : contacts) {
+      gramCount += Math.max(0, contact.getName().length() - NameIndex.GRAM_LENGTH + 1);
+    }
+    long[] postings = new long[gramCount];
+    int i = 0;
+    for (Contact contact : contacts) {
+      String name = contact.getName();
+      for (int start = 0; start + NameIndex.GRAM_LENGTH <= name.length(); start++) {
+        postings[i++] = ((long) NameIndex.gram(name, start) << 32) | (contact.getId() & 0xFFFFFFFFL);
+      }
+    }
+    Arrays.sort(postings);
+    int[] grams = new int[postings.length];
+    int[] gramOffsets = new int[postings.length];
+    int[] gramSizes = new int[postings.length];
+    int distinct = -1;
+    for (int j = 0; j < postings.length; j++) {
+      if (j > 0 && postings[j] == postings[j - 1]) {
+        continue;
+      }
+      int gram = (int) (postings[j] >>> 32);
+      if (distinct < 0 || grams[distinct] != gram) {
+        distinct++;
+        grams[distinct] = gram;
+        gramOffsets[distinct] = offset(out);
+      }
+      gramSizes[distinct]++;
+      out.writeInt((int) postings[j]);
+    }
+    int indexOffset = offset(out);
+    for (int j = 0; j <= distinct; j++) {
+      out.writeInt(grams[j]);
+      out.writeInt(gramOffsets[j]);
+      out.writeInt(gramSizes[j]);
+    }
+    return indexOffset;
+  }
+
+  private static void writeNotes(DataOutputStream out, String[] notes) throws IOException {
+    writeVarInt(out, notes.length);
+    for (String note : notes) {
+      writeString(out, note);
+    }
+  }
+
+  /***
+   * @param in
+   * @param body in's source, to check the count against
+   * @return each note.
+   * @throws IOException
+   */
+  private static String[] readNotes(DataInputStream in, BodyInputStream body) throws IOException {
+    String[] notes = new String[readCount(in, body)];
+    for (int i = 0; i < notes.length; i++) {
+      notes[i] = readString(in, body);
+    }
+    return notes;
+  }
+
+  static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varlong");
+  }
+
+  static void writeString(DataOutputStream out, String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in, BodyInputStream body) throws IOException {
+    byte[] bytes = new byte[readCount(in, body)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /***
+   * Ends after the body's length, and counts the bytes left to read.
+   */
+  private static final class BodyInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    BodyInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    long remaining() {
+      return remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int b = super.read();
+      if (b >= 0) {
+        remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining == 0) {
+        return -1;
+      }
+      int read = super.read(b, off, (int) Math.min(len, remaining));
+      if (read > 0) {
+        remaining -= read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  /***
+   * Counts and checksums the bytes written to it after the first skip bytes.
+   */
+  static final class ChecksumOutputStream extends FilterOutputStream {
+
+    private final CRC32 checksum = new CRC32();
+    private long skip;
+    private long count;
+
+    ChecksumOutputStream(OutputStream out, int skip) {
+      super(out);
+      this.skip = skip;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      if (skip > 0) {
+        skip--;
+      } else {
+        checksum.update(b);
+        count++;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      int skipped = (int) Math.min(skip, len);
+      skip -= skipped;
+      checksum.update(b, off + skipped, len - skipped);
+      count += len - skipped;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    long getChecksum() {
+      return checksum.getValue();
+    }
+  }
+}
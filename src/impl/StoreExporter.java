@@ -0,0 +1,347 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Predicate;
+
+/***
+ * Writes the contacts, past meetings and future meetings of a ContactManagerImpl
+ * to an Appendable one record at a time. The records are read from the manager a
+ * page of PAGE_SIZE at a time, with its paged queries, so an export of any size
+ * holds no more than one page of records and takes time linear in its length.
+ *
+ * Formats:
+ *   TEXT, the report ContactManagerImpl.toString() gives,
+ *   CSV, one row per record after a header row, with columns type, id, name,
+ *     date, contacts and notes, quoted where needed as in RFC 4180,
+ *   JSON_LINES, one JSON object per line.
+ * Records are typed "contact", "past" or "future". Dates are ISO 8601 with the
+ * offset of the meeting's time zone, and a meeting's contacts are their ids.
+ * Contacts are written in id order and meetings in date order.
+ *
+ * Filters choose which contacts and meetings are written. setPage() then starts
+ * the export after the record a token names and stops after limit records that
+ * pass the filters, and getNextToken() gives the token to carry on from. A token
+ * names its record's section and key, so starting from one costs O(log n) however
+ * far into the export it is. Section headings, in TEXT, and the CSV header row are
+ * always written.
+ *
+ * An exporter is not thread safe. Each page of records is read holding the
+ * manager's lock, after rolling due future meetings over if it rolls over, and
+ * written without it, so changes and background saves can go on during a long
+ * export. Each page is as the manager was when it was read, so records added
+ * behind the page being written aren't written, and a future meeting moved to the
+ * past meetings once they have been written isn't written. A record's notes are
+ * as they are when it is written.
+ *
+ * @author montywest
+ *
+ */
+public class StoreExporter {
+
+  public enum Format { TEXT, CSV, JSON_LINES }
+
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+  private static final int PAGE_SIZE = 256;
+  private static final String CONTACT = "contact";
+  private static final String PAST = "past";
+  private static final String FUTURE = "future";
+
+  private final Format format;
+  private Predicate<? super Contact> contactFilter;
+  private Predicate<? super Meeting> meetingFilter;
+  private String startSection;
+  private String startToken;
+  private int limit = Integer.MAX_VALUE;
+  private String nextToken;
+
+  /***
+   * Exports every record, in the given format.
+   *
+   * @param format
+   */
+  public StoreExporter(Format format) {
+    if (format == null) {
+      throw new NullPointerException();
+    }
+    this.format = format;
+  }
+
+  /***
+   * @param contactFilter contacts it accepts are written, or null for all contacts
+   */
+  public void setContactFilter(Predicate<? super Contact> contactFilter) {
+    this.contactFilter = contactFilter;
+  }
+
+  /***
+   * @param meetingFilter meetings it accepts are written, or null for all meetings
+   */
+  public void setMeetingFilter(Predicate<? super Meeting> meetingFilter) {
+    this.meetingFilter = meetingFilter;
+  }
+
+  /***
+   * @param token getNextToken() after an earlier export, to start after the last
+   *   record it wrote, or null to start at the first record
+   * @param limit maximum number of records to write
+   * @throws IllegalArgumentException if limit is not positive or token is not one
+   *   an exporter gave
+   */
+  public void setPage(String token, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException();
+    }
+    String section = null;
+    String sectionToken = null;
+    if (token != null) {
+      int colon = token.indexOf(':');
+      section = colon < 0 ? "" : token.substring(0, colon);
+      if (!section.equals(CONTACT) && !section.equals(PAST) && !section.equals(FUTURE)) {
+        throw new IllegalArgumentException("Bad page token: " + token);
+      }
+      sectionToken = token.substring(colon + 1);
+    }
+    this.startSection = section;
+    this.startToken = sectionToken;
+    this.limit = limit;
+  }
+
+  /***
+   * @return token for setPage() to carry on after the last record written by
+   *   export(), or null if it reached the last record before its limit.
+   */
+  public String getNextToken() {
+    return nextToken;
+  }
+
+  /***
+   * Writes manager's records to out, a page at a time, each read holding manager's
+   * lock and written without it.
+   *
+   * @param manager
+   * @param out
+   * @return number of records written.
+   * @throws IOException if out throws one
+   * @throws IllegalArgumentException if the page's token names a record of
+   *   another manager
+   */
+  public int export(ContactManagerImpl manager, Appendable out) throws IOException {
+    Page page = new Page();
+    if (format == Format.TEXT) {
+      out.append("\nFilename: ").append(manager.getFilename()).append("\n\n### Contacts ###\n");
+    } else if (format == Format.CSV) {
+      out.append("type,id,name,date,contacts,notes\n");
+    }
+    if (startSection == null || startSection.equals(CONTACT)) {
+      writeContacts(manager, startSection == null ? null : startToken, page, out);
+    }
+    if (format == Format.TEXT) {
+      out.append("\n### Past Meetings ###\n");
+    }
+    if (!FUTURE.equals(startSection)) {
+      writeMeetings(manager, PAST, PAST.equals(startSection) ? startToken : null, page, out);
+    }
+    if (format == Format.TEXT) {
+      out.append("\n### Future Meetings ###\n");
+    }
+    writeMeetings(manager, FUTURE, FUTURE.equals(startSection) ? startToken : null, page, out);
+    nextToken = page.isFull() ? page.lastToken : null;
+    return page.written;
+  }
+
+  private void writeContacts(ContactManagerImpl manager, String token, Page page, Appendable out)
+      throws IOException {
+    do {
+      if (page.isFull()) {
+        return;
+      }
+      ResultPage<Contact> contacts = manager.getContactPage("", token, PAGE_SIZE);
+      for (Contact contact : contacts.getItems()) {
+        if (page.isFull()) {
+          return;
+        }
+        if (contactFilter == null || contactFilter.test(contact)) {
+          writeContact(contact, out);
+          page.wrote(CONTACT + ":" + contact.getId());
+        }
+      }
+      token = contacts.getNextToken();
+    } while (token != null);
+  }
+
+  private void writeMeetings(ContactManagerImpl manager, String type, String token, Page page, Appendable out)
+      throws IOException {
+    do {
+      if (page.isFull()) {
+        return;
+      }
+      ResultPage<? extends Meeting> meetings = type.equals(PAST)
+          ? manager.getPastMeetingPage(token, PAGE_SIZE) : manager.getFutureMeetingPage(token, PAGE_SIZE);
+      for (Meeting meeting : meetings.getItems()) {
+        if (page.isFull()) {
+          return;
+        }
+        if (meetingFilter == null || meetingFilter.test(meeting)) {
+          writeMeeting(meeting, type, out);
+          page.wrote(type + ":" + ContactManagerImpl.meetingToken(meeting));
+        }
+      }
+      token = meetings.getNextToken();
+    } while (token != null);
+  }
+
+  private void writeContact(Contact contact, Appendable out) throws IOException {
+    switch (format) {
+    case TEXT:
+      out.append(contact.toString()).append('\n');
+      break;
+    case CSV:
+      out.append("contact,").append(Integer.toString(contact.getId())).append(',');
+      appendCsv(contact.getName(), out);
+      out.append(",,,");
+      appendCsv(contact.getNotes(), out);
+      out.append('\n');
+      break;
+    case JSON_LINES:
+      out.append("{\"type\":\"contact\",\"id\":").append(Integer.toString(contact.getId()));
+      out.append(",\"name\":");
+      appendJson(contact.getName(), out);
+      out.append(",\"notes\":");
+      appendJson(contact.getNotes(), out);
+      out.append("}\n");
+      break;
+    }
+  }
+
+  private void writeMeeting(Meeting meeting, String type, Appendable out) throws IOException {
+    if (format == Format.TEXT) {
+      out.append(meeting.toString()).append('\n');
+      return;
+    }
+    String notes = meeting instanceof PastMeeting ? ((PastMeeting) meeting).getNotes() : "";
+    if (format == Format.CSV) {
+      out.append(type).append(',').append(Integer.toString(meeting.getId())).append(",,");
+      out.append(formatDate(meeting)).append(',');
+      int[] contactIds = contactIds(meeting);
+      for (int i = 0; i < contactIds.length; i++) {
+        if (i > 0) {
+          out.append(' ');
+        }
+        out.append(Integer.toString(contactIds[i]));
+      }
+      out.append(',');
+      appendCsv(notes, out);
+      out.append('\n');
+    } else {
+      out.append("{\"type\":\"").append(type).append("\",\"id\":").append(Integer.toString(meeting.getId()));
+      out.append(",\"date\":\"").append(formatDate(meeting)).append("\",\"contacts\":[");
+      int[] contactIds = contactIds(meeting);
+      for (int i = 0; i < contactIds.length; i++) {
+        if (i > 0) {
+          out.append(',');
+        }
+        out.append(Integer.toString(contactIds[i]));
+      }
+      out.append("],\"notes\":");
+      appendJson(notes, out);
+      out.append("}\n");
+    }
+  }
+
+  private static String formatDate(Meeting meeting) {
+    if (meeting instanceof MeetingImpl) {
+      MeetingImpl meetingImpl = (MeetingImpl) meeting;
+      return DATE_FORMAT.format(Instant.ofEpochMilli(meetingImpl.getDateMillis())
+          .atZone(meetingImpl.getTimeZone().toZoneId()));
+    }
+    return DATE_FORMAT.format(meeting.getDate().toInstant().atZone(meeting.getDate().getTimeZone().toZoneId()));
+  }
+
+  private static int[] contactIds(Meeting meeting) {
+    if (meeting instanceof MeetingImpl) {
+      return ((MeetingImpl) meeting).getContactIds();
+    }
+    return MeetingImpl.sortedIds(meeting.getContacts());
+  }
+
+  /***
+   * Quotes str, doubling its quotes, if it has a comma, quote or line break.
+   */
+  private static void appendCsv(String str, Appendable out) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < str.length() && !quote; i++) {
+      char c = str.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      out.append(str);
+      return;
+    }
+    out.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '"') {
+        out.append('"');
+      }
+      out.append(c);
+    }
+    out.append('"');
+  }
+
+  /***
+   * Appends str as a JSON string, escaping quotes, backslashes and control characters.
+   */
+  private static void appendJson(String str, Appendable out) throws IOException {
+    out.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      switch (c) {
+      case '"':
+        out.append("\\\"");
+        break;
+      case '\\':
+        out.append("\\\\");
+        break;
+      case '\n':
+        out.append("\\n");
+        break;
+      case '\r':
+        out.append("\\r");
+        break;
+      case '\t':
+        out.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          out.append(String.format("\\u%04x", (int) c));
+        } else {
+          out.append(c);
+        }
+      }
+    }
+    out.append('"');
+  }
+
+  /***
+   * Counts records against the limit, and names the last one written.
+   */
+  private final class Page {
+    private int written;
+    private String lastToken;
+
+    boolean isFull() {
+      return written >= limit;
+    }
+
+    void wrote(String token) {
+      written++;
+      lastToken = token;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package impl;
+
+import interfaces.Contact;
+import interfaces.Meeting;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/***
+ * Saves a store so that a crash at any point leaves either the old file or
+ * the new one, never a mix or a truncated file.
+ *
+ * The store is encoded by StoreCodec to filename + ".tmp", with the header's
+ * length and checksum filled in once the body is written, and forced to disk.
+ * It then replaces filename with an atomic rename, and the directory is forced
+ * so the rename itself survives a crash. A ".tmp" file left by a crash is
+ * overwritten by the next save and never read.
+ *
+ * Saves of the same file must not run at once, callers serialize them through
+ * a GroupCommit.
+ *
+ * @author montywest
+ *
+ */
+final class StoreFile {
+
+  private StoreFile() {
+  }
+
+  /***
+   * @param filename
+   * @param journalSequence
+   * @param contacts each a ContactImpl
+   * @param meetings each a MeetingImpl
+   * @param states of meetings, in the same order
+   * @param indexed if the indexes MappedContactManager reads are written
+   * @throws IOException if the file couldn't be written, in which case filename is unchanged.
+   */
+  static void write(String filename, long journalSequence, Collection<Contact> contacts,
+      Collection<? extends Meeting> meetings, MeetingState[] states, boolean indexed) throws IOException {
+    File target = new File(filename);
+    File temp = new File(filename + ".tmp");
+    FileOutputStream file = new FileOutputStream(temp);
+    boolean written = false;
+    try {
+      StoreCodec.ChecksumOutputStream checksum = new StoreCodec.ChecksumOutputStream(
+          new BufferedOutputStream(file), StoreCodec.HEADER_LENGTH);
+      DataOutputStream out = new DataOutputStream(checksum);
+      StoreCodec.write(out, journalSequence, contacts, meetings, states, indexed);
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(StoreCodec.HEADER_LENGTH - StoreCodec.HEADER_OFFSET);
+      header.putLong(checksum.getCount());
+      header.putInt((int) checksum.getChecksum());
+      header.flip();
+      FileChannel channel = file.getChannel();
+      while (header.hasRemaining()) {
+        channel.write(header, StoreCodec.HEADER_OFFSET + header.position());
+      }
+      channel.force(true);
+      written = true;
+    } finally {
+      file.close();
+      if (!written) {
+        temp.delete();
+      }
+    }
+    try {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    forceDirectory(target.getAbsoluteFile().getParentFile());
+  }
+
+  /***
+   * Not every platform can open a directory to force it, where it can't the
+   * rename is as durable as the file system makes it.
+   */
+  private static void forceDirectory(File directory) {
+    try {
+      FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+      try {
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      // Not supported here.
+    }
+  }
+}
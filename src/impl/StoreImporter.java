@@ -0,0 +1,713 @@
+package impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/***
+ * Adds the records of a CSV or JSON_LINES file, as StoreExporter writes them, to a
+ * ContactManagerImpl, for loading millions of records far faster than calling
+ * addNewContact() and addNewPastMeeting() for each.
+ *
+ * The input is read in chunks of about chunkSize bytes, each cut at the end of a
+ * record (a line break outside quotes, for CSV), and every chunk is parsed on a pool
+ * of threads while the next is read. Once all are parsed, the meetings' contact ids
+ * are checked against the file's contacts in one pass over a sorted id index, then
+ * every record is added with the manager's batch methods under one hold of its lock,
+ * so no other change is interleaved. The batch methods check each batch before
+ * adding any of it, and the name index only appends the new contacts' postings,
+ * sorting them when next searched.
+ *
+ * Queries and changes on the manager from other threads wait for the whole import,
+ * for a file of millions of records some seconds, as adding it in parts would let
+ * them see some of the file's meetings without the rest. Without auto flush the
+ * manager is saved once, before the lock is released, unless another save is
+ * running, in which case it is flushed once the lock is released. With auto flush
+ * the background save waits for the lock, so saves the whole import at once, and
+ * importFrom() waits for it.
+ *
+ * Ids in the file only tie meetings to the file's contacts: every contact and
+ * meeting gets a new id. Meeting dates keep their offset as their time zone, and
+ * future meetings keep being future meetings even if their dates have passed, as
+ * in the store they were exported from. Nothing is added if any record is malformed
+ * or names a contact the file doesn't have.
+ *
+ * An importer is not thread safe.
+ *
+ * @author montywest
+ *
+ */
+public class StoreImporter {
+
+  private final StoreExporter.Format format;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int chunkSize = 4 << 20;
+
+  /***
+   * @param format CSV or JSON_LINES
+   * @throws IllegalArgumentException if format is TEXT, which can't be read back
+   */
+  public StoreImporter(StoreExporter.Format format) {
+    if (format == null) {
+      throw new NullPointerException();
+    }
+    if (format == StoreExporter.Format.TEXT) {
+      throw new IllegalArgumentException();
+    }
+    this.format = format;
+  }
+
+  /***
+   * @param threads number of threads parsing chunks, by default one per processor
+   * @throws IllegalArgumentException if not positive
+   */
+  public void setThreads(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.threads = threads;
+  }
+
+  /***
+   * @param chunkSize bytes read before a chunk is handed to a parsing thread, 4MB
+   *          by default. A record longer than this makes its chunk longer.
+   * @throws IllegalArgumentException if not positive
+   */
+  public void setChunkSize(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException();
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  /***
+   * Adds file's records to manager, then flushes it.
+   *
+   * @param manager
+   * @param file UTF-8
+   * @return number of records added.
+   * @throws IOException if file can't be read or a record is malformed, with its
+   *           line number, in which case manager is unchanged.
+   * @throws IllegalArgumentException if a meeting names a contact not in file, a past
+   *           meeting has no contacts or two contacts share an id, in which case manager
+   *           is unchanged.
+   */
+  public int importFrom(ContactManagerImpl manager, File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return importFrom(manager, in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /***
+   * As importFrom(manager, file), reading in to its end. Doesn't close in.
+   *
+   * @param manager
+   * @param in UTF-8
+   * @return number of records added.
+   * @throws IOException
+   */
+  public int importFrom(ContactManagerImpl manager, InputStream in) throws IOException {
+    List<Chunk> chunks = parse(in);
+    int contactCount = 0;
+    int pastCount = 0;
+    int futureCount = 0;
+    for (Chunk chunk : chunks) {
+      for (Record record : chunk.records) {
+        if (record.type == Record.CONTACT) {
+          contactCount++;
+        } else if (record.type == Record.PAST) {
+          pastCount++;
+        } else {
+          futureCount++;
+        }
+      }
+    }
+
+    List<String> names = new ArrayList<String>(contactCount);
+    List<String> contactNotes = new ArrayList<String>(contactCount);
+    int[] fileIds = new int[contactCount];
+    Meetings past = new Meetings(pastCount);
+    Meetings future = new Meetings(futureCount);
+    for (Chunk chunk : chunks) {
+      for (Record record : chunk.records) {
+        if (record.type == Record.CONTACT) {
+          fileIds[names.size()] = record.id;
+          names.add(record.name);
+          contactNotes.add(record.notes);
+        } else {
+          (record.type == Record.PAST ? past : future).add(record);
+        }
+      }
+    }
+
+    ContactIndex index = new ContactIndex(fileIds);
+    boolean saved;
+    // Every record is checked before the manager is changed, so a bad one can't leave
+    // the contacts added without the meetings.
+    past.toPositions(index, true);
+    future.toPositions(index, false);
+    synchronized (manager) {
+      int[] contactIds = manager.addNewContacts(names, contactNotes);
+      past.toIds(contactIds);
+      future.toIds(contactIds);
+      manager.addNewPastMeetings(past.contacts, past.dateMillis, past.timeZones, past.notes);
+      manager.addFutureMeetings(future.contacts, future.dateMillis, future.timeZones);
+      saved = manager.flushIfIdle();
+    }
+    if (!saved) {
+      manager.flush();
+    }
+    return contactCount + pastCount + futureCount;
+  }
+
+  /***
+   * Reads in, cutting it into chunks at record ends, and parses each chunk on the
+   * pool while reading on.
+   *
+   * @return the parsed chunks, in order.
+   */
+  private List<Chunk> parse(InputStream in) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "store-importer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      List<Future<Chunk>> parsed = new ArrayList<Future<Chunk>>();
+      boolean csv = format == StoreExporter.Format.CSV;
+      byte[] buffer = new byte[chunkSize];
+      int length = 0;
+      int scanned = 0;
+      boolean quoted = false;
+      int cut = 0;
+      // Line breaks before the cut, and after it in what has been scanned.
+      int firstLine = 1;
+      int linesToCut = 0;
+      int linesAfterCut = 0;
+      int read;
+      while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+        length += read;
+        for (; scanned < length; scanned++) {
+          byte b = buffer[scanned];
+          if (b == '"' && csv) {
+            quoted = !quoted;
+          } else if (b == '\n') {
+            linesAfterCut++;
+            if (!quoted) {
+              cut = scanned + 1;
+              linesToCut += linesAfterCut;
+              linesAfterCut = 0;
+            }
+          }
+        }
+        if (length < buffer.length) {
+          continue;
+        }
+        if (cut == 0) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          continue;
+        }
+        parsed.add(pool.submit(new Chunk(Arrays.copyOf(buffer, cut), firstLine, csv)));
+        firstLine += linesToCut;
+        linesToCut = 0;
+        System.arraycopy(buffer, cut, buffer, 0, length - cut);
+        length -= cut;
+        scanned -= cut;
+        cut = 0;
+      }
+      if (length > 0) {
+        parsed.add(pool.submit(new Chunk(Arrays.copyOf(buffer, length), firstLine, csv)));
+      }
+
+      List<Chunk> chunks = new ArrayList<Chunk>(parsed.size());
+      for (Future<Chunk> chunk : parsed) {
+        try {
+          chunks.add(chunk.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted");
+        }
+      }
+      return chunks;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /***
+   * One parsed record. Contacts have an id, name and notes, meetings a date,
+   * contacts and, if past, notes.
+   */
+  private static final class Record {
+    static final int CONTACT = 0;
+    static final int PAST = 1;
+    static final int FUTURE = 2;
+
+    int type = -1;
+    int line;
+    int id;
+    String name;
+    String notes;
+    long dateMillis;
+    TimeZone timeZone;
+    int[] contacts;
+  }
+
+  /***
+   * Meetings of one type, as the columns the manager's batch methods take.
+   */
+  private static final class Meetings {
+    final List<int[]> contacts;
+    final long[] dateMillis;
+    final TimeZone[] timeZones;
+    final List<String> notes;
+    final int[] lines;
+    int size;
+
+    Meetings(int capacity) {
+      contacts = new ArrayList<int[]>(capacity);
+      dateMillis = new long[capacity];
+      timeZones = new TimeZone[capacity];
+      notes = new ArrayList<String>(capacity);
+      lines = new int[capacity];
+    }
+
+    void add(Record record) {
+      contacts.add(record.contacts);
+      dateMillis[size] = record.dateMillis;
+      timeZones[size] = record.timeZone;
+      notes.add(record.notes);
+      lines[size++] = record.line;
+    }
+
+    /***
+     * Replaces each file contact id with the contact's position in the file.
+     * Makes every check the manager would, so nothing is rejected once it is changing.
+     *
+     * @param needContacts if every meeting must have a contact, as past meetings must
+     */
+    void toPositions(ContactIndex index, boolean needContacts) {
+      for (int i = 0; i < size; i++) {
+        int[] ids = contacts.get(i);
+        if (needContacts && ids.length == 0) {
+          throw new IllegalArgumentException("line " + lines[i] + ": past meeting with no contacts");
+        }
+        for (int j = 0; j < ids.length; j++) {
+          int position = index.positionOf(ids[j]);
+          if (position < 0) {
+            throw new IllegalArgumentException("line " + lines[i] + ": no contact with id " + ids[j]);
+          }
+          ids[j] = position;
+        }
+      }
+    }
+
+    /***
+     * Replaces each position with the id the contact there was given.
+     */
+    void toIds(int[] contactIds) {
+      for (int[] ids : contacts) {
+        for (int j = 0; j < ids.length; j++) {
+          ids[j] = contactIds[ids[j]];
+        }
+      }
+    }
+  }
+
+  /***
+   * The file's contact ids sorted, with each one's position in the file, so a
+   * reference is checked with a binary search and no boxing.
+   */
+  private static final class ContactIndex {
+    private final int[] ids;
+    private final int[] positions;
+
+    ContactIndex(int[] fileIds) {
+      long[] keys = new long[fileIds.length];
+      for (int i = 0; i < fileIds.length; i++) {
+        keys[i] = ((long) fileIds[i] << 32) | i;
+      }
+      Arrays.sort(keys);
+      ids = new int[keys.length];
+      positions = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        ids[i] = (int) (keys[i] >> 32);
+        positions[i] = (int) keys[i];
+        if (i > 0 && ids[i] == ids[i - 1]) {
+          throw new IllegalArgumentException("two contacts with id " + ids[i]);
+        }
+      }
+    }
+
+    /***
+     * @return position in the file of the contact with id, or -1 if there is none.
+     */
+    int positionOf(int id) {
+      int found = Arrays.binarySearch(ids, id);
+      return found < 0 ? -1 : positions[found];
+    }
+  }
+
+  /***
+   * A run of whole records, parsed when called.
+   */
+  private static final class Chunk implements Callable<Chunk> {
+    private final byte[] bytes;
+    private final boolean csv;
+    private final Map<ZoneOffset, TimeZone> timeZones = new HashMap<ZoneOffset, TimeZone>();
+    private String text;
+    private int pos;
+    private int line;
+    private int recordLine;
+    final List<Record> records = new ArrayList<Record>();
+
+    Chunk(byte[] bytes, int firstLine, boolean csv) {
+      this.bytes = bytes;
+      this.line = firstLine;
+      this.csv = csv;
+    }
+
+    public Chunk call() throws IOException {
+      text = new String(bytes, StandardCharsets.UTF_8);
+      while (pos < text.length()) {
+        recordLine = line;
+        Record record = csv ? parseCsv() : parseJson();
+        if (record != null) {
+          record.line = recordLine;
+          records.add(record);
+        }
+      }
+      text = null;
+      return this;
+    }
+
+    /***
+     * Parses a row of columns type, id, name, date, contacts and notes, skipping
+     * blank lines and the header row.
+     */
+    private Record parseCsv() throws IOException {
+      List<String> fields = new ArrayList<String>(6);
+      boolean more = true;
+      while (more) {
+        StringBuilder field = new StringBuilder();
+        if (pos < text.length() && text.charAt(pos) == '"') {
+          pos++;
+          while (true) {
+            if (pos == text.length()) {
+              throw error("unterminated quotes");
+            }
+            char c = text.charAt(pos++);
+            if (c == '"') {
+              if (pos < text.length() && text.charAt(pos) == '"') {
+                pos++;
+              } else {
+                break;
+              }
+            } else if (c == '\n') {
+              line++;
+            }
+            field.append(c);
+          }
+        }
+        while (pos < text.length() && text.charAt(pos) != ',' && text.charAt(pos) != '\n') {
+          field.append(text.charAt(pos++));
+        }
+        if (pos < text.length() && text.charAt(pos) == ',') {
+          pos++;
+        } else {
+          more = false;
+          if (pos < text.length()) {
+            pos++;
+            line++;
+          }
+          int last = field.length() - 1;
+          if (last >= 0 && field.charAt(last) == '\r') {
+            field.setLength(last);
+          }
+        }
+        fields.add(field.toString());
+      }
+      if (fields.size() == 1 && fields.get(0).isEmpty()) {
+        return null;
+      }
+      if (fields.size() != 6) {
+        throw error("expected 6 columns, found " + fields.size());
+      }
+      String type = fields.get(0);
+      if (type.equals("type")) {
+        return null;
+      }
+      Record record = new Record();
+      record.type = type(type);
+      record.id = parseInt(fields.get(1));
+      record.notes = fields.get(5);
+      if (record.type == Record.CONTACT) {
+        record.name = fields.get(2);
+        return record;
+      }
+      setDate(record, fields.get(3));
+      String[] contacts = fields.get(4).isEmpty() ? new String[0] : fields.get(4).split(" ");
+      record.contacts = new int[contacts.length];
+      for (int i = 0; i < contacts.length; i++) {
+        record.contacts[i] = parseInt(contacts[i]);
+      }
+      return record;
+    }
+
+    /***
+     * Parses one line holding a flat JSON object, whose values are strings,
+     * numbers or arrays of numbers, skipping blank lines.
+     */
+    private Record parseJson() throws IOException {
+      skipSpaces();
+      if (pos < text.length() && text.charAt(pos) == '\n') {
+        pos++;
+        line++;
+        return null;
+      }
+      Record record = new Record();
+      boolean typed = false;
+      expect('{');
+      skipSpaces();
+      boolean more = peek() != '}';
+      while (more) {
+        String key = parseJsonString();
+        expect(':');
+        skipSpaces();
+        if (key.equals("type")) {
+          record.type = type(parseJsonString());
+          typed = true;
+        } else if (key.equals("id")) {
+          record.id = parseInt(parseJsonNumber());
+        } else if (key.equals("name")) {
+          record.name = parseJsonString();
+        } else if (key.equals("notes")) {
+          record.notes = parseJsonString();
+        } else if (key.equals("date")) {
+          setDate(record, parseJsonString());
+        } else if (key.equals("contacts")) {
+          record.contacts = parseJsonNumbers();
+        } else {
+          throw error("unknown field " + key);
+        }
+        skipSpaces();
+        more = peek() == ',';
+        if (more) {
+          pos++;
+          skipSpaces();
+        }
+      }
+      expect('}');
+      skipSpaces();
+      if (pos < text.length()) {
+        expect('\n');
+        line++;
+      }
+      if (!typed) {
+        throw error("no type");
+      }
+      if (record.notes == null) {
+        record.notes = "";
+      }
+      if (record.type == Record.CONTACT ? record.name == null
+          : record.timeZone == null || record.contacts == null) {
+        throw error("missing field");
+      }
+      return record;
+    }
+
+    private String parseJsonString() throws IOException {
+      expect('"');
+      StringBuilder str = new StringBuilder();
+      while (true) {
+        char c = next();
+        if (c == '"') {
+          return str.toString();
+        }
+        if (c != '\\') {
+          str.append(c);
+          continue;
+        }
+        c = next();
+        switch (c) {
+        case 'n':
+          str.append('\n');
+          break;
+        case 'r':
+          str.append('\r');
+          break;
+        case 't':
+          str.append('\t');
+          break;
+        case 'b':
+          str.append('\b');
+          break;
+        case 'f':
+          str.append('\f');
+          break;
+        case 'u':
+          if (pos + 4 > text.length()) {
+            throw error("bad escape");
+          }
+          try {
+            str.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("bad escape");
+          }
+          pos += 4;
+          break;
+        default:
+          str.append(c);
+        }
+      }
+    }
+
+    private String parseJsonNumber() throws IOException {
+      int start = pos;
+      while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '-')) {
+        pos++;
+      }
+      return text.substring(start, pos);
+    }
+
+    private int[] parseJsonNumbers() throws IOException {
+      expect('[');
+      int[] numbers = new int[4];
+      int count = 0;
+      skipSpaces();
+      boolean more = peek() != ']';
+      while (more) {
+        if (count == numbers.length) {
+          numbers = Arrays.copyOf(numbers, count * 2);
+        }
+        numbers[count++] = parseInt(parseJsonNumber());
+        skipSpaces();
+        more = peek() == ',';
+        if (more) {
+          pos++;
+          skipSpaces();
+        }
+      }
+      expect(']');
+      return Arrays.copyOf(numbers, count);
+    }
+
+    private void setDate(Record record, String date) throws IOException {
+      try {
+        OffsetDateTime dateTime = OffsetDateTime.parse(date);
+        record.dateMillis = dateTime.toInstant().toEpochMilli();
+        TimeZone timeZone = timeZones.get(dateTime.getOffset());
+        if (timeZone == null) {
+          timeZone = TimeZone.getTimeZone(dateTime.getOffset());
+          timeZones.put(dateTime.getOffset(), timeZone);
+        }
+        record.timeZone = timeZone;
+      } catch (DateTimeParseException e) {
+        throw error("bad date " + date);
+      }
+    }
+
+    private int type(String type) throws IOException {
+      if (type.equals("contact")) {
+        return Record.CONTACT;
+      } else if (type.equals("past")) {
+        return Record.PAST;
+      } else if (type.equals("future")) {
+        return Record.FUTURE;
+      }
+      throw error("unknown type " + type);
+    }
+
+    private int parseInt(String number) throws IOException {
+      try {
+        return Integer.parseInt(number);
+      } catch (NumberFormatException e) {
+        throw error("bad number " + number);
+      }
+    }
+
+    private void skipSpaces() {
+      while (pos < text.length() && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t'
+          || text.charAt(pos) == '\r')) {
+        pos++;
+      }
+    }
+
+    private char peek() throws IOException {
+      if (pos == text.length()) {
+        throw error("unexpected end");
+      }
+      return text.charAt(pos);
+    }
+
+    private char next() throws IOException {
+      char c = peek();
+      if (c == '\n') {
+        throw error("unexpected end of line");
+      }
+      pos++;
+      return c;
+    }
+
+    private void expect(char expected) throws IOException {
+      if (peek() != expected) {
+        throw error("expected " + expected);
+      }
+      pos++;
+    }
+
+    private IOException error(String message) {
+      return new IOException("line " + recordLine + ": " + message);
+    }
+  }
+
+  /***
+   * Imports a CSV (by its .csv extension) or JSON lines file into a store,
+   * creating the store if it doesn't exist.
+   *
+   * @param args store file, file to import and, optionally, number of threads
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("Usage: StoreImporter <store file> <records.csv|records.jsonl> [threads]");
+      return;
+    }
+    StoreImporter importer = new StoreImporter(args[1].endsWith(".csv")
+        ? StoreExporter.Format.CSV : StoreExporter.Format.JSON_LINES);
+    if (args.length > 2) {
+      importer.setThreads(Integer.parseInt(args[2]));
+    }
+    ContactManagerImpl manager = new ContactManagerImpl(args[0]);
+    long start = System.nanoTime();
+    int records = importer.importFrom(manager, new File(args[1]));
+    long millis = (System.nanoTime() - start) / 1000000;
+    System.out.println("Imported " + records + " records in " + millis + "ms");
+  }
+}
@@ -0,0 +1,183 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import impl.ConcurrentContactManager;
+import interfaces.Contact;
+import interfaces.ContactManager;
+import interfaces.Meeting;
+
+import java.io.File;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentContactManagerTest {
+
+  private static final String FILENAME = "concurrent_test.txt";
+  private static final int THREADS = 8;
+
+  ContactManager contactManager;
+  Calendar pastDate;
+  Calendar futureDate;
+
+  @Before
+  public void setUp() {
+    contactManager = new ConcurrentContactManager(FILENAME);
+    pastDate = Calendar.getInstance();
+    pastDate.add(Calendar.YEAR, -1);
+    futureDate = Calendar.getInstance();
+    futureDate.add(Calendar.YEAR, 1);
+  }
+
+  @After
+  public void cleanUp() {
+    new File(FILENAME).delete();
+  }
+
+  @Test
+  public void testAddAndGetMeetings() {
+    contactManager.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    Contact mike = mikeSet.iterator().next();
+
+    int futureMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    contactManager.addNewPastMeeting(mikeSet, pastDate, "past notes");
+
+    assertEquals(futureMeetingId, contactManager.getFutureMeeting(futureMeetingId).getId());
+    assertEquals(futureMeetingId, contactManager.getFutureMeetingList(mike).get(0).getId());
+    assertEquals("past notes", contactManager.getPastMeetingList(mike).get(0).getNotes());
+    assertEquals(1, contactManager.getFutureMeetingList(pastDate).size());
+  }
+
+  @Test
+  public void testAddFutureMeetingContactNotFoundThrowsException() {
+    ContactManager otherManager = new ConcurrentContactManager("other_" + FILENAME);
+    otherManager.addNewContact("sue", "notes");
+    try {
+      contactManager.addFutureMeeting(otherManager.getContacts("sue"), futureDate);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    } finally {
+      new File("other_" + FILENAME).delete();
+    }
+  }
+
+  @Test
+  public void testConcurrentAddNewContact() throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    for (int t = 0; t < THREADS; t++) {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 1000; i++) {
+            contactManager.addNewContact("name" + i, "notes");
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    assertEquals(THREADS * 1000, contactManager.getContacts("name").size());
+    // name99 and name990 to name999 from each thread, through the name index.
+    assertEquals(THREADS * 11, contactManager.getContacts("me99").size());
+  }
+
+  @Test
+  public void testConcurrentAddMeetingNotesConvertsOnce() throws InterruptedException {
+    Instant now = Instant.parse("2030-01-01T00:00:00Z");
+    ConcurrentContactManager before = new ConcurrentContactManager(FILENAME, Clock.fixed(now, ZoneId.of("UTC")));
+    before.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = before.getContacts("mike");
+    Contact mike = mikeSet.iterator().next();
+    final int meetingId = before.addFutureMeeting(mikeSet, now.plusSeconds(1));
+    before.flush();
+    // Reloaded two seconds later, when the meeting has fallen due.
+    contactManager = new ConcurrentContactManager(FILENAME, Clock.fixed(now.plusSeconds(2), ZoneId.of("UTC")));
+
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    for (int t = 0; t < THREADS; t++) {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          contactManager.addMeetingNotes(meetingId, "notes");
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    List<Meeting> futureMeetings = contactManager.getFutureMeetingList(mike);
+    assertEquals(0, futureMeetings.size());
+    assertEquals(1, contactManager.getPastMeetingList(mike).size());
+    assertEquals(THREADS, contactManager.getPastMeeting(meetingId).getNotes().split("; ").length);
+  }
+
+  @Test
+  public void testFlushThenLoad() {
+    contactManager.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    int futureMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    contactManager.flush();
+
+    ContactManager reloadedManager = new ConcurrentContactManager(FILENAME);
+
+    assertEquals(1, reloadedManager.getContacts("mike").size());
+    assertEquals(futureDate, reloadedManager.getFutureMeeting(futureMeetingId).getDate());
+  }
+
+  @Test
+  public void testConcurrentFlushesSaveEveryCallersChanges() throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 10; i++) {
+            contactManager.addNewContact("name" + thread + "-" + i, "notes");
+            contactManager.flush();
+          }
+        }
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    ContactManager reloadedManager = new ConcurrentContactManager(FILENAME);
+    assertEquals(THREADS * 10, reloadedManager.getContacts("name").size());
+    assertTrue(!new File(FILENAME + ".tmp").exists());
+  }
+}
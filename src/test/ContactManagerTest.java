@@ -4,32 +4,43 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import impl.ContactImpl;
 import impl.ContactManagerImpl;
+import impl.ResultPage;
+import impl.StoreExporter;
 import interfaces.Contact;
 import interfaces.ContactManager;
 import interfaces.FutureMeeting;
 import interfaces.Meeting;
 import interfaces.PastMeeting;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
 import org.junit.After;
 import org.junit.Before;
@@ -68,6 +79,7 @@ public class ContactManagerTest {
     System.out.println(contactManager);
     File file = new File(FILENAME);
     file.delete();
+    new File(FILENAME + ".journal").delete();
   }
   
   @Test
@@ -106,6 +118,38 @@ public class ContactManagerTest {
     assertEquals(0, expectNone.size());
   }
   
+  @Test
+  public void testGetContactsFromLongerName() {
+    contactManager.addNewContact("mike smith", "notes");
+    contactManager.addNewContact("kevin smithson", "notes");
+    contactManager.addNewContact("sue smyth", "notes");
+    
+    assertEquals(2, contactManager.getContacts("smith").size());
+    assertEquals(1, contactManager.getContacts("smithson").size());
+    assertEquals(1, contactManager.getContacts("n sm").size());
+    assertEquals(0, contactManager.getContacts("smithy").size());
+  }
+  
+  @Test
+  public void testGetContactCount() {
+    assertEquals(0, ((ContactManagerImpl) contactManager).getContactCount());
+    contactManager.addNewContact("mike", "notes");
+    contactManager.addNewContact("kevin", "notes");
+    
+    assertEquals(2, ((ContactManagerImpl) contactManager).getContactCount());
+  }
+  
+  @Test
+  public void testGetContactsReturnsCopy() {
+    ContactManagerImpl manager = (ContactManagerImpl) contactManager;
+    manager.addNewContact("mike", "notes");
+    
+    manager.getContacts().clear();
+    
+    assertEquals(1, manager.getContacts().size());
+    assertEquals(1, manager.getContactCount());
+  }
+  
   @Test
   public void testGetContactsFromNameThrowsException() {
     try {
@@ -143,6 +187,33 @@ public class ContactManagerTest {
     }
   }
   
+  @Test
+  public void testGetContactListFromIdsKeepsOrder() {
+    contactManager.addNewContact("mollie", "notes");
+    contactManager.addNewContact("mike", "notes");
+    int mollieId = contactManager.getContacts("mollie").iterator().next().getId();
+    int mikeId = contactManager.getContacts("mike").iterator().next().getId();
+    
+    List<Contact> returnedContacts = ((ContactManagerImpl) contactManager).getContactList(mikeId, mollieId, mikeId);
+    
+    assertEquals(3, returnedContacts.size());
+    assertEquals(mikeId, returnedContacts.get(0).getId());
+    assertEquals(mollieId, returnedContacts.get(1).getId());
+    assertEquals(mikeId, returnedContacts.get(2).getId());
+  }
+  
+  @Test
+  public void testGetContactListFromIdsNotFoundThrowsException() {
+    contactManager.addNewContact("mike", "notes");
+    int mikeId = contactManager.getContacts("mike").iterator().next().getId();
+    try {
+      ((ContactManagerImpl) contactManager).getContactList(mikeId, -1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      
+    }
+  }
+  
 //#### Future Meetings ####
 
   @Test
@@ -408,6 +479,41 @@ public class ContactManagerTest {
     assertTrue(returnedPastMeetings.contains((Meeting)pastMeetings.get(2)));
   }
   
+  @Test
+  public void testGetMeetingListBetweenDatesReturnsMeetingsInRangeSorted() {
+    contactManager.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    Calendar twoYearDate = Calendar.getInstance();
+    twoYearDate.add(Calendar.YEAR, 2);
+    
+    int twoYearMeetingId = contactManager.addFutureMeeting(mikeSet, twoYearDate);
+    int oneYearMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    contactManager.addNewPastMeeting(mikeSet, pastDate, "past");
+    
+    List<Meeting> returnedMeetings = ((ContactManagerImpl) contactManager).getMeetingList(nowDate, twoYearDate);
+    
+    assertEquals(2, returnedMeetings.size());
+    assertEquals(oneYearMeetingId, returnedMeetings.get(0).getId());
+    assertEquals(twoYearMeetingId, returnedMeetings.get(1).getId());
+  }
+  
+  @Test
+  public void testGetNextMeetingListReturnsUpcomingMeetingsUpToCount() {
+    contactManager.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    Calendar twoYearDate = Calendar.getInstance();
+    twoYearDate.add(Calendar.YEAR, 2);
+    
+    contactManager.addFutureMeeting(mikeSet, twoYearDate);
+    int oneYearMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    contactManager.addNewPastMeeting(mikeSet, pastDate, "past");
+    
+    List<Meeting> returnedMeetings = ((ContactManagerImpl) contactManager).getNextMeetingList(1);
+    
+    assertEquals(1, returnedMeetings.size());
+    assertEquals(oneYearMeetingId, returnedMeetings.get(0).getId());
+  }
+  
   // ### Get Meeting by Id ###
   
   @Test
@@ -632,7 +738,227 @@ public class ContactManagerTest {
       fail("addFutureMeeting() took longer than 500ms to be called, hence meeting was in the 'past'.");
     }
   }
+
+  @Test
+  public void testAddMeetingNotesMovesConvertedMeetingBetweenContactLists() {
+    contactManager.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    Contact mike = mikeSet.iterator().next();
+
+    Calendar halfSecondAwayDate = Calendar.getInstance();
+    halfSecondAwayDate.add(Calendar.MILLISECOND, 500);
+
+    int convertMeetingId = contactManager.addFutureMeeting(mikeSet, halfSecondAwayDate);
+    assertEquals(1, contactManager.getFutureMeetingList(mike).size());
+    try {
+      Thread.sleep(600);
+    } catch (InterruptedException e) {
+      fail("600ms sleep interupted");
+    }
+    contactManager.addMeetingNotes(convertMeetingId, "Convert Meeting Notes");
+
+    assertEquals(0, contactManager.getFutureMeetingList(mike).size());
+    assertEquals(1, contactManager.getPastMeetingList(mike).size());
+    assertEquals(convertMeetingId, contactManager.getPastMeetingList(mike).get(0).getId());
+  }
+
+  @Test
+  public void testClockDecidesWhenFutureMeetingCanBeConverted() {
+    Instant start = Instant.parse("2030-06-01T09:00:00Z");
+    MovableClock clock = new MovableClock(start);
+    ContactManagerImpl clocked = new ContactManagerImpl(FILENAME, false, clock);
+    clocked.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = clocked.getContacts("mike");
+
+    int id = clocked.addFutureMeeting(mikeSet, start.plusSeconds(3600));
+    try {
+      clocked.addMeetingNotes(id, "Too early");
+      fail();
+    } catch (IllegalStateException e) {
+
+    }
+    clock.set(start.plusSeconds(7200));
+    clocked.addMeetingNotes(id, "Held");
+    assertEquals("Held", clocked.getPastMeeting(id).getNotes());
+    try {
+      clocked.addFutureMeeting(mikeSet, start);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    }
+  }
+
+  @Test
+  public void testInstantMeetingsAreFoundByLocalDateInClockZone() {
+    Instant start = Instant.parse("2030-06-01T23:30:00Z");
+    Clock clock = Clock.fixed(start, ZoneId.of("Asia/Tokyo"));
+    ContactManagerImpl clocked = new ContactManagerImpl(FILENAME, false, clock);
+    clocked.addNewContact("mike", "notes");
+
+    int id = clocked.addFutureMeeting(clocked.getContacts("mike"), start.plusSeconds(60));
+    List<Meeting> meetings = clocked.getFutureMeetingList(LocalDate.of(2030, 6, 2));
+    assertEquals(1, meetings.size());
+    assertEquals(id, meetings.get(0).getId());
+    assertEquals(0, clocked.getFutureMeetingList(LocalDate.of(2030, 6, 1)).size());
+    assertEquals(1, clocked.getMeetingList(start, start.plusSeconds(60)).size());
+  }
+
+  @Test
+  public void testRollOverMovesOnlyElapsedMeetings() {
+    Instant start = Instant.parse("2030-06-01T09:00:00Z");
+    MovableClock clock = new MovableClock(start);
+    ContactManagerImpl clocked = new ContactManagerImpl(FILENAME, false, clock);
+    clocked.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = clocked.getContacts("mike");
+    Contact mike = mikeSet.iterator().next();
+    int first = clocked.addFutureMeeting(mikeSet, start.plusSeconds(3600));
+    clocked.addFutureMeeting(mikeSet, start.plusSeconds(7200));
+    int last = clocked.addFutureMeeting(mikeSet, start.plusSeconds(10800));
+    
+    assertEquals(0, clocked.rollOver());
+    clock.set(start.plusSeconds(9000));
+    assertEquals(2, clocked.rollOver());
+    
+    assertEquals(1, clocked.getFutureMeetingList(mike).size());
+    assertEquals(last, clocked.getFutureMeetingList(mike).get(0).getId());
+    assertEquals(2, clocked.getPastMeetingList(mike).size());
+    assertEquals("", clocked.getPastMeeting(first).getNotes());
+    clocked.addMeetingNotes(first, "Held");
+    assertEquals("Held", clocked.getPastMeeting(first).getNotes());
+  }
+  
+  @Test
+  public void testRolloverModeNeverReturnsElapsedMeetings() {
+    Instant start = Instant.parse("2030-06-01T09:00:00Z");
+    MovableClock clock = new MovableClock(start);
+    ContactManagerImpl clocked = new ContactManagerImpl(FILENAME, false, clock);
+    clocked.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = clocked.getContacts("mike");
+    Contact mike = mikeSet.iterator().next();
+    int id = clocked.addFutureMeeting(mikeSet, start.plusSeconds(3600));
+    
+    clocked.startRollover(1, TimeUnit.HOURS);
+    try {
+      assertTrue(clocked.isRollingOver());
+      assertEquals(1, clocked.getFutureMeetingList(mike).size());
+      clock.set(start.plusSeconds(7200));
+      
+      assertEquals(0, clocked.getFutureMeetingList(mike).size());
+      assertEquals(1, clocked.getPastMeetingList(mike).size());
+      try {
+        clocked.getFutureMeeting(id);
+        fail();
+      } catch (IllegalArgumentException e) {
+        
+      }
+    } finally {
+      clocked.stopRollover();
+    }
+    assertFalse(clocked.isRollingOver());
+  }
+  
+  @Test
+  public void testRolloverModeExportsElapsedMeetingsAsPast() throws IOException {
+    Instant start = Instant.parse("2030-06-01T09:00:00Z");
+    MovableClock clock = new MovableClock(start);
+    ContactManagerImpl clocked = new ContactManagerImpl(FILENAME, false, clock);
+    clocked.addNewContact("mike", "notes");
+    int id = clocked.addFutureMeeting(clocked.getContacts("mike"), start.plusSeconds(3600));
+    
+    clocked.startRollover(1, TimeUnit.HOURS);
+    try {
+      clock.set(start.plusSeconds(7200));
+      StringBuilder out = new StringBuilder();
+      new StoreExporter(StoreExporter.Format.CSV).export(clocked, out);
+      
+      assertTrue(out.toString().contains("\npast," + id + ","));
+      assertFalse(out.toString().contains("\nfuture,"));
+    } finally {
+      clocked.stopRollover();
+    }
+  }
   
+  @Test
+  public void testRolledOverMeetingsAreJournaled() {
+    Instant start = Instant.parse("2030-06-01T09:00:00Z");
+    MovableClock clock = new MovableClock(start);
+    ContactManagerImpl clocked = new ContactManagerImpl(FILENAME, true, clock);
+    clocked.addNewContact("mike", "notes");
+    int id = clocked.addFutureMeeting(clocked.getContacts("mike"), start.plusSeconds(3600));
+    clock.set(start.plusSeconds(7200));
+    assertEquals(1, clocked.rollOver());
+    
+    clocked.flush();
+    
+    ContactManagerImpl reloaded = new ContactManagerImpl(FILENAME, true, clock);
+    assertEquals("", reloaded.getPastMeeting(id).getNotes());
+  }
+  
+  @Test
+  public void testRestartRolloverWithRollOverPending() throws InterruptedException {
+    final ContactManagerImpl clocked = (ContactManagerImpl) contactManager;
+    Thread restart = new Thread(new Runnable() {
+      public void run() {
+        clocked.startRollover(1, TimeUnit.HOURS);
+      }
+    });
+    try {
+      synchronized (clocked) {
+        // The first roll over waits for the lock on the rollover thread.
+        clocked.startRollover(1, TimeUnit.HOURS);
+        awaitBlocked(namedThread("contact-manager-rollover"));
+        restart.start();
+        awaitBlocked(restart);
+      }
+      
+      restart.join(5000);
+      
+      assertFalse(restart.isAlive());
+      assertTrue(clocked.isRollingOver());
+    } finally {
+      clocked.stopRollover();
+    }
+  }
+  
+  /***
+   * Clock whose time is set by the test.
+   */
+  private static class MovableClock extends Clock {
+    private final AtomicReference<Instant> now;
+    private final ZoneId zone;
+
+    MovableClock(Instant now) {
+      this(new AtomicReference<Instant>(now), ZoneId.of("UTC"));
+    }
+
+    private MovableClock(AtomicReference<Instant> now, ZoneId zone) {
+      this.now = now;
+      this.zone = zone;
+    }
+
+    void set(Instant instant) {
+      now.set(instant);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return zone;
+    }
+
+    /***
+     * @see "The clock returned moves with this one."
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return new MovableClock(now, zone);
+    }
+
+    @Override
+    public Instant instant() {
+      return now.get();
+    }
+  }
+
   @Test
   public void testFlush() {
     contactManager.addNewContact("mike", "mike notes");
@@ -645,7 +971,7 @@ public class ContactManagerTest {
   }
   
   /**
-   * Test assumes flush() uses java serialization, to a file called contacts.txt.
+   * Reloads the flushed file through the constructor.
    */
   @Test
   public void testFlushSavesContacts() {
@@ -656,28 +982,7 @@ public class ContactManagerTest {
 
     contactManager.flush();
     
-    ObjectInputStream d = null;
-    try {
-        d = new ObjectInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(FILENAME)));
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
-    ContactManager deserializedContactManager  = null;
-    try {
-        deserializedContactManager = (ContactManager) d.readObject();
-    } catch (IOException e) {
-        e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-        e.printStackTrace();
-    }
-
-    try {
-        d.close();
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
+    ContactManager deserializedContactManager = new ContactManagerImpl(FILENAME);
     
     Contact deserializedMike = deserializedContactManager.getContacts("mike").iterator().next();
     Contact deserializedSue = deserializedContactManager.getContacts("sue").iterator().next();
@@ -688,8 +993,374 @@ public class ContactManagerTest {
     assertEquals(sue.getNotes(), deserializedSue.getNotes());
   }
   
+  @Test
+  public void testMeetingsAreKeptInDateOrder() {
+    contactManager.addNewContact("mike", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    Calendar laterDate = (Calendar) futureDate.clone();
+    laterDate.add(Calendar.MONTH, 1);
+    Calendar earlierDate = (Calendar) futureDate.clone();
+    earlierDate.add(Calendar.MONTH, -1);
+    int later = contactManager.addFutureMeeting(mikeSet, laterDate);
+    int earlier = contactManager.addFutureMeeting(mikeSet, earlierDate);
+    int middle = contactManager.addFutureMeeting(mikeSet, futureDate);
+    
+    List<FutureMeeting> futureMeetings = ((ContactManagerImpl) contactManager).getFutureMeetings();
+    
+    assertEquals(earlier, futureMeetings.get(0).getId());
+    assertEquals(middle, futureMeetings.get(1).getId());
+    assertEquals(later, futureMeetings.get(2).getId());
+  }
+  
+  @Test
+  public void testFutureMeetingPagesFollowDateOrder() {
+    ContactManagerImpl manager = (ContactManagerImpl) contactManager;
+    manager.addNewContact("mike", "notes");
+    Contact mike = manager.getContacts("mike").iterator().next();
+    Set<Contact> mikeSet = manager.getContacts("mike");
+    for (int i = 5; i > 0; i--) {
+      Calendar date = (Calendar) futureDate.clone();
+      date.add(Calendar.DAY_OF_MONTH, i);
+      manager.addFutureMeeting(mikeSet, date);
+    }
+    List<Meeting> all = manager.getFutureMeetingList(mike);
+    
+    ResultPage<Meeting> first = manager.getFutureMeetingPage(mike, null, 2);
+    ResultPage<Meeting> second = manager.getFutureMeetingPage(mike, first.getNextToken(), 2);
+    ResultPage<Meeting> last = manager.getFutureMeetingPage(mike, second.getNextToken(), 2);
+    
+    assertEquals(all.subList(0, 2), first.getItems());
+    assertEquals(all.subList(2, 4), second.getItems());
+    assertEquals(all.subList(4, 5), last.getItems());
+    assertFalse(last.hasNext());
+    assertThat(last.getNextToken(), is(nullValue()));
+    assertEquals(all.get(0), manager.streamFutureMeetings(mike).findFirst().get());
+    assertEquals(5, manager.streamFutureMeetings(mike).count());
+    assertEquals(0, manager.getPastMeetingPage(mike, null, 2).getItems().size());
+    try {
+      manager.getFutureMeetingPage(mike, "0:123456", 2);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected, no such meeting.
+    }
+  }
+  
+  @Test
+  public void testContactPagesFollowIdOrder() {
+    ContactManagerImpl manager = (ContactManagerImpl) contactManager;
+    manager.addNewContact("mike one", "notes");
+    manager.addNewContact("sue", "notes");
+    manager.addNewContact("mike two", "notes");
+    manager.addNewContact("mike three", "notes");
+    
+    for (String name : new String[] {"mike", "m"}) {
+      ResultPage<Contact> first = manager.getContactPage(name, null, 2);
+      ResultPage<Contact> second = manager.getContactPage(name, first.getNextToken(), 2);
+      
+      assertEquals("mike one", first.getItems().get(0).getName());
+      assertEquals("mike two", first.getItems().get(1).getName());
+      assertEquals(1, second.getItems().size());
+      assertEquals("mike three", second.getItems().get(0).getName());
+      assertFalse(second.hasNext());
+      assertEquals(3, manager.streamContacts(name).count());
+    }
+    assertEquals("sue", manager.streamContacts("s").findFirst().get().getName());
+  }
+  
+  @Test
+  public void testContactPageSkipsCandidatesThatDontMatch() {
+    ContactManagerImpl manager = (ContactManagerImpl) contactManager;
+    // Each has every trigram of "abcabc", so is a candidate, without containing it.
+    for (int i = 0; i < 5; i++) {
+      manager.addNewContact("abcab", "notes");
+    }
+    manager.addNewContact("abcabc one", "notes");
+    manager.addNewContact("abcab", "notes");
+    manager.addNewContact("abcabc two", "notes");
+    
+    ResultPage<Contact> first = manager.getContactPage("abcabc", null, 1);
+    ResultPage<Contact> second = manager.getContactPage("abcabc", first.getNextToken(), 1);
+    
+    assertEquals("abcabc one", first.getItems().get(0).getName());
+    assertTrue(first.hasNext());
+    assertEquals("abcabc two", second.getItems().get(0).getName());
+    assertFalse(second.hasNext());
+  }
+  
+  @Test
+  public void testStreamsCarryOnAsManagerChanges() {
+    ContactManagerImpl manager = (ContactManagerImpl) contactManager;
+    manager.addNewContact("mike one", "notes");
+    manager.addNewContact("mike two", "notes");
+    Contact mike = manager.getContacts("mike one").iterator().next();
+    Set<Contact> mikeSet = manager.getContacts("mike one");
+    manager.addFutureMeeting(mikeSet, futureDate);
+    Calendar laterDate = (Calendar) futureDate.clone();
+    laterDate.add(Calendar.DAY_OF_MONTH, 1);
+    manager.addFutureMeeting(mikeSet, laterDate);
+    
+    Iterator<Meeting> meetings = manager.streamFutureMeetings(mike).iterator();
+    Iterator<Contact> contacts = manager.streamContacts("mike").iterator();
+    meetings.next();
+    assertEquals("mike one", contacts.next().getName());
+    // Would have failed a stream over the live index.
+    manager.addFutureMeeting(mikeSet, futureDate);
+    manager.addNewContact("mike three", "notes");
+    
+    assertEquals(laterDate.getTimeInMillis(), meetings.next().getDate().getTimeInMillis());
+    assertEquals("mike two", contacts.next().getName());
+  }
+  
+  @Test
+  public void testBatchAddsAllOrNothing() {
+    ContactManagerImpl manager = (ContactManagerImpl) contactManager;
+    int[] ids = manager.addNewContacts(Arrays.asList("mike", "sue"), Arrays.asList("mike notes", "sue notes"));
+    List<Instant> dates = Arrays.asList(Instant.parse("2015-03-04T10:15:30Z"), Instant.parse("2015-03-05T10:15:30Z"));
+    try {
+      manager.addNewPastMeetings(Arrays.asList(new int[] {ids[0]}, new int[] {ids[1], 123456}), dates,
+          Arrays.asList("one", "two"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected, 123456 is no contact's id.
+    }
+    assertEquals(0, manager.getPastMeetings().size());
+    
+    manager.addNewPastMeetings(Arrays.asList(new int[] {ids[1], ids[0], ids[1]}, new int[] {ids[1]}), dates,
+        Arrays.asList("one", "two"));
+    
+    Contact sue = manager.getContactList(ids[1]).get(0);
+    assertEquals("sue notes", sue.getNotes());
+    assertEquals(2, manager.getPastMeetingList(sue).size());
+    assertEquals(2, manager.getPastMeetingList(sue).get(0).getContacts().size());
+    assertEquals("two", manager.getPastMeetingList(sue).get(1).getNotes());
+  }
+  
+  @Test
+  public void testFlushReplacesFileWhole() {
+    contactManager.addNewContact("mike", "mike notes");
+    contactManager.flush();
+    contactManager.addNewContact("sue", "sue notes");
+    contactManager.flush();
+    
+    assertFalse(new File(FILENAME + ".tmp").exists());
+    assertEquals(2, new ContactManagerImpl(FILENAME).getContactCount());
+  }
+  
+  @Test
+  public void testCorruptedFileIsNotLoaded() throws IOException {
+    contactManager.addNewContact("mike", "mike notes");
+    contactManager.flush();
+    byte[] bytes = Files.readAllBytes(new File(FILENAME).toPath());
+    String contents = new String(bytes, "ISO-8859-1");
+    // Changes a note, so the file still decodes but no longer matches its checksum.
+    bytes[contents.indexOf("mike notes")] = 'M';
+    Files.write(new File(FILENAME).toPath(), bytes);
+    
+    assertEquals(0, new ContactManagerImpl(FILENAME).getContactCount());
+  }
+  
+  @Test
+  public void testBadMeetingStateIsCorrupt() throws IOException {
+    // Matches its checksum, holding one meeting whose state is out of range.
+    writeStoreFile(99, 0, 0);
+    
+    ContactManagerImpl loaded = new ContactManagerImpl(FILENAME);
+    
+    assertEquals(0, loaded.getPastMeetings().size());
+    assertEquals(0, loaded.getFutureMeetings().size());
+  }
+  
+  @Test
+  public void testBadContactCountIsCorrupt() throws IOException {
+    // Matches its checksum, so is only found to be corrupt when decoded.
+    writeStoreFile(0, -1, 0);
+    
+    ContactManagerImpl loaded = new ContactManagerImpl(FILENAME);
+    
+    assertEquals(0, loaded.getPastMeetings().size());
+    assertEquals(0, loaded.getFutureMeetings().size());
+  }
+  
+  @Test
+  public void testContactCountPastEndOfBodyIsCorrupt() throws IOException {
+    // Rejected against the bytes left, before an array is allocated for it.
+    writeStoreFile(0, Integer.MAX_VALUE, 0);
+
+    ContactManagerImpl loaded = new ContactManagerImpl(FILENAME);
+
+    assertEquals(0, loaded.getPastMeetings().size());
+    assertEquals(0, loaded.getFutureMeetings().size());
+  }
+
+  @Test
+  public void testBodyShorterThanHeaderIsCorrupt() throws IOException {
+    writeStoreFile(0, 0, 1);
+    
+    ContactManagerImpl loaded = new ContactManagerImpl(FILENAME);
+    
+    assertEquals(0, loaded.getPastMeetings().size());
+    assertEquals(0, loaded.getFutureMeetings().size());
+  }
+  
   /**
-   * Test assumes flush() uses java serialization, to a file called contacts.txt.
+   * Writes a file holding one meeting in state, with a header giving the body's
+   * checksum, and its length plus extraLength.
+   */
+  private static void writeStoreFile(int state, int contactIdCount, int extraLength) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeByte(0); // journal sequence
+    out.writeByte(1); // time zones
+    out.writeByte(3);
+    out.writeBytes("UTC");
+    out.writeByte(0); // contacts
+    out.writeByte(1); // meetings
+    out.writeByte(1); // id
+    out.writeByte(state);
+    out.writeLong(0);
+    out.writeByte(0); // time zone index
+    int count = contactIdCount; // as a varint
+    while ((count & ~0x7F) != 0) {
+      out.writeByte((count & 0x7F) | 0x80);
+      count >>>= 7;
+    }
+    out.writeByte(count);
+    out.writeByte(0); // notes
+    out.close();
+    CRC32 checksum = new CRC32();
+    checksum.update(body.toByteArray());
+    
+    out = new DataOutputStream(new FileOutputStream(FILENAME));
+    out.writeInt(0x434D4752);
+    out.writeByte(1);
+    out.writeLong(body.size() + extraLength);
+    out.writeInt((int) checksum.getValue());
+    body.writeTo(out);
+    out.close();
+  }
+  
+  @Test
+  public void testFlushWaitsForAutoFlush() {
+    ContactManagerImpl autoFlushed = (ContactManagerImpl) contactManager;
+    autoFlushed.startAutoFlush(1, TimeUnit.HOURS, 0);
+    try {
+      assertTrue(autoFlushed.isAutoFlushing());
+      autoFlushed.addNewContact("mike", "mike notes");
+      
+      autoFlushed.flush();
+      
+      assertEquals(1, new ContactManagerImpl(FILENAME).getContactCount());
+    } finally {
+      autoFlushed.stopAutoFlush();
+    }
+  }
+  
+  @Test
+  public void testAutoFlushSavesAfterMutationCount() throws InterruptedException {
+    ContactManagerImpl autoFlushed = (ContactManagerImpl) contactManager;
+    autoFlushed.startAutoFlush(0, TimeUnit.MILLISECONDS, 2);
+    try {
+      autoFlushed.addNewContact("mike", "mike notes");
+      autoFlushed.addNewContact("sue", "sue notes");
+      
+      long deadline = System.currentTimeMillis() + 5000;
+      while (new ContactManagerImpl(FILENAME).getContactCount() != 2) {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+    } finally {
+      autoFlushed.stopAutoFlush();
+    }
+  }
+  
+  @Test
+  public void testStopAutoFlushSavesChanges() {
+    ContactManagerImpl autoFlushed = (ContactManagerImpl) contactManager;
+    autoFlushed.startAutoFlush(1, TimeUnit.HOURS, 1000);
+    autoFlushed.addNewContact("mike", "mike notes");
+    
+    autoFlushed.stopAutoFlush();
+    
+    assertFalse(autoFlushed.isAutoFlushing());
+    assertEquals(1, new ContactManagerImpl(FILENAME).getContactCount());
+  }
+  
+  @Test
+  public void testStopAutoFlushWithoutSavingDropsChanges() {
+    ContactManagerImpl autoFlushed = (ContactManagerImpl) contactManager;
+    autoFlushed.startAutoFlush(1, TimeUnit.HOURS, 1000);
+    autoFlushed.addNewContact("mike", "mike notes");
+    
+    autoFlushed.stopAutoFlush(false);
+    
+    assertFalse(autoFlushed.isAutoFlushing());
+    assertEquals(0, new ContactManagerImpl(FILENAME).getContactCount());
+  }
+  
+  @Test
+  public void testRestartAutoFlushWithSavePending() throws InterruptedException {
+    final ContactManagerImpl autoFlushed = (ContactManagerImpl) contactManager;
+    autoFlushed.startAutoFlush(0, TimeUnit.MILLISECONDS, 1);
+    Thread restart = new Thread(new Runnable() {
+      public void run() {
+        autoFlushed.startAutoFlush(1, TimeUnit.HOURS, 0);
+      }
+    });
+    try {
+      synchronized (autoFlushed) {
+        // The save this requests waits for the lock on the flush thread.
+        autoFlushed.addNewContact("mike", "mike notes");
+        awaitBlocked(namedThread("contact-manager-flush"));
+        restart.start();
+        awaitBlocked(restart);
+      }
+      
+      restart.join(5000);
+      
+      assertFalse(restart.isAlive());
+      assertTrue(autoFlushed.isAutoFlushing());
+      autoFlushed.flush();
+      assertEquals(1, new ContactManagerImpl(FILENAME).getContactCount());
+    } finally {
+      autoFlushed.stopAutoFlush();
+    }
+  }
+  
+  private static Thread namedThread(String name) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        if (thread.getName().equals(name)) {
+          return thread;
+        }
+      }
+      Thread.sleep(1);
+    }
+    fail();
+    return null;
+  }
+  
+  private static void awaitBlocked(Thread thread) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (thread.getState() != Thread.State.BLOCKED) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+  
+  @Test
+  public void testAutoFlushNeedsASchedule() {
+    ContactManagerImpl autoFlushed = (ContactManagerImpl) contactManager;
+    try {
+      autoFlushed.startAutoFlush(0, TimeUnit.SECONDS, 0);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    assertFalse(autoFlushed.isAutoFlushing());
+  }
+  
+  /**
+   * Reloads the flushed file through the constructor.
    */
   @Test
   public void testFlushSavesPastMeetings() {
@@ -709,28 +1380,7 @@ public class ContactManagerTest {
     
     contactManager.flush();
     
-    ObjectInputStream d = null;
-    try {
-        d = new ObjectInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(FILENAME)));
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
-    ContactManager deserializedContactManager  = null;
-    try {
-        deserializedContactManager = (ContactManager) d.readObject();
-    } catch (IOException e) {
-        e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-        e.printStackTrace();
-    }
-
-    try {
-        d.close();
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
+    ContactManager deserializedContactManager = new ContactManagerImpl(FILENAME);
     
     Contact deserializedMike = deserializedContactManager.getContacts("mike").iterator().next();
     Contact deserializedSue = deserializedContactManager.getContacts("sue").iterator().next();
@@ -750,7 +1400,7 @@ public class ContactManagerTest {
   }
   
   /**
-   * Test assumes flush() uses java serialization, to a file called contacts.txt.
+   * Reloads the flushed file through the constructor.
    */
   @Test
   public void testFlushSavesFutureMeetings() {
@@ -764,28 +1414,7 @@ public class ContactManagerTest {
     
     contactManager.flush();
     
-    ObjectInputStream d = null;
-    try {
-        d = new ObjectInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(FILENAME)));
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
-    ContactManager deserializedContactManager  = null;
-    try {
-        deserializedContactManager = (ContactManager) d.readObject();
-    } catch (IOException e) {
-        e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-        e.printStackTrace();
-    }
-
-    try {
-        d.close();
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
+    ContactManager deserializedContactManager = new ContactManagerImpl(FILENAME);
     
     Contact deserializedMike = deserializedContactManager.getContacts("mike").iterator().next();
     Contact deserializedSue = deserializedContactManager.getContacts("sue").iterator().next();
@@ -803,7 +1432,7 @@ public class ContactManagerTest {
   }
   
   /**
-   * Test assumes flush() uses java serialization, to a file called contacts.txt.
+   * Reloads the flushed file through the constructor.
    */
   @Test
   public void testFlushPreservesUniqueContactIdGeneration() {
@@ -820,28 +1449,7 @@ public class ContactManagerTest {
 
     contactManager.flush();
     
-    ObjectInputStream d = null;
-    try {
-        d = new ObjectInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(FILENAME)));
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
-    ContactManager deserializedContactManager  = null;
-    try {
-        deserializedContactManager = (ContactManager) d.readObject();
-    } catch (IOException e) {
-        e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-        e.printStackTrace();
-    }
-
-    try {
-        d.close();
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
+    ContactManager deserializedContactManager = new ContactManagerImpl(FILENAME);
     
     deserializedContactManager.addNewContact("molly", "molly notes");
     int postFlushId = deserializedContactManager.getContacts("molly").iterator().next().getId();
@@ -850,7 +1458,7 @@ public class ContactManagerTest {
   }
   
   /**
-   * Test assumes flush() uses java serialization, to a file called contacts.txt.
+   * Reloads the flushed file through the constructor.
    */
   @Test
   public void testFlushPreservesUniqueMeetingIdGeneration() {
@@ -864,33 +1472,164 @@ public class ContactManagerTest {
 
     contactManager.flush();
     
-    ObjectInputStream d = null;
-    try {
-        d = new ObjectInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(FILENAME)));
-    } catch (IOException e) {
-        e.printStackTrace();
-    }
-    ContactManager deserializedContactManager  = null;
+    ContactManager deserializedContactManager = new ContactManagerImpl(FILENAME);
+    
+    Set<Contact> deserializedMikeSet = deserializedContactManager.getContacts("mike");
+    int postFlushId = deserializedContactManager.addFutureMeeting(deserializedMikeSet, futureDate);
+    
+    assertFalse(preFlushIds.contains(postFlushId));
+  }
+  
+  @Test
+  public void testJournaledFlushIsReplayedOnLoad() {
+    ContactManager journaledManager = new ContactManagerImpl(FILENAME, true);
+    journaledManager.addNewContact("mike", "mike notes");
+    Set<Contact> mikeSet = journaledManager.getContacts("mike");
+    int mikeId = mikeSet.iterator().next().getId();
+    int futureMeetingId = journaledManager.addFutureMeeting(mikeSet, futureDate);
+    journaledManager.addNewPastMeeting(mikeSet, pastDate, "past notes");
+    int pastMeetingId = journaledManager.getPastMeetingList(mikeSet.iterator().next()).get(0).getId();
+    journaledManager.addMeetingNotes(pastMeetingId, "more notes");
+    
+    journaledManager.flush();
+    assertEquals(0, new File(FILENAME).length());
+    
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME, true);
+    Contact reloadedMike = reloadedManager.getContacts(mikeId).iterator().next();
+    
+    assertEquals("mike notes", reloadedMike.getNotes());
+    assertEquals(futureMeetingId, reloadedManager.getFutureMeeting(futureMeetingId).getId());
+    assertEquals(futureDate, reloadedManager.getFutureMeeting(futureMeetingId).getDate());
+    assertEquals("past notes; more notes", reloadedManager.getPastMeeting(pastMeetingId).getNotes());
+    assertEquals(1, reloadedManager.getPastMeetingList(reloadedMike).size());
+  }
+  
+  @Test
+  public void testJournalTornTailIsTruncatedBeforeNewRecords() throws IOException {
+    ContactManager journaledManager = new ContactManagerImpl(FILENAME, true);
+    journaledManager.addNewContact("alice", "alice notes");
+    journaledManager.flush();
+    FileOutputStream journalOut = new FileOutputStream(FILENAME + ".journal", true);
+    journalOut.write(new byte[] {1, 0, 0, 0});
+    journalOut.close();
+    
+    ContactManager reopenedManager = new ContactManagerImpl(FILENAME, true);
+    reopenedManager.addNewContact("bob", "bob notes");
+    reopenedManager.flush();
+    
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME, true);
+    assertEquals(1, reloadedManager.getContacts("alice").size());
+    assertEquals(1, reloadedManager.getContacts("bob").size());
+  }
+  
+  @Test
+  public void testJournalRecordWithBadLengthIsIgnored() throws IOException {
+    ContactManager journaledManager = new ContactManagerImpl(FILENAME, true);
+    journaledManager.addNewContact("alice", "alice notes");
+    journaledManager.flush();
+    DataOutputStream journalOut = new DataOutputStream(
+        new FileOutputStream(FILENAME + ".journal", true));
+    journalOut.writeByte(1); // contact record
+    journalOut.writeLong(Long.MAX_VALUE);
+    journalOut.writeInt(99);
+    journalOut.writeInt(-1); // name length
+    journalOut.close();
+    
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME, true);
+    assertEquals(1, reloadedManager.getContacts("alice").size());
+  }
+  
+  @Test
+  public void testChangesAfterUnknownJournalRecordSurviveReopen() throws IOException {
+    ContactManager journaledManager = new ContactManagerImpl(FILENAME, true);
+    journaledManager.addNewContact("alice", "alice notes");
+    journaledManager.flush();
+    FileOutputStream journalOut = new FileOutputStream(FILENAME + ".journal", true);
+    journalOut.write(new byte[32]); // zero filled tail
+    journalOut.close();
+    
+    ContactManager reopenedManager = new ContactManagerImpl(FILENAME, true);
+    reopenedManager.addNewContact("bob", "bob notes");
+    reopenedManager.flush();
+    
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME, true);
+    assertEquals(1, reloadedManager.getContacts("alice").size());
+    assertEquals(1, reloadedManager.getContacts("bob").size());
+  }
+  
+  @Test
+  public void testChangesAfterJournalRecordWithBadReferenceSurviveReopen() throws IOException {
+    ContactManager journaledManager = new ContactManagerImpl(FILENAME, true);
+    journaledManager.addNewContact("alice", "alice notes");
+    journaledManager.flush();
+    DataOutputStream journalOut = new DataOutputStream(
+        new FileOutputStream(FILENAME + ".journal", true));
+    journalOut.writeByte(4); // meeting notes record
+    journalOut.writeLong(Long.MAX_VALUE - 1);
+    journalOut.writeInt(Integer.MAX_VALUE); // no such meeting
+    journalOut.writeInt(0); // notes length
+    journalOut.close();
+    
+    ContactManager reopenedManager = new ContactManagerImpl(FILENAME, true);
+    reopenedManager.addNewContact("bob", "bob notes");
+    reopenedManager.flush();
+    
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME, true);
+    assertEquals(1, reloadedManager.getContacts("alice").size());
+    assertEquals(1, reloadedManager.getContacts("bob").size());
+  }
+  
+  @Test
+  public void testFlushMigratesSerializedFileToBinaryFormat() {
+    contactManager.addNewContact("mike", "mike notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    int futureMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    
+    ObjectOutputStream encode = null;
     try {
-        deserializedContactManager = (ContactManager) d.readObject();
+        encode = new ObjectOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(FILENAME)));
+        encode.writeObject(contactManager);
+        encode.close();
     } catch (IOException e) {
-        e.printStackTrace();
-    } catch (ClassNotFoundException e) {
-        e.printStackTrace();
+        fail(e.getMessage());
     }
-
+    long serializedLength = new File(FILENAME).length();
+    
+    ContactManager migratedManager = new ContactManagerImpl(FILENAME);
+    migratedManager.flush();
+    assertTrue(new File(FILENAME).length() < serializedLength);
+    
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME);
+    assertEquals(1, reloadedManager.getContacts("mike").size());
+    assertEquals(futureDate, reloadedManager.getFutureMeeting(futureMeetingId).getDate());
+  }
+  
+  @Test
+  public void testLoadedMeetingsShareContactInstances() {
+    contactManager.addNewContact("mike", "mike notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    int mikeId = mikeSet.iterator().next().getId();
+    int futureMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    
+    ObjectOutputStream encode = null;
     try {
-        d.close();
+        encode = new ObjectOutputStream(
+                new BufferedOutputStream(
+                        new FileOutputStream(FILENAME)));
+        encode.writeObject(contactManager);
+        encode.close();
     } catch (IOException e) {
-        e.printStackTrace();
+        fail(e.getMessage());
     }
     
-    Set<Contact> deserializedMikeSet = deserializedContactManager.getContacts("mike");
-    int postFlushId = deserializedContactManager.addFutureMeeting(deserializedMikeSet, futureDate);
+    ContactManager reloadedManager = new ContactManagerImpl(FILENAME);
+    Contact reloadedMike = reloadedManager.getContacts(mikeId).iterator().next();
+    Contact meetingMike = reloadedManager.getFutureMeeting(futureMeetingId).getContacts().iterator().next();
     
-    assertFalse(preFlushIds.contains(postFlushId));
+    assertSame(reloadedMike, meetingMike);
+    assertTrue(reloadedManager.getContacts("").containsAll(mikeSet));
   }
   
   @Test
@@ -5,6 +5,14 @@ import static org.junit.Assert.*;
 import impl.ContactImpl;
 import interfaces.Contact;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -72,6 +80,17 @@ public class ContactTest {
     assertTrue(returned.contains("notes3"));
   }
   
+  @Test
+  public void testAddNotesSeparatesOnlyAfterNonEmptyNotes() {
+    Contact sue = new ContactImpl("sue", "");
+    sue.addNotes("notes1");
+    assertEquals("notes1", sue.getNotes());
+    sue.addNotes("notes2");
+    assertEquals("notes1; notes2", sue.getNotes());
+    sue.addNotes("");
+    assertEquals("notes1; notes2; ", sue.getNotes());
+  }
+  
   @Test
   public void testContactUniqueIds() {
     Contact jim = new ContactImpl("jim");
@@ -80,4 +99,20 @@ public class ContactTest {
     assertThat(jim.getId(), is(not(equalTo(mike.getId()))));
   }
   
+  @Test
+  public void testEqualContactsHashAlike() throws IOException, ClassNotFoundException {
+    Contact sue = new ContactImpl("sue", "notes1");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(sue);
+    out.close();
+    Contact sueCopy = (Contact) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    Set<Contact> contacts = new HashSet<Contact>();
+    contacts.add(sue);
+    
+    assertEquals(sue, sueCopy);
+    assertEquals(sue.hashCode(), sueCopy.hashCode());
+    assertTrue(contacts.contains(sueCopy));
+  }
+  
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import impl.ContactManagerImpl;
+import impl.Histogram;
+import impl.InstrumentedContactManager;
+import impl.InstrumentedContactManager.Metrics;
+import impl.InstrumentedContactManager.Operation;
+import interfaces.Contact;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Calendar;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstrumentedContactManagerTest {
+
+  private static final String FILENAME = "instrumented_test.txt";
+  private static final String DUMP = "instrumented_test_metrics.txt";
+
+  InstrumentedContactManager contactManager;
+
+  @Before
+  public void setUp() {
+    contactManager = new InstrumentedContactManager(new ContactManagerImpl(FILENAME));
+    contactManager.addNewContact("mike", "notes");
+    contactManager.addNewContact("mia", "notes");
+  }
+
+  @After
+  public void cleanUp() {
+    contactManager.stopDumping();
+    new File(FILENAME).delete();
+    new File(DUMP).delete();
+  }
+
+  @Test
+  public void testCountsCallsAndErrors() {
+    Set<Contact> contacts = contactManager.getContacts("mi");
+    Calendar pastDate = Calendar.getInstance();
+    pastDate.add(Calendar.YEAR, -1);
+    try {
+      contactManager.addFutureMeeting(contacts, pastDate);
+      fail();
+    } catch (IllegalArgumentException e) {
+    }
+    Calendar futureDate = Calendar.getInstance();
+    futureDate.add(Calendar.YEAR, 1);
+    contactManager.addFutureMeeting(contacts, futureDate);
+
+    Metrics metrics = contactManager.getMetrics(Operation.ADD_FUTURE_MEETING);
+    assertEquals(2, metrics.getCalls());
+    assertEquals(1, metrics.getErrors());
+    assertEquals(2, metrics.getLatency().getCount());
+    assertNull(metrics.getSizes());
+    assertEquals(2, contactManager.getMetrics(Operation.ADD_NEW_CONTACT).getCalls());
+    assertEquals(0, contactManager.getMetrics(Operation.GET_MEETING).getCalls());
+  }
+
+  @Test
+  public void testRecordsResultSizes() {
+    contactManager.getContacts("mi");
+    contactManager.getContacts("mike");
+    contactManager.getContacts("nobody");
+    Histogram sizes = contactManager.getMetrics(Operation.GET_CONTACTS_BY_NAME).getSizes();
+    assertEquals(3, sizes.getCount());
+    assertEquals(2, sizes.getMax());
+    assertEquals(1, sizes.getPercentile(50));
+    assertEquals(1.0, sizes.getMean(), 0.001);
+  }
+
+  @Test
+  public void testRecordsStoreSizeOnFlush() {
+    contactManager.flush();
+    Metrics metrics = contactManager.getMetrics(Operation.FLUSH);
+    assertEquals(1, metrics.getCalls());
+    assertEquals(1, metrics.getBytes().getCount());
+    assertEquals(new File(FILENAME).length(), metrics.getBytes().getMax());
+  }
+
+  @Test
+  public void testDumpListsCalledOperations() throws IOException {
+    contactManager.getContacts("mi");
+    contactManager.dumpTo(new File(DUMP));
+    String dump = new String(Files.readAllBytes(new File(DUMP).toPath()), "UTF-8");
+    assertTrue(dump.contains("getContacts(String)"));
+    assertTrue(dump.contains("addNewContact"));
+    assertTrue(!dump.contains("flush"));
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(1000000, histogram.getMax());
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= 500000 && p50 < 500000 * 1.07);
+    long p99 = histogram.getPercentile(99);
+    assertTrue(p99 >= 990000 && p99 <= 1000000);
+    assertEquals(1000000, histogram.getPercentile(100));
+  }
+}
@@ -0,0 +1,199 @@
+package test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import impl.ContactManagerImpl;
+import impl.MappedContactManager;
+import interfaces.Contact;
+import interfaces.ContactManager;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedContactManagerTest {
+
+  private static final String FILENAME = "mapped_test.txt";
+
+  ContactManager mappedManager;
+  Contact mike;
+  int futureMeetingId;
+  int pastMeetingId;
+  Calendar pastDate;
+  Calendar futureDate;
+
+  @Before
+  public void setUp() throws IOException {
+    pastDate = Calendar.getInstance();
+    pastDate.add(Calendar.YEAR, -1);
+    futureDate = Calendar.getInstance();
+    futureDate.add(Calendar.YEAR, 1);
+
+    ContactManagerImpl contactManager = new ContactManagerImpl(FILENAME);
+    contactManager.setMappedIndexes(true);
+    contactManager.addNewContact("mike", "mike notes");
+    contactManager.addNewContact("sue", "sue notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    mike = mikeSet.iterator().next();
+    futureMeetingId = contactManager.addFutureMeeting(mikeSet, futureDate);
+    contactManager.addNewPastMeeting(contactManager.getContacts(""), pastDate, "past notes");
+    pastMeetingId = contactManager.getPastMeetingList(mike).get(0).getId();
+    contactManager.flush();
+
+    mappedManager = new MappedContactManager(FILENAME);
+  }
+
+  @After
+  public void cleanUp() {
+    new File(FILENAME).delete();
+  }
+
+  @Test
+  public void testGetContactsFromIds() {
+    Contact mappedMike = mappedManager.getContacts(mike.getId()).iterator().next();
+
+    assertEquals("mike", mappedMike.getName());
+    assertEquals("mike notes", mappedMike.getNotes());
+  }
+
+  @Test
+  public void testGetContactsFromIdsNotFoundThrowsException() {
+    try {
+      mappedManager.getContacts(mike.getId(), -1);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    }
+  }
+
+  @Test
+  public void testGetContactsFromName() {
+    assertEquals(1, mappedManager.getContacts("mi").size());
+    assertEquals(2, mappedManager.getContacts("").size());
+  }
+
+  @Test
+  public void testGetMeetingById() {
+    assertEquals(futureDate, mappedManager.getFutureMeeting(futureMeetingId).getDate());
+    assertEquals("past notes", mappedManager.getPastMeeting(pastMeetingId).getNotes());
+    assertEquals(2, mappedManager.getMeeting(pastMeetingId).getContacts().size());
+    assertThat(mappedManager.getMeeting(-1), is(nullValue()));
+  }
+
+  @Test
+  public void testGetPastMeetingByIdThrowsExceptionForFutureMeeting() {
+    try {
+      mappedManager.getPastMeeting(futureMeetingId);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    }
+  }
+
+  @Test
+  public void testGetMeetingListsByContact() {
+    List<Meeting> futureMeetings = mappedManager.getFutureMeetingList(mike);
+    List<PastMeeting> pastMeetings = mappedManager.getPastMeetingList(mike);
+
+    assertEquals(1, futureMeetings.size());
+    assertEquals(futureMeetingId, futureMeetings.get(0).getId());
+    assertEquals(1, pastMeetings.size());
+    assertEquals(pastMeetingId, pastMeetings.get(0).getId());
+  }
+
+  @Test
+  public void testGetMeetingListByDate() {
+    List<Meeting> meetings = mappedManager.getFutureMeetingList(pastDate);
+
+    assertEquals(1, meetings.size());
+    assertEquals(pastMeetingId, meetings.get(0).getId());
+  }
+
+  @Test
+  public void testIndexedQueriesMatchLoadedStore() throws IOException {
+    ContactManagerImpl contactManager = new ContactManagerImpl(FILENAME);
+    contactManager.setMappedIndexes(true);
+    String[] names = {"michael", "michelle", "mitch", "sue ellen"};
+    for (String name : names) {
+      contactManager.addNewContact(name, "notes");
+    }
+    Set<Contact> mitchSet = contactManager.getContacts("mitch");
+    Calendar date = (Calendar) futureDate.clone();
+    for (int i = 0; i < 6; i++) {
+      date.add(Calendar.HOUR_OF_DAY, -i * 7);
+      contactManager.addFutureMeeting(i % 2 == 0 ? mitchSet : contactManager.getContacts("mic"), date);
+    }
+    contactManager.flush();
+    mappedManager = new MappedContactManager(FILENAME);
+
+    for (String search : new String[] {"mic", "mich", "ell", "chelle", "xyz", "e"}) {
+      assertEquals(contactManager.getContacts(search).size(), mappedManager.getContacts(search).size());
+    }
+    for (Contact contact : contactManager.getContacts("")) {
+      assertEquals(ids(contactManager.getFutureMeetingList(contact)), ids(mappedManager.getFutureMeetingList(contact)));
+      assertEquals(ids(contactManager.getPastMeetingList(contact)), ids(mappedManager.getPastMeetingList(contact)));
+    }
+    for (int i = -2; i <= 2; i++) {
+      Calendar day = (Calendar) futureDate.clone();
+      day.add(Calendar.DAY_OF_MONTH, i);
+      assertEquals(ids(contactManager.getFutureMeetingList(day)), ids(mappedManager.getFutureMeetingList(day)));
+    }
+  }
+
+  private static List<Integer> ids(List<? extends Meeting> meetings) {
+    List<Integer> ids = new ArrayList<Integer>();
+    for (Meeting meeting : meetings) {
+      ids.add(meeting.getId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void testIndexesKeptOnceLoaded() throws IOException {
+    ContactManagerImpl contactManager = new ContactManagerImpl(FILENAME);
+    contactManager.addNewContact("kevin", "notes");
+    contactManager.flush();
+
+    mappedManager = new MappedContactManager(FILENAME);
+
+    assertEquals(1, mappedManager.getContacts("kevin").size());
+  }
+
+  @Test
+  public void testStoreWithoutIndexesThrowsException() {
+    new File(FILENAME).delete();
+    ContactManagerImpl contactManager = new ContactManagerImpl(FILENAME);
+    contactManager.addNewContact("kevin", "notes");
+    contactManager.flush();
+
+    try {
+      new MappedContactManager(FILENAME);
+      fail();
+    } catch (IOException e) {
+
+    }
+    assertEquals(1, new ContactManagerImpl(FILENAME).getContacts("kevin").size());
+  }
+
+  @Test
+  public void testAddNewContactThrowsException() {
+    try {
+      mappedManager.addNewContact("kevin", "notes");
+      fail();
+    } catch (UnsupportedOperationException e) {
+
+    }
+  }
+}
@@ -2,13 +2,16 @@ package test;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
+import impl.ContactManagerImpl;
 import impl.MeetingImpl;
 import interfaces.Contact;
 import interfaces.Meeting;
 
+import java.io.File;
 import java.util.Calendar;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TimeZone;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -52,6 +55,22 @@ public class MeetingTest {
     assertFalse(date.get(Calendar.YEAR) == meeting.getDate().get(Calendar.YEAR));
   }
   
+  @Test
+  public void testDateUnchangedByChangingConstructorDate() {
+    Calendar original = (Calendar) nowDate.clone();
+    Meeting meeting = new MeetingImpl(nowDate, contacts);
+    nowDate.add(Calendar.YEAR, 1);
+    assertEquals(original, meeting.getDate());
+  }
+  
+  @Test
+  public void testDateKeepsTimeZone() {
+    Calendar date = Calendar.getInstance(TimeZone.getTimeZone("Asia/Tokyo"));
+    Meeting meeting = new MeetingImpl(date, contacts);
+    assertEquals(date.getTimeZone(), meeting.getDate().getTimeZone());
+    assertEquals(date.getTimeInMillis(), meeting.getDate().getTimeInMillis());
+  }
+  
   @Test
   public void testContactsImmutableFromOutsideObject() {
     Meeting meeting = new MeetingImpl(nowDate, contacts);
@@ -67,4 +86,36 @@ public class MeetingTest {
     
     assertThat(meetingOne.getId(), is(not(equalTo(meetingTwo.getId()))));
   }
-}
\ No newline at end of file
+  
+  @Test
+  public void testContactsSameForOwnMeetingEachCall() {
+    Meeting meeting = new MeetingImpl(nowDate, contacts);
+    
+    assertEquals(contacts, meeting.getContacts());
+    assertFalse(meeting.getContacts() == meeting.getContacts());
+  }
+  
+  @Test
+  public void testManagersMeetingsShareItsContacts() {
+    String filename = "meeting_test.txt";
+    try {
+      ContactManagerImpl manager = new ContactManagerImpl(filename);
+      manager.addNewContact("mike", "notes");
+      manager.addNewContact("sue", "notes");
+      manager.addNewPastMeeting(manager.getContacts(""), nowDate, "notes");
+      manager.flush();
+      
+      // Reloaded meetings resolve their contact ids to the reloaded manager's contacts.
+      ContactManagerImpl reloaded = new ContactManagerImpl(filename);
+      Contact mike = reloaded.getContacts("mike").iterator().next();
+      Meeting meeting = reloaded.getPastMeetingList(mike).get(0);
+      
+      assertEquals(2, meeting.getContacts().size());
+      for (Contact contact : meeting.getContacts()) {
+        assertSame(reloaded.getContactList(contact.getId()).get(0), contact);
+      }
+    } finally {
+      new File(filename).delete();
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import impl.ContactManagerImpl;
+import impl.StoreExporter;
+import interfaces.Contact;
+import interfaces.Meeting;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StoreExporterTest {
+
+  private static final String FILENAME = "export_test.txt";
+
+  ContactManagerImpl contactManager;
+  Contact mike;
+  int pastMeetingId;
+
+  @Before
+  public void setUp() {
+    contactManager = new ContactManagerImpl(FILENAME);
+    contactManager.addNewContact("mike, \"the boss\"", "line one\nline two");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    mike = mikeSet.iterator().next();
+    Calendar pastDate = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    pastDate.setTimeInMillis(Instant.parse("2015-03-04T10:15:30Z").toEpochMilli());
+    contactManager.addNewPastMeeting(mikeSet, pastDate, "said \"hi\"");
+    pastMeetingId = contactManager.getPastMeetingList(mike).get(0).getId();
+  }
+
+  @After
+  public void cleanUp() {
+    new File(FILENAME).delete();
+  }
+
+  @Test
+  public void testTextMatchesToString() throws IOException {
+    StringBuilder out = new StringBuilder();
+    new StoreExporter(StoreExporter.Format.TEXT).export(contactManager, out);
+    assertEquals(contactManager.toString(), out.toString());
+    assertTrue(out.toString().startsWith("\nFilename: " + FILENAME + "\n\n### Contacts ###\n"));
+  }
+
+  @Test
+  public void testCsvQuotesFields() throws IOException {
+    StringBuilder out = new StringBuilder();
+    int written = new StoreExporter(StoreExporter.Format.CSV).export(contactManager, out);
+
+    assertEquals(2, written);
+    assertEquals("type,id,name,date,contacts,notes\n"
+        + "contact," + mike.getId() + ",\"mike, \"\"the boss\"\"\",,,\"line one\nline two\"\n"
+        + "past," + pastMeetingId + ",,2015-03-04T10:15:30Z," + mike.getId() + ",\"said \"\"hi\"\"\"\n",
+        out.toString());
+  }
+
+  @Test
+  public void testJsonLinesEscapesStrings() throws IOException {
+    StringBuilder out = new StringBuilder();
+    new StoreExporter(StoreExporter.Format.JSON_LINES).export(contactManager, out);
+
+    assertEquals("{\"type\":\"contact\",\"id\":" + mike.getId()
+        + ",\"name\":\"mike, \\\"the boss\\\"\",\"notes\":\"line one\\nline two\"}\n"
+        + "{\"type\":\"past\",\"id\":" + pastMeetingId + ",\"date\":\"2015-03-04T10:15:30Z\",\"contacts\":["
+        + mike.getId() + "],\"notes\":\"said \\\"hi\\\"\"}\n",
+        out.toString());
+  }
+
+  @Test
+  public void testFilterAndPage() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      contactManager.addFutureMeeting(contactManager.getContacts("mike"),
+          LocalDate.of(2100, 1, i + 1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+    StoreExporter exporter = new StoreExporter(StoreExporter.Format.JSON_LINES);
+    exporter.setContactFilter(new Predicate<Contact>() {
+      public boolean test(Contact contact) {
+        return false;
+      }
+    });
+    exporter.setMeetingFilter(new Predicate<Meeting>() {
+      public boolean test(Meeting meeting) {
+        return meeting.getId() != pastMeetingId;
+      }
+    });
+    exporter.setPage(null, 1);
+    StringBuilder first = new StringBuilder();
+    assertEquals(1, exporter.export(contactManager, first));
+    exporter.setPage(exporter.getNextToken(), 3);
+    StringBuilder out = new StringBuilder();
+
+    assertEquals(3, exporter.export(contactManager, out));
+    String[] lines = out.toString().split("\n");
+    assertEquals(3, lines.length);
+    for (String line : lines) {
+      assertTrue(line.startsWith("{\"type\":\"future\""));
+    }
+    exporter.setPage(exporter.getNextToken(), 3);
+    assertEquals(1, exporter.export(contactManager, new StringBuilder()));
+    assertThat(exporter.getNextToken(), is(nullValue()));
+  }
+
+  @Test
+  public void testPagesCarryOnAcrossSections() throws IOException {
+    for (int i = 0; i < 600; i++) {
+      contactManager.addNewContact("contact " + i, "notes");
+    }
+    for (int i = 0; i < 5; i++) {
+      contactManager.addFutureMeeting(contactManager.getContacts("mike"),
+          LocalDate.of(2100, 1, i + 1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+    StringBuilder expected = new StringBuilder();
+    assertEquals(607, new StoreExporter(StoreExporter.Format.JSON_LINES).export(contactManager, expected));
+
+    StoreExporter exporter = new StoreExporter(StoreExporter.Format.JSON_LINES);
+    StringBuilder out = new StringBuilder();
+    String token = null;
+    do {
+      exporter.setPage(token, 100);
+      exporter.export(contactManager, out);
+      token = exporter.getNextToken();
+    } while (token != null);
+
+    assertEquals(expected.toString(), out.toString());
+  }
+
+  @Test
+  public void testBadPageTokenThrowsException() {
+    try {
+      new StoreExporter(StoreExporter.Format.CSV).setPage("meeting:1", 10);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    }
+  }
+
+  @Test
+  public void testRecordsAreWrittenWithoutTheManagerLock() throws IOException {
+    final StringBuilder out = new StringBuilder();
+    new StoreExporter(StoreExporter.Format.CSV).export(contactManager, new Appendable() {
+      public Appendable append(CharSequence csq) {
+        assertFalse(Thread.holdsLock(contactManager));
+        out.append(csq);
+        return this;
+      }
+
+      public Appendable append(CharSequence csq, int start, int end) {
+        return append(csq.subSequence(start, end));
+      }
+
+      public Appendable append(char c) {
+        return append(String.valueOf(c));
+      }
+    });
+
+    assertTrue(out.toString().startsWith("type,id,name,date,contacts,notes\n"));
+  }
+
+  @Test
+  public void testNegativePageThrowsException() {
+    try {
+      new StoreExporter(StoreExporter.Format.CSV).setPage(null, -1);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    }
+  }
+}
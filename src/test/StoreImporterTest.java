@@ -0,0 +1,162 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import impl.ContactManagerImpl;
+import impl.StoreExporter;
+import impl.StoreImporter;
+import interfaces.Contact;
+import interfaces.Meeting;
+import interfaces.PastMeeting;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StoreImporterTest {
+
+  private static final String FILENAME = "import_test.txt";
+  private static final String IMPORTED_FILENAME = "imported_test.txt";
+
+  ContactManagerImpl contactManager;
+  ContactManagerImpl imported;
+
+  @Before
+  public void setUp() {
+    contactManager = new ContactManagerImpl(FILENAME);
+    contactManager.addNewContact("mike, \"the boss\"", "line one\nline two");
+    contactManager.addNewContact("sue", "notes");
+    Set<Contact> mikeSet = contactManager.getContacts("mike");
+    Calendar pastDate = Calendar.getInstance(TimeZone.getTimeZone("GMT+02:00"));
+    pastDate.setTimeInMillis(Instant.parse("2015-03-04T10:15:30Z").toEpochMilli());
+    contactManager.addNewPastMeeting(mikeSet, pastDate, "said \"hi\"");
+    Set<Contact> bothSet = new HashSet<Contact>(mikeSet);
+    bothSet.addAll(contactManager.getContacts("sue"));
+    for (int i = 0; i < 20; i++) {
+      contactManager.addFutureMeeting(bothSet, Instant.parse("2100-01-01T00:00:00Z").plusSeconds(i));
+    }
+    imported = new ContactManagerImpl(IMPORTED_FILENAME);
+  }
+
+  @After
+  public void cleanUp() {
+    new File(FILENAME).delete();
+    new File(IMPORTED_FILENAME).delete();
+  }
+
+  @Test
+  public void testCsvRoundTrip() throws IOException {
+    roundTrip(StoreExporter.Format.CSV);
+  }
+
+  @Test
+  public void testJsonLinesRoundTrip() throws IOException {
+    roundTrip(StoreExporter.Format.JSON_LINES);
+  }
+
+  @Test
+  public void testUnknownContactAddsNothing() throws IOException {
+    StoreImporter importer = new StoreImporter(StoreExporter.Format.JSON_LINES);
+    try {
+      importer.importFrom(imported, input("{\"type\":\"contact\",\"id\":1,\"name\":\"mike\",\"notes\":\"\"}\n"
+          + "{\"type\":\"past\",\"id\":2,\"date\":\"2015-03-04T10:15:30Z\",\"contacts\":[3],\"notes\":\"\"}\n"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("line 2:"));
+    }
+    assertEquals(0, imported.getContactCount());
+  }
+
+  @Test
+  public void testPastMeetingWithoutContactsAddsNothing() throws IOException {
+    StoreImporter importer = new StoreImporter(StoreExporter.Format.JSON_LINES);
+    try {
+      importer.importFrom(imported, input("{\"type\":\"contact\",\"id\":1,\"name\":\"mike\",\"notes\":\"\"}\n"
+          + "{\"type\":\"past\",\"id\":2,\"date\":\"2015-03-04T10:15:30Z\",\"contacts\":[],\"notes\":\"\"}\n"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("line 2:"));
+    }
+    assertEquals(0, imported.getContactCount());
+  }
+
+  @Test
+  public void testMalformedRecordGivesLine() {
+    StoreImporter importer = new StoreImporter(StoreExporter.Format.CSV);
+    importer.setChunkSize(8);
+    try {
+      importer.importFrom(imported, input("type,id,name,date,contacts,notes\n"
+          + "contact,1,\"mike\nsmith\",,,\n"
+          + "past,2,,yesterday,1,\n"));
+      fail();
+    } catch (IOException e) {
+      assertEquals("line 4: bad date yesterday", e.getMessage());
+    }
+    assertEquals(0, imported.getContactCount());
+  }
+
+  @Test
+  public void testImportWithAutoFlushIsSaved() throws IOException {
+    imported.startAutoFlush(1, TimeUnit.HOURS, 1);
+    try {
+      roundTrip(StoreExporter.Format.CSV);
+    } finally {
+      imported.stopAutoFlush();
+    }
+  }
+
+  @Test
+  public void testTextFormatThrowsException() {
+    try {
+      new StoreImporter(StoreExporter.Format.TEXT);
+      fail();
+    } catch (IllegalArgumentException e) {
+
+    }
+  }
+
+  private void roundTrip(StoreExporter.Format format) throws IOException {
+    StringBuilder out = new StringBuilder();
+    new StoreExporter(format).export(contactManager, out);
+    StoreImporter importer = new StoreImporter(format);
+    importer.setThreads(3);
+    importer.setChunkSize(64);
+
+    assertEquals(23, importer.importFrom(imported, input(out.toString())));
+
+    ContactManagerImpl reloaded = new ContactManagerImpl(IMPORTED_FILENAME);
+    assertEquals(2, reloaded.getContactCount());
+    Contact mike = reloaded.getContacts("mike").iterator().next();
+    assertEquals("mike, \"the boss\"", mike.getName());
+    assertEquals("line one\nline two", mike.getNotes());
+    List<PastMeeting> pastMeetings = reloaded.getPastMeetingList(mike);
+    assertEquals(1, pastMeetings.size());
+    assertEquals("said \"hi\"", pastMeetings.get(0).getNotes());
+    assertEquals(Instant.parse("2015-03-04T10:15:30Z").toEpochMilli(),
+        pastMeetings.get(0).getDate().getTimeInMillis());
+    assertEquals(2 * 60 * 60 * 1000, pastMeetings.get(0).getDate().getTimeZone().getRawOffset());
+    List<Meeting> futureMeetings = reloaded.getFutureMeetingList(mike);
+    assertEquals(20, futureMeetings.size());
+    assertEquals(2, futureMeetings.get(19).getContacts().size());
+    assertEquals(Instant.parse("2100-01-01T00:00:19Z").toEpochMilli(),
+        futureMeetings.get(19).getDate().getTimeInMillis());
+  }
+
+  private static InputStream input(String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+}